@@ -0,0 +1,322 @@
+package com.chatapp.archive;
+
+import com.chatapp.payload.response.MessageDto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * One sealed, immutable file of a room's archived messages in ascending id order.
+ * <pre>
+ * header   "CHATSEG1" roomId:long
+ * record*  bodyLength:int crc32c(body):int body = id:long sentAtMicros:long senderLength:short sender
+ *          [attachmentId:long] content
+ * footer   entries:int (id:long offset:int)* firstId:long lastId:long count:int
+ * trailer  crc32c(footer):int footerLength:int "CHATEND1"
+ * </pre>
+ * The footer is a sparse index holding every n-th record's id and offset, so a lookup decodes at
+ * most n records. The top bit of senderLength says whether an attachment id follows the sender;
+ * segments written before attachments existed never set it. A file is written under a temporary name, forced to disk and only then renamed,
+ * so a segment either exists complete or not at all; strings are UTF-8.
+ */
+final class ArchiveSegment {
+
+    static final String SUFFIX = ".seg";
+    static final String TEMP_SUFFIX = ".seg.tmp";
+
+    private static final long HEADER_MAGIC = 0x4348415453454731L; // "CHATSEG1"
+    private static final long TRAILER_MAGIC = 0x43484154454E4431L; // "CHATEND1"
+    private static final int HEADER_LENGTH = 16;
+    private static final int TRAILER_LENGTH = 16;
+    private static final long NO_SENT_AT = Long.MIN_VALUE;
+    private static final int HAS_ATTACHMENT = 0x8000;
+
+    final Path path;
+    final long roomId;
+    final long firstId;
+    final long lastId;
+    final int count;
+    private final long[] indexIds;
+    private final int[] indexOffsets;
+    private final int recordsEnd;
+
+    private ArchiveSegment(Path path, long roomId, long firstId, long lastId, int count,
+                           long[] indexIds, int[] indexOffsets, int recordsEnd) {
+        this.path = path;
+        this.roomId = roomId;
+        this.firstId = firstId;
+        this.lastId = lastId;
+        this.count = count;
+        this.indexIds = indexIds;
+        this.indexOffsets = indexOffsets;
+        this.recordsEnd = recordsEnd;
+    }
+
+    // Zero-padded so that file names sort like the ids they start with
+    static String fileName(long firstId) {
+        return String.format("%020d", firstId) + SUFFIX;
+    }
+
+    /**
+     * Writes and seals a segment of messages already sorted by id.
+     */
+    static ArchiveSegment write(Path directory, long roomId, List<MessageDto> messages, int indexInterval)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(messages.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(HEADER_MAGIC);
+        out.writeLong(roomId);
+
+        int entries = (messages.size() + indexInterval - 1) / indexInterval;
+        long[] indexIds = new long[entries];
+        int[] indexOffsets = new int[entries];
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        CRC32C crc = new CRC32C();
+        for (int i = 0; i < messages.size(); i++) {
+            MessageDto message = messages.get(i);
+            if (i % indexInterval == 0) {
+                indexIds[i / indexInterval] = message.getId();
+                indexOffsets[i / indexInterval] = out.size();
+            }
+            body.reset();
+            byte[] sender = message.getSender().getBytes(StandardCharsets.UTF_8);
+            bodyOut.writeLong(message.getId());
+            bodyOut.writeLong(toMicros(message.getSentAt()));
+            bodyOut.writeShort(message.getAttachmentId() != null ? sender.length | HAS_ATTACHMENT : sender.length);
+            bodyOut.write(sender);
+            if (message.getAttachmentId() != null) {
+                bodyOut.writeLong(message.getAttachmentId());
+            }
+            bodyOut.write(message.getContent().getBytes(StandardCharsets.UTF_8));
+            crc.reset();
+            crc.update(body.toByteArray(), 0, body.size());
+            out.writeInt(body.size());
+            out.writeInt((int) crc.getValue());
+            body.writeTo(out);
+        }
+        int recordsEnd = out.size();
+
+        long firstId = messages.get(0).getId();
+        long lastId = messages.get(messages.size() - 1).getId();
+        ByteArrayOutputStream footer = new ByteArrayOutputStream(entries * 12 + 24);
+        DataOutputStream footerOut = new DataOutputStream(footer);
+        footerOut.writeInt(entries);
+        for (int i = 0; i < entries; i++) {
+            footerOut.writeLong(indexIds[i]);
+            footerOut.writeInt(indexOffsets[i]);
+        }
+        footerOut.writeLong(firstId);
+        footerOut.writeLong(lastId);
+        footerOut.writeInt(messages.size());
+        crc.reset();
+        crc.update(footer.toByteArray(), 0, footer.size());
+        footer.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        out.writeInt(footer.size());
+        out.writeLong(TRAILER_MAGIC);
+        out.flush();
+
+        Path target = directory.resolve(fileName(firstId));
+        Path temp = directory.resolve(String.format("%020d", firstId) + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(directory);
+        return new ArchiveSegment(target, roomId, firstId, lastId, messages.size(), indexIds, indexOffsets, recordsEnd);
+    }
+
+    /**
+     * Opens a sealed segment, reading only its header and footer.
+     *
+     * @throws IOException if the file is truncated or its footer fails the checksum
+     */
+    static ArchiveSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH + TRAILER_LENGTH) {
+                throw new IOException("Archive segment too short: " + path);
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_LENGTH);
+            ByteBuffer trailer = readFully(channel, size - TRAILER_LENGTH, TRAILER_LENGTH);
+            if (header.getLong(0) != HEADER_MAGIC || trailer.getLong(8) != TRAILER_MAGIC) {
+                throw new IOException("Not a sealed archive segment: " + path);
+            }
+            int footerLength = trailer.getInt(4);
+            long footerStart = size - TRAILER_LENGTH - footerLength;
+            if (footerLength < 24 || footerStart < HEADER_LENGTH) {
+                throw new IOException("Archive segment footer out of bounds: " + path);
+            }
+            ByteBuffer footer = readFully(channel, footerStart, footerLength);
+            CRC32C crc = new CRC32C();
+            crc.update(footer.duplicate());
+            if ((int) crc.getValue() != trailer.getInt(0)) {
+                throw new IOException("Archive segment footer checksum mismatch: " + path);
+            }
+            int entries = footer.getInt();
+            long[] indexIds = new long[entries];
+            int[] indexOffsets = new int[entries];
+            for (int i = 0; i < entries; i++) {
+                indexIds[i] = footer.getLong();
+                indexOffsets[i] = footer.getInt();
+            }
+            long firstId = footer.getLong();
+            long lastId = footer.getLong();
+            int count = footer.getInt();
+            return new ArchiveSegment(path, header.getLong(8), firstId, lastId, count,
+                    indexIds, indexOffsets, (int) footerStart);
+        }
+    }
+
+    /**
+     * Up to {@code limit} messages with an id below {@code beforeId}, newest first, appended to {@code out}.
+     */
+    void readBefore(ByteBuffer buffer, long beforeId, int limit, List<MessageDto> out) {
+        List<MessageDto> block = new ArrayList<>();
+        for (int entry = lastEntryBelow(beforeId); entry >= 0 && out.size() < limit; entry--) {
+            block.clear();
+            readBlock(buffer, entry, block);
+            for (int i = block.size() - 1; i >= 0 && out.size() < limit; i--) {
+                if (block.get(i).getId() < beforeId) {
+                    out.add(block.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Up to {@code limit} messages with an id above {@code afterId}, oldest first, appended to {@code out}.
+     */
+    void readAfter(ByteBuffer buffer, long afterId, int limit, List<MessageDto> out) {
+        int offset = indexOffsets[Math.max(0, lastEntryAtOrBelow(afterId))];
+        while (offset < recordsEnd && out.size() < limit) {
+            MessageDto message = decode(buffer, offset);
+            if (message.getId() > afterId) {
+                out.add(message);
+            }
+            offset += 8 + buffer.getInt(offset);
+        }
+    }
+
+    MessageDto find(ByteBuffer buffer, long id) {
+        int entry = lastEntryAtOrBelow(id);
+        if (entry < 0 || id > lastId) {
+            return null;
+        }
+        List<MessageDto> block = new ArrayList<>();
+        readBlock(buffer, entry, block);
+        for (MessageDto message : block) {
+            if (message.getId() == id) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private void readBlock(ByteBuffer buffer, int entry, List<MessageDto> out) {
+        int end = entry + 1 < indexOffsets.length ? indexOffsets[entry + 1] : recordsEnd;
+        for (int offset = indexOffsets[entry]; offset < end; offset += 8 + buffer.getInt(offset)) {
+            out.add(decode(buffer, offset));
+        }
+    }
+
+    private MessageDto decode(ByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset);
+        int start = offset + 8;
+        if (length < 18 || start + length > recordsEnd) {
+            throw new IllegalStateException("Corrupt record at " + offset + " in " + path);
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.limit(start + length).position(start);
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+            throw new IllegalStateException("Checksum mismatch for record at " + offset + " in " + path);
+        }
+        long id = body.getLong();
+        long sentAt = body.getLong();
+        int senderLength = body.getShort() & 0xFFFF;
+        byte[] sender = new byte[senderLength & ~HAS_ATTACHMENT];
+        body.get(sender);
+        Long attachmentId = (senderLength & HAS_ATTACHMENT) != 0 ? body.getLong() : null;
+        byte[] content = new byte[body.remaining()];
+        body.get(content);
+        return new MessageDto(id, new String(sender, StandardCharsets.UTF_8), null, roomId,
+                new String(content, StandardCharsets.UTF_8), fromMicros(sentAt), false, attachmentId);
+    }
+
+    private int lastEntryBelow(long id) {
+        return lastEntryAtOrBelow(id - 1);
+    }
+
+    private int lastEntryAtOrBelow(long id) {
+        int index = Arrays.binarySearch(indexIds, id);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive segment");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Makes the rename itself durable; not every platform can open a directory for this
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+
+    private static long toMicros(LocalDateTime sentAt) {
+        if (sentAt == null) {
+            return NO_SENT_AT;
+        }
+        return sentAt.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + sentAt.getNano() / 1_000;
+    }
+
+    private static LocalDateTime fromMicros(long micros) {
+        if (micros == NO_SENT_AT) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+
+    static List<Path> list(Path directory, String suffix) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            stream.forEach(paths::add);
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+}
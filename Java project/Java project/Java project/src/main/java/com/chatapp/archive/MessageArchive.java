@@ -0,0 +1,330 @@
+package com.chatapp.archive;
+
+import com.chatapp.payload.response.MessageDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cold tier of room history: messages moved out of the messages table by {@link MessageArchiver},
+ * kept as sealed {@link ArchiveSegment} files under {@code dir/rooms/{roomId}/}. A room's segments
+ * cover consecutive id ranges, and everything at or below the newest segment's last id lives here
+ * rather than in the database. Segments are memory-mapped on first read and the most recently used
+ * {@code max-mapped-segments} stay mapped; reads decode straight from the mapping.
+ */
+@Service
+public class MessageArchive {
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchive.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.archive.dir:archive}")
+    private String directory;
+
+    @Value("${chat.archive.index-interval:32}")
+    private int indexInterval;
+
+    @Value("${chat.archive.max-mapped-segments:1024}")
+    private int maxMappedSegments;
+
+    private Path roomsDirectory;
+
+    private final ConcurrentMap<Long, RoomSegments> rooms = new ConcurrentHashMap<>();
+
+    // Access-ordered, so the eldest entry is the least recently read segment
+    private final LinkedHashMap<Path, MappedByteBuffer> mapped = new LinkedHashMap<>(64, 0.75f, true);
+
+    @PostConstruct
+    public void init() throws IOException {
+        roomsDirectory = Paths.get(directory).toAbsolutePath().resolve("rooms");
+        Files.createDirectories(roomsDirectory);
+        long segments = 0;
+        try (DirectoryStream<Path> roomDirectories = Files.newDirectoryStream(roomsDirectory)) {
+            for (Path roomDirectory : roomDirectories) {
+                Long roomId = parseRoomId(roomDirectory);
+                if (roomId == null) {
+                    continue;
+                }
+                RoomSegments room = open(roomId, roomDirectory);
+                if (room.segments.length > 0) {
+                    rooms.put(roomId, room);
+                    segments += room.segments.length;
+                }
+            }
+        }
+        logger.info("Opened {} archive segments of {} rooms in {}", segments, rooms.size(), roomsDirectory);
+        Gauge.builder("chat.archive.segments", this, archive -> archive.segmentCount())
+                .description("Sealed archive segment files")
+                .register(meterRegistry);
+    }
+
+    public boolean hasRoom(Long roomId) {
+        return rooms.containsKey(roomId);
+    }
+
+    public Set<Long> rooms() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    /**
+     * Highest archived id of the room, or 0 if nothing has been archived.
+     */
+    public long lastArchivedId(Long roomId) {
+        RoomSegments room = rooms.get(roomId);
+        return room != null ? room.lastId() : 0;
+    }
+
+    /**
+     * The id range of the room's newest segment as {first, last}, or null.
+     */
+    public long[] newestRange(Long roomId) {
+        RoomSegments room = rooms.get(roomId);
+        ArchiveSegment[] segments = room != null ? room.segments : null;
+        if (segments == null || segments.length == 0) {
+            return null;
+        }
+        ArchiveSegment newest = segments[segments.length - 1];
+        return new long[]{newest.firstId, newest.lastId};
+    }
+
+    public boolean isArchived(Long roomId, long messageId) {
+        return messageId <= lastArchivedId(roomId);
+    }
+
+    /**
+     * Up to {@code limit} archived messages of the room with an id below {@code beforeId}, newest first.
+     */
+    public List<MessageDto> before(Long roomId, long beforeId, int limit) {
+        List<MessageDto> out = new ArrayList<>(Math.min(limit, 1024));
+        RoomSegments room = rooms.get(roomId);
+        if (room == null) {
+            return out;
+        }
+        ArchiveSegment[] segments = room.segments;
+        for (int i = segmentAtOrBelow(segments, beforeId - 1); i >= 0 && out.size() < limit; i--) {
+            segments[i].readBefore(buffer(segments[i]), beforeId, limit, out);
+        }
+        return out;
+    }
+
+    /**
+     * Up to {@code limit} archived messages of the room with an id above {@code afterId}, oldest first.
+     */
+    public List<MessageDto> after(Long roomId, long afterId, int limit) {
+        List<MessageDto> out = new ArrayList<>(Math.min(limit, 1024));
+        RoomSegments room = rooms.get(roomId);
+        if (room == null) {
+            return out;
+        }
+        ArchiveSegment[] segments = room.segments;
+        for (int i = Math.max(0, segmentAtOrBelow(segments, afterId)); i < segments.length && out.size() < limit; i++) {
+            if (segments[i].lastId > afterId) {
+                segments[i].readAfter(buffer(segments[i]), afterId, limit, out);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The archived messages of the room among {@code ids}, in no particular order.
+     */
+    public List<MessageDto> find(Long roomId, Collection<Long> ids) {
+        List<MessageDto> out = new ArrayList<>();
+        RoomSegments room = rooms.get(roomId);
+        if (room == null) {
+            return out;
+        }
+        ArchiveSegment[] segments = room.segments;
+        for (Long id : ids) {
+            int i = segmentAtOrBelow(segments, id);
+            if (i >= 0) {
+                MessageDto message = segments[i].find(buffer(segments[i]), id);
+                if (message != null) {
+                    out.add(message);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Seals {@code messages}, sorted by id and all newer than anything archived for the room, as
+     * the room's next segment. Once this returns the segment survives a crash; the caller deletes
+     * the rows from the database afterwards.
+     */
+    public void append(Long roomId, List<MessageDto> messages) throws IOException {
+        RoomSegments room = rooms.computeIfAbsent(roomId, id -> new RoomSegments(new ArchiveSegment[0]));
+        synchronized (room) {
+            if (messages.get(0).getId() <= room.lastId()) {
+                throw new IllegalArgumentException("Messages overlap the archive of room " + roomId);
+            }
+            Path roomDirectory = roomsDirectory.resolve(Long.toString(roomId));
+            if (!Files.isDirectory(roomDirectory)) {
+                Files.createDirectories(roomDirectory);
+                ArchiveSegment.forceDirectory(roomsDirectory);
+            }
+            ArchiveSegment segment = ArchiveSegment.write(roomDirectory, roomId, messages, indexInterval);
+            ArchiveSegment[] segments = Arrays.copyOf(room.segments, room.segments.length + 1);
+            segments[segments.length - 1] = segment;
+            room.segments = segments;
+            if (rooms.get(roomId) != room) {
+                // Deleted while writing
+                deleteFiles(roomDirectory);
+            }
+        }
+    }
+
+    public void roomDeleted(Long roomId) {
+        RoomSegments room = rooms.remove(roomId);
+        if (room == null) {
+            return;
+        }
+        synchronized (room) {
+            synchronized (mapped) {
+                for (ArchiveSegment segment : room.segments) {
+                    mapped.remove(segment.path);
+                }
+            }
+            deleteFiles(roomsDirectory.resolve(Long.toString(roomId)));
+        }
+        logger.info("Deleted the archive of room {}", roomId);
+    }
+
+    private RoomSegments open(Long roomId, Path roomDirectory) throws IOException {
+        // A temporary file is a segment that was never sealed, and its rows are still in the database
+        for (Path temp : ArchiveSegment.list(roomDirectory, ArchiveSegment.TEMP_SUFFIX)) {
+            logger.warn("Removing unsealed archive segment {}", temp);
+            Files.delete(temp);
+        }
+        List<ArchiveSegment> segments = new ArrayList<>();
+        for (Path path : ArchiveSegment.list(roomDirectory, ArchiveSegment.SUFFIX)) {
+            try {
+                ArchiveSegment segment = ArchiveSegment.open(path);
+                if (segment.roomId != roomId
+                        || (!segments.isEmpty() && segment.firstId <= segments.get(segments.size() - 1).lastId)) {
+                    throw new IOException("Archive segment out of place: " + path);
+                }
+                segments.add(segment);
+            } catch (IOException e) {
+                // Kept for inspection but out of the way, so the room stays readable
+                logger.error("Skipping damaged archive segment: {}", e.getMessage());
+                Files.move(path, path.resolveSibling(path.getFileName() + ".corrupt"));
+            }
+        }
+        return new RoomSegments(segments.toArray(new ArchiveSegment[0]));
+    }
+
+    private ByteBuffer buffer(ArchiveSegment segment) {
+        synchronized (mapped) {
+            MappedByteBuffer buffer = mapped.get(segment.path);
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map archive segment " + segment.path, e);
+        }
+        synchronized (mapped) {
+            mapped.put(segment.path, buffer);
+            // Dropped mappings are released by the garbage collector
+            if (mapped.size() > maxMappedSegments) {
+                Map.Entry<Path, MappedByteBuffer> eldest = mapped.entrySet().iterator().next();
+                mapped.remove(eldest.getKey());
+            }
+        }
+        return buffer;
+    }
+
+    private long segmentCount() {
+        long count = 0;
+        for (RoomSegments room : rooms.values()) {
+            count += room.segments.length;
+        }
+        return count;
+    }
+
+    private static void deleteFiles(Path roomDirectory) {
+        try {
+            if (!Files.isDirectory(roomDirectory)) {
+                return;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(roomDirectory)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(roomDirectory);
+        } catch (IOException e) {
+            logger.error("Could not delete archive {}: {}", roomDirectory, e.getMessage());
+        }
+    }
+
+    // Index of the last segment starting at or below id, or -1
+    private static int segmentAtOrBelow(ArchiveSegment[] segments, long id) {
+        int low = 0;
+        int high = segments.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (segments[middle].firstId <= id) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    private static Long parseRoomId(Path roomDirectory) {
+        try {
+            return Files.isDirectory(roomDirectory) ? Long.valueOf(roomDirectory.getFileName().toString()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A room's segments in id order. Replaced as a whole when one is added, so readers never lock.
+     */
+    private static final class RoomSegments {
+        private volatile ArchiveSegment[] segments;
+
+        private RoomSegments(ArchiveSegment[] segments) {
+            this.segments = segments;
+        }
+
+        private long lastId() {
+            ArchiveSegment[] current = segments;
+            return current.length > 0 ? current[current.length - 1].lastId : 0;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.chatapp.archive;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.model.id.SnowflakeIdGenerator;
+import com.chatapp.payload.response.MessageDto;
+import com.chatapp.service.RecentMessageCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves room messages older than {@code min-age-hours} from the messages table into
+ * {@link MessageArchive}, oldest first, one segment of up to {@code segment-size} messages at a time.
+ * A chunk is sealed to disk before its rows are deleted, each delete being a single short statement
+ * over one id range. If the process dies in between, the rows exist in both tiers until the delete
+ * is repeated for every room's newest segment at the next startup; readers never see the overlap
+ * because anything at or below a room's last archived id is read from the archive. Private
+ * conversations are not archived.
+ * <p>
+ * Segments live on this node's disk while the rows are deleted from the shared database, so
+ * archiving only runs in {@code SIMPLE} broker mode; with more than one node the others would lose
+ * the messages.
+ */
+@Service
+public class MessageArchiver {
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchiver.class);
+
+    private static final String CHUNK_SQL =
+            "SELECT m.id, m.sent_at, u.username, m.content, m.attachment_id " +
+            "FROM messages m JOIN users u ON u.id = m.sender_id " +
+            "WHERE m.chat_room_id = ? AND m.id > ? AND m.id < ? ORDER BY m.id LIMIT ?";
+
+    private static final String DELETE_SQL =
+            "DELETE FROM messages WHERE chat_room_id = ? AND id >= ? AND id <= ?";
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private RecentMessageCache recentMessageCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private WebSocketConfig.BrokerMode brokerMode;
+
+    @Value("${chat.archive.min-age-hours:2160}")
+    private long minAgeHours;
+
+    @Value("${chat.archive.interval-ms:3600000}")
+    private long intervalMillis;
+
+    @Value("${chat.archive.segment-size:10000}")
+    private int segmentSize;
+
+    // Rooms with fewer old messages than this are left alone until more accumulate
+    @Value("${chat.archive.min-segment-size:1000}")
+    private int minSegmentSize;
+
+    // Rooms whose newest segment may still have rows in the database
+    private final Set<Long> pendingDeletes = ConcurrentHashMap.newKeySet();
+
+    private Counter archived;
+    private ScheduledExecutorService scheduler;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (brokerMode != WebSocketConfig.BrokerMode.SIMPLE) {
+            // Rows still in the database are the only copy the other nodes can read, so none are deleted
+            if (enabled) {
+                logger.warn("Message archiving disabled: broker mode {} runs more than one node", brokerMode);
+                enabled = false;
+            }
+            return;
+        }
+        // Done even when archiving is off, since sealed segments are always served from the archive
+        pendingDeletes.addAll(messageArchive.rooms());
+        completeDeletes();
+        if (!enabled) {
+            return;
+        }
+        archived = Counter.builder("chat.archive.archived")
+                .description("Messages moved from the database to the archive")
+                .register(meterRegistry);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::archive, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("Archiving room messages older than {} hours every {} ms", minAgeHours, intervalMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void archive() {
+        long cutoffId = SnowflakeIdGenerator.minIdAt(
+                System.currentTimeMillis() - TimeUnit.HOURS.toMillis(minAgeHours));
+        long moved = 0;
+        try {
+            completeDeletes();
+            List<Long> roomIds = jdbcTemplate.queryForList("SELECT id FROM chat_rooms ORDER BY id", Long.class);
+            for (Long roomId : roomIds) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                moved += archiveRoom(roomId, cutoffId);
+            }
+        } catch (Exception e) {
+            logger.error("Archiving stopped", e);
+        }
+        if (moved > 0) {
+            logger.info("Archived {} messages", moved);
+        }
+    }
+
+    private long archiveRoom(Long roomId, long cutoffId) throws Exception {
+        long moved = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<MessageDto> chunk = jdbcTemplate.query(CHUNK_SQL,
+                    (row, i) -> new MessageDto(row.getLong(1), row.getString(3), null, roomId, row.getString(4),
+                            row.getObject(2, LocalDateTime.class), false, row.getObject(5, Long.class)),
+                    roomId, messageArchive.lastArchivedId(roomId), cutoffId, segmentSize);
+            if (chunk.isEmpty() || chunk.size() < minSegmentSize) {
+                break;
+            }
+            messageArchive.append(roomId, chunk);
+            pendingDeletes.add(roomId);
+            long first = chunk.get(0).getId();
+            long last = chunk.get(chunk.size() - 1).getId();
+            jdbcTemplate.update(DELETE_SQL, roomId, first, last);
+            pendingDeletes.remove(roomId);
+            recentMessageCache.evict(roomId);
+            archived.increment(chunk.size());
+            moved += chunk.size();
+            if (chunk.size() < segmentSize) {
+                break;
+            }
+        }
+        return moved;
+    }
+
+    private void completeDeletes() {
+        for (Long roomId : pendingDeletes) {
+            long[] range = messageArchive.newestRange(roomId);
+            if (range != null) {
+                int deleted = jdbcTemplate.update(DELETE_SQL, roomId, range[0], range[1]);
+                if (deleted > 0) {
+                    logger.warn("Deleted {} messages of room {} left behind by an interrupted archive run", deleted, roomId);
+                    recentMessageCache.evict(roomId);
+                }
+            }
+            pendingDeletes.remove(roomId);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.chatapp.attachment;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed attachment bytes under {@code dir/blobs/{first two hex digits}/{sha256}}.
+ * An upload is streamed to a temporary file while it is hashed, forced to disk and then renamed to
+ * its hash, so a blob either exists complete or not at all. Content that is already stored is not
+ * written twice. Blobs are immutable; the hash doubles as their strong ETag.
+ */
+@Service
+public class AttachmentStore {
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentStore.class);
+
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.attachments.dir:attachments}")
+    private String directory;
+
+    private Path blobsDirectory;
+    private Path tempDirectory;
+    private Counter stored;
+    private Counter deduplicated;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path root = Paths.get(directory).toAbsolutePath();
+        blobsDirectory = root.resolve("blobs");
+        tempDirectory = root.resolve("tmp");
+        Files.createDirectories(blobsDirectory);
+        Files.createDirectories(tempDirectory);
+        // Left behind by uploads interrupted before their rename
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(tempDirectory)) {
+            for (Path temp : temps) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        stored = Counter.builder("chat.attachments.stored")
+                .description("Uploads whose content was written to disk")
+                .register(meterRegistry);
+        deduplicated = Counter.builder("chat.attachments.deduplicated")
+                .description("Uploads whose content was already stored")
+                .register(meterRegistry);
+        logger.info("Attachment blobs in {}", blobsDirectory);
+    }
+
+    /**
+     * Stores the content of {@code in}, which is read to the end but not closed.
+     */
+    public StoredBlob store(InputStream in) throws IOException {
+        MessageDigest digest = sha256();
+        Path temp = tempDirectory.resolve(UUID.randomUUID() + ".tmp");
+        try {
+            long size;
+            try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                size = new DigestInputStream(in, digest).transferTo(out);
+            }
+            String hash = hex(digest.digest());
+            Path target = path(hash);
+            if (Files.exists(target)) {
+                deduplicated.increment();
+                return new StoredBlob(hash, size, true);
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.createDirectories(target.getParent());
+            // Identical concurrent uploads may both get here; either rename leaves the same bytes
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(target.getParent());
+            stored.increment();
+            return new StoredBlob(hash, size, false);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Deletes a blob no attachment refers to, such as one stored for an upload that was then refused.
+     */
+    public void delete(String sha256) throws IOException {
+        Files.deleteIfExists(path(sha256));
+    }
+
+    public Path path(String sha256) {
+        if (!SHA256_HEX.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("Not a SHA-256 hash: " + sha256);
+        }
+        return blobsDirectory.resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+
+    public static final class StoredBlob {
+        private final String sha256;
+        private final long size;
+        private final boolean deduplicated;
+
+        StoredBlob(String sha256, long size, boolean deduplicated) {
+            this.sha256 = sha256;
+            this.size = size;
+            this.deduplicated = deduplicated;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isDeduplicated() {
+            return deduplicated;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.chatapp.cluster;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Broker channel interceptor that publishes room topics and unresolved user destinations to the
+ * other nodes, and replays their messages into the local broker channel. Each node keeps its own
+ * SimpleBroker; a user destination is resolved by whichever node holds the user's sessions.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.broker.mode", havingValue = "CLUSTER")
+public class ClusterBrokerBridge implements ChannelInterceptor {
+
+    // Marks messages received from another node so they are not published again
+    static final String ORIGIN_HEADER = "chatClusterOrigin";
+
+    @Autowired
+    private ClusterBus clusterBus;
+
+    @Autowired
+    @Lazy
+    @Qualifier("brokerChannel")
+    private MessageChannel brokerChannel;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.id.node-id:0}")
+    private long nodeId;
+
+    private final Consumer<ClusterEnvelope> listener = this::deliver;
+
+    private Counter published;
+    private Counter received;
+
+    @PostConstruct
+    public void init() {
+        published = meterRegistry.counter("chat.cluster.published");
+        received = meterRegistry.counter("chat.cluster.received");
+        clusterBus.subscribe(listener);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clusterBus.unsubscribe(listener);
+    }
+
+    @Override
+    public void postSend(Message<?> message, MessageChannel channel, boolean sent) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        String destination = accessor.getDestination();
+        if (!sent || accessor.getMessageType() != SimpMessageType.MESSAGE || destination == null
+                || accessor.getHeader(ORIGIN_HEADER) != null || !(message.getPayload() instanceof byte[])) {
+            return;
+        }
+        // Session-specific destinations resolved from /user/** are local by definition and start with /queue/
+        if (destination.startsWith("/topic/") || destination.startsWith("/user/")) {
+            MimeType contentType = accessor.getContentType();
+            clusterBus.publish(new ClusterEnvelope(nodeId, destination,
+                    contentType != null ? contentType.toString() : null,
+                    accessor.toNativeHeaderMap(), (byte[]) message.getPayload()));
+            published.increment();
+        }
+    }
+
+    private void deliver(ClusterEnvelope envelope) {
+        if (envelope.getOriginNodeId() == nodeId) {
+            return;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(envelope.getDestination());
+        if (envelope.getContentType() != null) {
+            accessor.setContentType(MimeType.valueOf(envelope.getContentType()));
+        }
+        for (Map.Entry<String, List<String>> header : envelope.getNativeHeaders().entrySet()) {
+            for (String value : header.getValue()) {
+                accessor.addNativeHeader(header.getKey(), value);
+            }
+        }
+        accessor.setHeader(ORIGIN_HEADER, envelope.getOriginNodeId());
+        brokerChannel.send(MessageBuilder.createMessage(envelope.getPayload(), accessor.getMessageHeaders()));
+        received.increment();
+    }
+}
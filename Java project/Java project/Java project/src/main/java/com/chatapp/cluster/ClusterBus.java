@@ -0,0 +1,17 @@
+package com.chatapp.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Node-to-node transport used by {@link ClusterBrokerBridge} when {@code chat.broker.mode=CLUSTER}.
+ * Implementations deliver every published envelope to the listeners of all nodes, including the
+ * publishing node; the bridge skips its own envelopes.
+ */
+public interface ClusterBus {
+
+    void publish(ClusterEnvelope envelope);
+
+    void subscribe(Consumer<ClusterEnvelope> listener);
+
+    void unsubscribe(Consumer<ClusterEnvelope> listener);
+}
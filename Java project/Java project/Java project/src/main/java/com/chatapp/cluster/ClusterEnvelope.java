@@ -0,0 +1,45 @@
+package com.chatapp.cluster;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A broker message as published to other nodes: the destination, the already-serialized payload
+ * and the headers subscribers need to decode it.
+ */
+public class ClusterEnvelope {
+    private final long originNodeId;
+    private final String destination;
+    private final String contentType;
+    private final Map<String, List<String>> nativeHeaders;
+    private final byte[] payload;
+
+    public ClusterEnvelope(long originNodeId, String destination, String contentType,
+                           Map<String, List<String>> nativeHeaders, byte[] payload) {
+        this.originNodeId = originNodeId;
+        this.destination = destination;
+        this.contentType = contentType;
+        this.nativeHeaders = nativeHeaders;
+        this.payload = payload;
+    }
+
+    public long getOriginNodeId() {
+        return originNodeId;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Map<String, List<String>> getNativeHeaders() {
+        return nativeHeaders;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
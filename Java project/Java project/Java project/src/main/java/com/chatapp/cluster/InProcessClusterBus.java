@@ -0,0 +1,45 @@
+package com.chatapp.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link ClusterBus} whose listeners are shared by every application context in the JVM.
+ * Starting several contexts with different ports and node ids gives a multi-node setup on one
+ * machine without an external broker. It does not reach other JVMs; use RELAY mode for that.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.broker.mode", havingValue = "CLUSTER")
+public class InProcessClusterBus implements ClusterBus {
+    private static final Logger logger = LoggerFactory.getLogger(InProcessClusterBus.class);
+
+    private static final List<Consumer<ClusterEnvelope>> LISTENERS = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(ClusterEnvelope envelope) {
+        for (Consumer<ClusterEnvelope> listener : LISTENERS) {
+            try {
+                listener.accept(envelope);
+            } catch (RuntimeException e) {
+                // One node failing to deliver must not stop delivery to the others
+                logger.warn("Cluster delivery to {} failed: {}", envelope.getDestination(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterEnvelope> listener) {
+        LISTENERS.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(Consumer<ClusterEnvelope> listener) {
+        LISTENERS.remove(listener);
+    }
+}
@@ -0,0 +1,116 @@
+package com.chatapp.config;
+
+import com.chatapp.model.Message;
+import com.chatapp.payload.request.ChatMessage;
+import com.chatapp.payload.response.ReplayResponse;
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.ChatLookupCache;
+import com.chatapp.service.MessageReplayLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Replays missed messages to a client that resubscribes with a {@code last-seq} header:
+ * {@code /topic/room.{id}} takes the last sequence seen in that room, {@code /user/queue/messages}
+ * takes {@code username=seq} pairs separated by commas, one per conversation. The gap, or a resync
+ * signal, goes to that session only on /user/queue/replay. It is sent once the broker has
+ * registered the subscription, so every later message arrives live; clients drop duplicates by seq.
+ */
+@Component
+public class MessageReplayInterceptor implements ExecutorChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(MessageReplayInterceptor.class);
+
+    public static final String LAST_SEQ_HEADER = "last-seq";
+
+    private static final String ROOM_TOPIC_PREFIX = "/topic/room.";
+    private static final String PRIVATE_QUEUE = "/user/queue/messages";
+
+    @Autowired
+    private MessageReplayLog messageReplayLog;
+
+    @Autowired
+    private ChatLookupCache chatLookupCache;
+
+    // Lazy: the template depends on the broker configuration this interceptor is registered with
+    @Autowired
+    @Lazy
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Override
+    public void afterMessageHandled(org.springframework.messaging.Message<?> message, MessageChannel channel,
+                                    MessageHandler handler, Exception ex) {
+        if (ex != null || !messageReplayLog.isEnabled()) {
+            return;
+        }
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+        String lastSeq = accessor.getFirstNativeHeader(LAST_SEQ_HEADER);
+        String destination = accessor.getDestination();
+        if (!StompCommand.SUBSCRIBE.equals(accessor.getCommand()) || lastSeq == null || destination == null
+                || !(accessor.getUser() instanceof Authentication)) {
+            return;
+        }
+        try {
+            if (handler instanceof SimpleBrokerMessageHandler && destination.startsWith(ROOM_TOPIC_PREFIX)) {
+                Long roomId = Long.valueOf(destination.substring(ROOM_TOPIC_PREFIX.length()));
+                replay(accessor, destination, null, MessageReplayLog.roomScope(roomId), Long.parseLong(lastSeq.trim()));
+            } else if (handler instanceof UserDestinationMessageHandler && destination.equals(PRIVATE_QUEUE)) {
+                replayConversations(accessor, lastSeq);
+            }
+        } catch (NumberFormatException e) {
+            // Also covers sub-topics such as /topic/room.{id}.typing, which have no sequence
+            logger.debug("Ignoring {} header '{}' on {}", LAST_SEQ_HEADER, lastSeq, destination);
+        }
+    }
+
+    private void replayConversations(StompHeaderAccessor accessor, String lastSeqs) {
+        Object principal = ((Authentication) accessor.getUser()).getPrincipal();
+        if (!(principal instanceof UserDetailsImpl)) {
+            return;
+        }
+        Long userId = ((UserDetailsImpl) principal).getId();
+        for (String entry : lastSeqs.split(",")) {
+            int separator = entry.lastIndexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            String otherUsername = entry.substring(0, separator).trim();
+            long lastSeq = Long.parseLong(entry.substring(separator + 1).trim());
+            Optional<Long> otherUserId = chatLookupCache.findUserId(otherUsername);
+            // An unknown user still gets an answer, so the client stops waiting for one
+            String scope = otherUserId
+                    .map(otherId -> MessageReplayLog.conversationScope(Message.conversationKey(userId, otherId)))
+                    .orElse(null);
+            replay(accessor, PRIVATE_QUEUE, otherUsername, scope, lastSeq);
+        }
+    }
+
+    private void replay(StompHeaderAccessor accessor, String destination, String with, String scope, long lastSeq) {
+        List<ChatMessage> missed = scope != null ? messageReplayLog.since(scope, lastSeq) : null;
+        ReplayResponse response = new ReplayResponse(destination, with, missed, missed == null);
+
+        // Addressed to the resubscribing session, not to every session of the user
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(accessor.getSessionId());
+        headers.setLeaveMutable(true);
+        Principal user = accessor.getUser();
+        messagingTemplate.convertAndSendToUser(user.getName(), "/queue/replay", response, headers.getMessageHeaders());
+    }
+}
@@ -0,0 +1,252 @@
+package com.chatapp.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.security.Principal;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limits how fast a client may SEND, per destination type, with one token bucket per session and
+ * one per user (shared by all of the user's sessions, so reconnecting or opening more tabs does not
+ * reset it). Runs on the WebSocket thread before the frame is queued, so rejected frames cost
+ * nothing downstream. A rejection surfaces as a STOMP ERROR frame, after which the session is closed
+ * as the protocol requires; the client reconnects and replays what it missed with last-seq.
+ * Session buckets go with their session and buckets that have fully refilled are swept, since they
+ * are indistinguishable from new ones.
+ */
+@Component
+public class RateLimitChannelInterceptor implements ChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitChannelInterceptor.class);
+
+    private enum Limit {
+        ROOM("room", "/app/chat.room."),
+        PRIVATE("private", "/app/chat.private."),
+        JOIN("join", "/app/chat.addUser"),
+        TYPING("typing", "/app/chat.typing.");
+
+        private final String key;
+        private final String prefix;
+
+        Limit(String key, String prefix) {
+            this.key = key;
+            this.prefix = prefix;
+        }
+
+        static Limit of(String destination) {
+            if (destination != null) {
+                for (Limit limit : values()) {
+                    if (destination.startsWith(limit.prefix)) {
+                        return limit;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    // A user's buckets hold this many times the per-session rate and burst
+    @Value("${chat.rate-limit.user-multiplier:2}")
+    private double userMultiplier;
+
+    @Value("${chat.rate-limit.room.per-second:10}")
+    private double roomPerSecond;
+
+    @Value("${chat.rate-limit.room.burst:20}")
+    private double roomBurst;
+
+    @Value("${chat.rate-limit.private.per-second:10}")
+    private double privatePerSecond;
+
+    @Value("${chat.rate-limit.private.burst:20}")
+    private double privateBurst;
+
+    @Value("${chat.rate-limit.join.per-second:1}")
+    private double joinPerSecond;
+
+    @Value("${chat.rate-limit.join.burst:5}")
+    private double joinBurst;
+
+    @Value("${chat.rate-limit.typing.per-second:5}")
+    private double typingPerSecond;
+
+    @Value("${chat.rate-limit.typing.burst:10}")
+    private double typingBurst;
+
+    @Value("${chat.rate-limit.sweep-interval-ms:60000}")
+    private long sweepIntervalMillis;
+
+    private final ConcurrentMap<String, Buckets> sessionBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Buckets> userBuckets = new ConcurrentHashMap<>();
+
+    // Per limit: nanoseconds one frame costs, and how far ahead of now a bucket may run
+    private final long[] sessionInterval = new long[Limit.values().length];
+    private final long[] sessionTolerance = new long[Limit.values().length];
+    private final long[] userInterval = new long[Limit.values().length];
+    private final long[] userTolerance = new long[Limit.values().length];
+    private final Counter[] sessionRejected = new Counter[Limit.values().length];
+    private final Counter[] userRejected = new Counter[Limit.values().length];
+
+    private ScheduledExecutorService sweeper;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        configure(Limit.ROOM, roomPerSecond, roomBurst);
+        configure(Limit.PRIVATE, privatePerSecond, privateBurst);
+        configure(Limit.JOIN, joinPerSecond, joinBurst);
+        configure(Limit.TYPING, typingPerSecond, typingBurst);
+        Gauge.builder("chat.ratelimit.buckets", this, interceptor -> interceptor.bucketCount())
+                .description("Rate-limit buckets held for sessions and users")
+                .register(meterRegistry);
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!enabled) {
+            return message;
+        }
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+        if (!StompCommand.SEND.equals(accessor.getCommand())) {
+            return message;
+        }
+        Limit limit = Limit.of(accessor.getDestination());
+        String sessionId = accessor.getSessionId();
+        if (limit == null || sessionId == null) {
+            return message;
+        }
+        int i = limit.ordinal();
+        long now = System.nanoTime();
+        if (!sessionBuckets.computeIfAbsent(sessionId, id -> new Buckets(now))
+                .tryAcquire(i, now, sessionInterval[i], sessionTolerance[i])) {
+            sessionRejected[i].increment();
+            throw rejected(limit, accessor);
+        }
+        Principal user = accessor.getUser();
+        if (user != null && !userBuckets.computeIfAbsent(user.getName(), name -> new Buckets(now))
+                .tryAcquire(i, now, userInterval[i], userTolerance[i])) {
+            userRejected[i].increment();
+            throw rejected(limit, accessor);
+        }
+        return message;
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        sessionBuckets.remove(event.getSessionId());
+    }
+
+    private int bucketCount() {
+        return sessionBuckets.size() + userBuckets.size();
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        // A frame racing the removal lands in the dropped bucket, which at worst forgives that one frame
+        userBuckets.values().removeIf(buckets -> buckets.isFull(now));
+        sessionBuckets.values().removeIf(buckets -> buckets.isFull(now));
+    }
+
+    private void configure(Limit limit, double perSecond, double burst) {
+        int i = limit.ordinal();
+        sessionInterval[i] = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        sessionTolerance[i] = (long) (sessionInterval[i] * burst);
+        userInterval[i] = (long) (sessionInterval[i] / userMultiplier);
+        userTolerance[i] = (long) (userInterval[i] * burst * userMultiplier);
+        sessionRejected[i] = rejectedCounter(limit, "session");
+        userRejected[i] = rejectedCounter(limit, "user");
+        logger.info("Rate limit for {} messages: {}/s with bursts of {} per session", limit.key, perSecond, burst);
+    }
+
+    private Counter rejectedCounter(Limit limit, String scope) {
+        return Counter.builder("chat.ratelimit.rejected")
+                .description("Inbound frames refused by the rate limiter")
+                .tag("type", limit.key)
+                .tag("scope", scope)
+                .register(meterRegistry);
+    }
+
+    private static MessageDeliveryException rejected(Limit limit, StompHeaderAccessor accessor) {
+        logger.warn("Rate limit for {} exceeded by {} in session {}", limit.key,
+                accessor.getUser() != null ? accessor.getUser().getName() : "anonymous", accessor.getSessionId());
+        return new MessageDeliveryException("Rate limit exceeded for " + limit.key + " messages");
+    }
+
+    /**
+     * One bucket per limit, each kept as the time at which it will be full again (GCRA), so taking a
+     * token is a single compare-and-set.
+     */
+    static final class Buckets {
+        private final AtomicLongArray fullAt = new AtomicLongArray(Limit.values().length);
+
+        Buckets(long now) {
+            for (int i = 0; i < fullAt.length(); i++) {
+                fullAt.set(i, now);
+            }
+        }
+
+        boolean tryAcquire(int limit, long now, long interval, long tolerance) {
+            while (true) {
+                long current = fullAt.get(limit);
+                long next = Math.max(current - now, 0) + now + interval;
+                if (next - now > tolerance) {
+                    return false;
+                }
+                if (fullAt.compareAndSet(limit, current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean isFull(long now) {
+            for (int i = 0; i < fullAt.length(); i++) {
+                if (fullAt.get(i) - now > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
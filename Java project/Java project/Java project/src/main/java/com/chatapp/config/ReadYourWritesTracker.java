@@ -0,0 +1,83 @@
+package com.chatapp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers which users wrote something in the last {@code read-your-writes-ms}, so that
+ * {@link ReplicaRoutingDataSource} sends their reads to the primary until the replicas have
+ * caught up and users always see their own messages, rooms and read markers. Messages are recorded
+ * by {@code ChatController}; as an interceptor it records every REST request that is not a GET.
+ */
+@Component
+public class ReadYourWritesTracker implements HandlerInterceptor {
+    // Expired entries are dropped once this many users are tracked
+    private static final int SWEEP_THRESHOLD = 10000;
+
+    @Value("${chat.datasource.replicas.read-your-writes-ms:2000}")
+    private long windowMillis;
+
+    private final ConcurrentMap<String, Long> writtenUntil = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method) && !"OPTIONS".equals(method)) {
+            recordWrite(currentUsername());
+        }
+    }
+
+    /**
+     * The authenticated user of the current thread, or null.
+     */
+    public static String currentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken) {
+            return null;
+        }
+        return authentication.getName();
+    }
+
+    public void recordWrite(String username) {
+        if (username == null || windowMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        writtenUntil.put(username, now + windowMillis);
+        if (writtenUntil.size() > SWEEP_THRESHOLD) {
+            writtenUntil.values().removeIf(until -> until < now);
+        }
+    }
+
+    /**
+     * Whether a write at the given time may not have reached the replicas yet.
+     */
+    public boolean withinWindow(long writtenAtMillis) {
+        return System.currentTimeMillis() - writtenAtMillis < windowMillis;
+    }
+
+    public boolean recentlyWrote(String username) {
+        if (username == null) {
+            return false;
+        }
+        Long until = writtenUntil.get(username);
+        if (until == null) {
+            return false;
+        }
+        if (until < System.currentTimeMillis()) {
+            writtenUntil.remove(username, until);
+            return false;
+        }
+        return true;
+    }
+}
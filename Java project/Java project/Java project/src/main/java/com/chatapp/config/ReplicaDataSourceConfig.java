@@ -0,0 +1,106 @@
+package com.chatapp.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Routes read-only transactions to read replicas when {@code chat.datasource.replicas.urls} lists
+ * any; otherwise Spring Boot's single data source is used unchanged. The primary pool is still
+ * configured with {@code spring.datasource.*}; replicas share its driver and, unless overridden,
+ * its credentials.
+ */
+@Configuration
+@ConditionalOnExpression("!'${chat.datasource.replicas.urls:}'.trim().isEmpty()")
+public class ReplicaDataSourceConfig implements WebMvcConfigurer {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaDataSourceConfig.class);
+
+    @Autowired
+    private ReadYourWritesTracker readYourWritesTracker;
+
+    @Value("${chat.datasource.replicas.urls}")
+    private String[] replicaUrls;
+
+    @Value("${chat.datasource.replicas.username:${spring.datasource.username:}}")
+    private String replicaUsername;
+
+    @Value("${chat.datasource.replicas.password:${spring.datasource.password:}}")
+    private String replicaPassword;
+
+    @Value("${chat.datasource.replicas.pool-size:10}")
+    private int replicaPoolSize;
+
+    @Value("${chat.datasource.replicas.connection-timeout-ms:1000}")
+    private long replicaConnectionTimeoutMillis;
+
+    @Value("${chat.datasource.replicas.health-check-interval-ms:5000}")
+    private long healthCheckIntervalMillis;
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        primary.setPoolName("primary");
+        return primary;
+    }
+
+    @Bean(destroyMethod = "close")
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource,
+                                                             DataSourceProperties properties) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < replicaUrls.length; i++) {
+            String url = replicaUrls[i].trim();
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + (i + 1));
+            replica.setJdbcUrl(url);
+            replica.setDriverClassName(properties.determineDriverClassName());
+            replica.setUsername(replicaUsername);
+            replica.setPassword(replicaPassword);
+            replica.setMaximumPoolSize(replicaPoolSize);
+            replica.setConnectionTimeout(replicaConnectionTimeoutMillis);
+            replica.setReadOnly(true);
+            // Start even if the replica is unreachable; the health check brings it in later
+            replica.setInitializationFailTimeout(-1);
+            replicas.add(replica);
+            logger.info("Read replica {}: {}", replica.getPoolName(), url);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, readYourWritesTracker,
+                healthCheckIntervalMillis);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    // Hibernate would otherwise keep the first connection of a session until the request ends,
+    // so a read on a replica would pin later writes of the same request to it
+    @Bean
+    public HibernatePropertiesCustomizer releaseConnectionAfterTransaction() {
+        return properties -> properties.put("hibernate.connection.handling_mode",
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(readYourWritesTracker);
+    }
+}
@@ -0,0 +1,169 @@
+package com.chatapp.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Hands out primary connections for writes and replica connections for read-only transactions.
+ * Replicas are taken round-robin, skipping any that failed their last health check or connection
+ * attempt; with none healthy, reads fall back to the primary. Users who wrote within the
+ * read-your-writes window ({@link ReadYourWritesTracker}) read from the primary too.
+ * <p>
+ * The read-only flag of a transaction is only known after it has begun, so this data source
+ * must sit behind a {@code LazyConnectionDataSourceProxy}, which defers fetching the connection
+ * to the first statement. Its meters are bound as a {@link MeterBinder}, since the meter registry
+ * itself depends on the data sources.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final ReadYourWritesTracker readYourWritesTracker;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile Counter primaryWrites;
+    private volatile Counter primaryReadYourWrites;
+    private volatile Counter primaryFallbacks;
+    private volatile Counter replicaReads;
+    private final ScheduledExecutorService healthChecker;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicaPools,
+                                    ReadYourWritesTracker readYourWritesTracker, long healthCheckIntervalMillis) {
+        this.primary = primary;
+        this.replicas = replicaPools.stream().map(Replica::new).collect(Collectors.toList());
+        this.readYourWritesTracker = readYourWritesTracker;
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, 0, healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        primaryWrites = routedCounter(meterRegistry, "primary", "write");
+        primaryReadYourWrites = routedCounter(meterRegistry, "primary", "read-your-writes");
+        primaryFallbacks = routedCounter(meterRegistry, "primary", "no-healthy-replica");
+        replicaReads = routedCounter(meterRegistry, "replica", "read");
+        Gauge.builder("chat.datasource.replicas.healthy", this, routing -> routing.healthyCount())
+                .description("Replicas that passed their last health check")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            count(primaryWrites);
+            return primary.getConnection();
+        }
+        if (readYourWritesTracker.recentlyWrote(ReadYourWritesTracker.currentUsername())) {
+            count(primaryReadYourWrites);
+            return primary.getConnection();
+        }
+        for (int attempt = 0; attempt < replicas.size(); attempt++) {
+            Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                Connection connection = replica.pool.getConnection();
+                count(replicaReads);
+                return connection;
+            } catch (SQLException e) {
+                replica.markDown(e);
+            }
+        }
+        count(primaryFallbacks);
+        return primary.getConnection();
+    }
+
+    // Replica pools have their own credentials, so a connection for other ones can only come from the primary
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        count(primaryWrites);
+        return primary.getConnection(username, password);
+    }
+
+    public void close() {
+        healthChecker.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    private void checkHealth() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.pool.getConnection()) {
+                if (!connection.isValid(2)) {
+                    throw new SQLException("Connection is not valid");
+                }
+                if (!replica.healthy) {
+                    logger.info("Replica {} is up", replica.pool.getPoolName());
+                    replica.healthy = true;
+                }
+            } catch (SQLException e) {
+                replica.markDown(e);
+            }
+        }
+    }
+
+    private int healthyCount() {
+        int healthy = 0;
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    // Connections taken while the context starts, before the meters are bound, are not counted
+    private static void count(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    private static Counter routedCounter(MeterRegistry meterRegistry, String target, String reason) {
+        return Counter.builder("chat.datasource.routed")
+                .description("Connections handed out by the routing data source")
+                .tag("target", target)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private static final class Replica {
+        private final HikariDataSource pool;
+        // Optimistic until the first check; a failed connection attempt marks it down at once
+        private volatile boolean healthy = true;
+
+        private Replica(HikariDataSource pool) {
+            this.pool = pool;
+        }
+
+        private void markDown(SQLException e) {
+            if (healthy) {
+                logger.warn("Replica {} is down: {}", pool.getPoolName(), e.getMessage());
+            }
+            healthy = false;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.chatapp.config;
+
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.RoomMembershipIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+
+/**
+ * Refuses SUBSCRIBE to a room's topics and SEND to a room's endpoints unless the room exists and,
+ * if it is private, the user participates in it. Answered from {@link RoomMembershipIndex}. A refusal
+ * surfaces as a STOMP ERROR frame and closes the session.
+ */
+@Component
+public class RoomAccessChannelInterceptor implements ChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(RoomAccessChannelInterceptor.class);
+
+    private static final String[] SUBSCRIBE_PREFIXES = {"/topic/room."};
+    private static final String[] SEND_PREFIXES = {"/app/chat.room.", "/app/chat.typing."};
+
+    @Autowired
+    private RoomMembershipIndex roomMembershipIndex;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+        String[] prefixes;
+        if (StompCommand.SUBSCRIBE.equals(accessor.getCommand())) {
+            prefixes = SUBSCRIBE_PREFIXES;
+        } else if (StompCommand.SEND.equals(accessor.getCommand())) {
+            prefixes = SEND_PREFIXES;
+        } else {
+            return message;
+        }
+        String destination = accessor.getDestination();
+        if (destination == null) {
+            return message;
+        }
+        for (String prefix : prefixes) {
+            if (destination.startsWith(prefix)) {
+                Long roomId = roomIdOf(destination, prefix.length());
+                Long userId = userIdOf(accessor.getUser());
+                if (roomId == null || !roomMembershipIndex.canAccess(roomId, userId)) {
+                    logger.warn("Denied {} to {} for user {}", accessor.getCommand(), destination,
+                            accessor.getUser() != null ? accessor.getUser().getName() : "anonymous");
+                    throw new MessageDeliveryException("Access to room denied: " + destination);
+                }
+                return message;
+            }
+        }
+        return message;
+    }
+
+    // The id runs up to the next dot, so /topic/room.{id}.typing is covered too
+    private static Long roomIdOf(String destination, int start) {
+        int end = destination.indexOf('.', start);
+        try {
+            return Long.valueOf(end < 0 ? destination.substring(start) : destination.substring(start, end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long userIdOf(Principal principal) {
+        if (principal instanceof Authentication
+                && ((Authentication) principal).getPrincipal() instanceof UserDetailsImpl) {
+            return ((UserDetailsImpl) ((Authentication) principal).getPrincipal()).getId();
+        }
+        return null;
+    }
+}
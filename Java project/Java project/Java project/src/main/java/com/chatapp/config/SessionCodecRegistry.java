@@ -0,0 +1,152 @@
+package com.chatapp.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-session payload encoding. JSON is the default; a client that sends {@code chat-codec: cbor}
+ * in its CONNECT frame receives MESSAGE payloads as CBOR and may SEND CBOR as well. CBOR frames
+ * travel as binary WebSocket messages, which Spring's STOMP handling only uses for
+ * application/octet-stream, so they carry that content-type plus a {@code chat-codec: cbor} header.
+ * Broadcasts are still converted to JSON once and transcoded on the way out; the broker hands every
+ * subscriber the same payload array, so each payload is transcoded once.
+ */
+@Component
+public class SessionCodecRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(SessionCodecRegistry.class);
+
+    public static final String CODEC_HEADER = "chat-codec";
+    public static final MimeType APPLICATION_CBOR = new MimeType("application", "cbor");
+
+    public enum Codec {
+        JSON,
+        CBOR
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final ObjectMapper cborMapper = new CBORMapper();
+
+    // Only sessions that negotiated something other than JSON are listed
+    private final ConcurrentMap<String, Codec> sessions = new ConcurrentHashMap<>();
+    // Keyed by payload identity (arrays do not override equals); entries go once the payload is collected
+    private final Map<byte[], byte[]> transcoded = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private Counter transcodedCounter;
+
+    @PostConstruct
+    public void init() {
+        transcodedCounter = meterRegistry.counter("chat.codec.transcoded");
+    }
+
+    /**
+     * Converter for inbound CBOR payloads (relabelled by the inbound interceptor). Strict, so frames
+     * without a content-type stay JSON.
+     */
+    public MessageConverter cborMessageConverter() {
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter(APPLICATION_CBOR);
+        converter.setObjectMapper(cborMapper);
+        converter.setStrictContentTypeMatch(true);
+        return converter;
+    }
+
+    /**
+     * Records the codec requested on CONNECT; unknown values fall back to JSON.
+     */
+    public ChannelInterceptor inboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+                if (StompCommand.CONNECT.equals(accessor.getCommand())
+                        && "cbor".equalsIgnoreCase(accessor.getFirstNativeHeader(CODEC_HEADER))) {
+                    sessions.put(accessor.getSessionId(), Codec.CBOR);
+                } else if (StompCommand.SEND.equals(accessor.getCommand())
+                        && getCodec(accessor.getSessionId()) == Codec.CBOR
+                        && accessor.getContentType() != null
+                        && MimeTypeUtils.APPLICATION_OCTET_STREAM.equalsTypeAndSubtype(accessor.getContentType())) {
+                    // Hand the payload to the CBOR converter rather than the byte[] one
+                    accessor.setContentType(APPLICATION_CBOR);
+                    return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+                }
+                return message;
+            }
+        };
+    }
+
+    public ChannelInterceptor outboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                return encodeForSession(message);
+            }
+        };
+    }
+
+    public Codec getCodec(String sessionId) {
+        return sessionId == null ? Codec.JSON : sessions.getOrDefault(sessionId, Codec.JSON);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        sessions.remove(event.getSessionId());
+    }
+
+    private Message<?> encodeForSession(Message<?> message) {
+        if (sessions.isEmpty() || !(message.getPayload() instanceof byte[])) {
+            return message;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        if (accessor.getMessageType() != SimpMessageType.MESSAGE
+                || getCodec(accessor.getSessionId()) != Codec.CBOR
+                || accessor.getContentType() == null
+                || !MimeTypeUtils.APPLICATION_JSON.equalsTypeAndSubtype(accessor.getContentType())) {
+            return message;
+        }
+        byte[] json = (byte[]) message.getPayload();
+        byte[] cbor = transcoded.get(json);
+        if (cbor == null) {
+            try {
+                cbor = cborMapper.writeValueAsBytes(jsonMapper.readTree(json));
+            } catch (IOException e) {
+                logger.warn("Sending JSON to CBOR session {}: payload could not be transcoded", accessor.getSessionId(), e);
+                return message;
+            }
+            transcoded.put(json, cbor);
+            transcodedCounter.increment();
+        }
+        accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        accessor.setNativeHeader(CODEC_HEADER, "cbor");
+        return MessageBuilder.createMessage(cbor, accessor.getMessageHeaders());
+    }
+}
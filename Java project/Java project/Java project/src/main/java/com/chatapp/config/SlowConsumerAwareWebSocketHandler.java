@@ -0,0 +1,35 @@
+package com.chatapp.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.function.Predicate;
+
+/**
+ * Spring's STOMP-over-WebSocket handler with sessions decorated by {@link SlowConsumerSessionDecorator}.
+ * The send-time and buffer-size limits come from the WebSocket transport registration.
+ */
+public class SlowConsumerAwareWebSocketHandler extends SubProtocolWebSocketHandler {
+
+    private final SlowConsumerSessionDecorator.SlowConsumerPolicy policy;
+    private final Predicate<String> coalescable;
+    private final MeterRegistry meterRegistry;
+
+    public SlowConsumerAwareWebSocketHandler(MessageChannel clientInboundChannel, SubscribableChannel clientOutboundChannel,
+                                             SlowConsumerSessionDecorator.SlowConsumerPolicy policy,
+                                             Predicate<String> coalescable, MeterRegistry meterRegistry) {
+        super(clientInboundChannel, clientOutboundChannel);
+        this.policy = policy;
+        this.coalescable = coalescable;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected WebSocketSession decorateSession(WebSocketSession session) {
+        return new SlowConsumerSessionDecorator(session, getSendTimeLimit(), getSendBufferSizeLimit(),
+                policy, coalescable, meterRegistry);
+    }
+}
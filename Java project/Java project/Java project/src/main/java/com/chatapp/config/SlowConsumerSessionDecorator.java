@@ -0,0 +1,250 @@
+package com.chatapp.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Replacement for Spring's ConcurrentWebSocketSessionDecorator, which it extends only because the STOMP
+ * handler requires that type when publish order is preserved; none of the inherited buffering is used.
+ * As there, whichever thread holds the flush lock writes buffered frames while other threads
+ * only enqueue. When the buffer outgrows its limit, the configured {@link SlowConsumerPolicy}
+ * decides what to shed. A single send that blocks longer than the send-time limit always
+ * disconnects, since nothing buffered can help a stuck socket.
+ */
+public class SlowConsumerSessionDecorator extends ConcurrentWebSocketSessionDecorator {
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerSessionDecorator.class);
+
+    // Sent in the close frame (at most 123 bytes) so clients reconnect and backfill from history
+    static final CloseStatus SLOW_CONSUMER = CloseStatus.SESSION_NOT_RELIABLE
+            .withReason("slow-consumer; reconnect and resubscribe with last-seq to replay missed messages");
+
+    public enum SlowConsumerPolicy {
+        // Discard the oldest buffered frames until the buffer fits again
+        DROP_OLDEST,
+        // Keep only the newest buffered frame per coalescable destination (presence, typing);
+        // disconnect if that is not enough, so chat messages are never dropped silently
+        COALESCE,
+        // Close the session; the client reconnects and resumes
+        DISCONNECT
+    }
+
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+    private final SlowConsumerPolicy policy;
+    private final Predicate<String> coalescable;
+    private final MeterRegistry meterRegistry;
+
+    private final Deque<WebSocketMessage<?>> buffer = new ArrayDeque<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final Lock flushLock = new ReentrantLock();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long sendStartTime;
+    private volatile boolean limitExceeded;
+    private volatile Consumer<WebSocketMessage<?>> messageCallback;
+
+    public SlowConsumerSessionDecorator(WebSocketSession delegate, int sendTimeLimit, int bufferSizeLimit,
+                                        SlowConsumerPolicy policy, Predicate<String> coalescable,
+                                        MeterRegistry meterRegistry) {
+        super(delegate, sendTimeLimit, bufferSizeLimit);
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.policy = policy;
+        this.coalescable = coalescable;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize.get();
+    }
+
+    @Override
+    public long getTimeSinceSendStarted() {
+        long started = sendStartTime;
+        return started > 0 ? System.currentTimeMillis() - started : 0;
+    }
+
+    @Override
+    public void setMessageCallback(Consumer<WebSocketMessage<?>> callback) {
+        this.messageCallback = callback;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (limitExceeded || closed.get()) {
+            return;
+        }
+        synchronized (buffer) {
+            buffer.addLast(message);
+        }
+        bufferSize.addAndGet(message.getPayloadLength());
+        // Releases the next ordered outbound message for this session
+        Consumer<WebSocketMessage<?>> callback = messageCallback;
+        if (callback != null) {
+            callback.accept(message);
+        }
+
+        do {
+            if (!tryFlushBuffer()) {
+                checkLimits();
+                break;
+            }
+        } while (!isBufferEmpty() && !limitExceeded);
+    }
+
+    private boolean tryFlushBuffer() throws IOException {
+        if (!flushLock.tryLock()) {
+            return false;
+        }
+        try {
+            while (!limitExceeded) {
+                WebSocketMessage<?> next;
+                synchronized (buffer) {
+                    next = buffer.pollFirst();
+                }
+                if (next == null) {
+                    break;
+                }
+                bufferSize.addAndGet(-next.getPayloadLength());
+                sendStartTime = System.currentTimeMillis();
+                getDelegate().sendMessage(next);
+                sendStartTime = 0;
+            }
+        } finally {
+            sendStartTime = 0;
+            flushLock.unlock();
+        }
+        return true;
+    }
+
+    private void checkLimits() {
+        if (getTimeSinceSendStarted() > sendTimeLimit) {
+            disconnect("send-time");
+        }
+        if (bufferSize.get() <= bufferSizeLimit) {
+            return;
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                dropOldest();
+                break;
+            case COALESCE:
+                if (!coalesce()) {
+                    disconnect("buffer-size");
+                }
+                break;
+            default:
+                disconnect("buffer-size");
+        }
+    }
+
+    private void dropOldest() {
+        int dropped = 0;
+        synchronized (buffer) {
+            // Keep the newest frame even if it alone exceeds the limit
+            while (bufferSize.get() > bufferSizeLimit && buffer.size() > 1) {
+                bufferSize.addAndGet(-buffer.pollFirst().getPayloadLength());
+                dropped++;
+            }
+        }
+        shed("dropped", dropped);
+    }
+
+    private boolean coalesce() {
+        int coalesced = 0;
+        synchronized (buffer) {
+            Set<String> newer = new HashSet<>();
+            Iterator<WebSocketMessage<?>> newestFirst = buffer.descendingIterator();
+            while (newestFirst.hasNext()) {
+                WebSocketMessage<?> message = newestFirst.next();
+                String destination = destinationOf(message);
+                if (destination != null && coalescable.test(destination) && !newer.add(destination)) {
+                    newestFirst.remove();
+                    bufferSize.addAndGet(-message.getPayloadLength());
+                    coalesced++;
+                }
+            }
+        }
+        shed("coalesced", coalesced);
+        return bufferSize.get() <= bufferSizeLimit;
+    }
+
+    private void disconnect(String reason) {
+        limitExceeded = true;
+        synchronized (buffer) {
+            buffer.clear();
+        }
+        bufferSize.set(0);
+        meterRegistry.counter("chat.outbound.shed", "action", "disconnected", "reason", reason).increment();
+        logger.warn("Disconnecting slow consumer {} (user {}): {} limit exceeded",
+                getId(), getPrincipal() != null ? getPrincipal().getName() : null, reason);
+        // SubProtocolWebSocketHandler closes the session with the carried status
+        throw new SessionLimitExceededException("Slow consumer: " + reason + " limit exceeded", SLOW_CONSUMER);
+    }
+
+    private void shed(String action, int frames) {
+        if (frames > 0) {
+            meterRegistry.counter("chat.outbound.shed", "action", action, "reason", "buffer-size").increment(frames);
+            logger.debug("Session {} {} {} frames to stay under {} buffered bytes", getId(), action, frames, bufferSizeLimit);
+        }
+    }
+
+    private boolean isBufferEmpty() {
+        synchronized (buffer) {
+            return buffer.isEmpty();
+        }
+    }
+
+    /**
+     * Reads the destination header of an encoded STOMP MESSAGE frame without decoding the body.
+     */
+    static String destinationOf(WebSocketMessage<?> message) {
+        Object payload = message.getPayload();
+        String frame;
+        if (payload instanceof String) {
+            frame = (String) payload;
+        } else if (payload instanceof ByteBuffer) {
+            ByteBuffer bytes = ((ByteBuffer) payload).duplicate();
+            bytes.limit(Math.min(bytes.limit(), 1024));
+            frame = StandardCharsets.UTF_8.decode(bytes).toString();
+        } else {
+            return null;
+        }
+        int headersEnd = frame.indexOf("\n\n");
+        int start = frame.indexOf("\ndestination:");
+        if (start < 0 || (headersEnd >= 0 && start > headersEnd)) {
+            return null;
+        }
+        start += "\ndestination:".length();
+        int end = frame.indexOf('\n', start);
+        return end < 0 ? null : frame.substring(start, end);
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        if (closed.compareAndSet(false, true) && getDelegate().isOpen()) {
+            super.close(status);
+        }
+    }
+}
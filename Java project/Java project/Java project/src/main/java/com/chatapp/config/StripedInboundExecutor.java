@@ -0,0 +1,159 @@
+package com.chatapp.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.security.Principal;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Executor for the STOMP inbound channel that runs every frame for the same conversation on the same
+ * single-threaded lane. Sends to one room, or between one pair of users, are therefore handled in
+ * arrival order, while different rooms run in parallel and a slow room only delays its own lane.
+ * Other frames are keyed by session, which keeps each client's SUBSCRIBE/SEND/DISCONNECT in order.
+ * Tasks without a session fall back to the regular pool configured on this executor.
+ * <p>
+ * Nothing waits for a full lane, since the submitting thread is the container thread reading the
+ * socket. The {@link #admission()} interceptor drops a SEND whose lane is nearly full before any
+ * of its tasks are queued: only that frame is lost, the sender is told through the dropped-send
+ * handler and its session stays open (a STOMP ERROR frame would close it, and with it every other
+ * sender to a busy room). The slots kept free that way take SUBSCRIBE, UNSUBSCRIBE and DISCONNECT
+ * frames, which must not be lost; if one still finds its lane full it runs on the regular pool,
+ * out of order with the lane.
+ */
+public class StripedInboundExecutor extends ThreadPoolTaskExecutor {
+
+    private static final String ROOM_PREFIX = "/app/chat.room.";
+    private static final String PRIVATE_PREFIX = "/app/chat.private.";
+    // Lane slots a SEND leaves free for the frames behind it
+    private static final int SEND_HEADROOM = 16;
+
+    private final int laneCount;
+    private final int laneQueueCapacity;
+    private final int sendHeadroom;
+    private final Consumer<Message<?>> droppedSendHandler;
+    private final MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor[] lanes;
+    private Counter rejected;
+    private Counter overflowed;
+
+    public StripedInboundExecutor(int laneCount, int laneQueueCapacity, Consumer<Message<?>> droppedSendHandler,
+                                  MeterRegistry meterRegistry) {
+        this.laneCount = laneCount;
+        this.laneQueueCapacity = laneQueueCapacity;
+        this.sendHeadroom = Math.min(SEND_HEADROOM, laneQueueCapacity / 2);
+        this.droppedSendHandler = droppedSendHandler;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected ExecutorService initializeExecutor(ThreadFactory threadFactory,
+                                                 RejectedExecutionHandler rejectedExecutionHandler) {
+        ExecutorService fallback = super.initializeExecutor(threadFactory, rejectedExecutionHandler);
+        rejected = meterRegistry.counter("chat.inbound.rejected");
+        overflowed = meterRegistry.counter("chat.inbound.overflowed");
+        CustomizableThreadFactory laneThreads = new CustomizableThreadFactory("inbound-lane-");
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(laneQueueCapacity), laneThreads, new ThreadPoolExecutor.AbortPolicy());
+            lane.prestartCoreThread();
+            lanes[i] = lane;
+            Gauge.builder("chat.inbound.lane.depth", lane, executor -> executor.getQueue().size())
+                    .tag("lane", Integer.toString(i))
+                    .register(meterRegistry);
+        }
+        return fallback;
+    }
+
+    /**
+     * Drops SENDs for a nearly full lane; registered after every other inbound interceptor.
+     */
+    public ChannelInterceptor admission() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                if (lanes == null
+                        || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+                    return message;
+                }
+                String key = laneKey(message);
+                if (key == null || lane(key).getQueue().remainingCapacity() >= sendHeadroom) {
+                    return message;
+                }
+                rejected.increment();
+                droppedSendHandler.accept(message);
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        String key = task instanceof MessageHandlingRunnable
+                ? laneKey(((MessageHandlingRunnable) task).getMessage())
+                : null;
+        if (key == null) {
+            super.execute(task);
+            return;
+        }
+        ThreadPoolExecutor lane = lane(key);
+        try {
+            lane.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (lane.isShutdown()) {
+                throw new TaskRejectedException("Inbound lane for " + key + " is shut down", e);
+            }
+            overflowed.increment();
+            super.execute(task);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (lanes != null) {
+            for (ThreadPoolExecutor lane : lanes) {
+                lane.shutdown();
+            }
+        }
+        super.shutdown();
+    }
+
+    private ThreadPoolExecutor lane(String key) {
+        return lanes[Math.floorMod(key.hashCode(), laneCount)];
+    }
+
+    static String laneKey(Message<?> message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        String destination = accessor.getDestination();
+        if (destination != null && destination.startsWith(PRIVATE_PREFIX)) {
+            // Both directions of a conversation share a lane
+            Principal user = accessor.getUser();
+            String sender = user != null ? user.getName() : accessor.getSessionId();
+            String receiver = destination.substring(PRIVATE_PREFIX.length());
+            return sender.compareTo(receiver) < 0 ? "dm:" + sender + ":" + receiver : "dm:" + receiver + ":" + sender;
+        }
+        if (destination != null && destination.startsWith(ROOM_PREFIX)) {
+            return destination;
+        }
+        return accessor.getSessionId();
+    }
+}
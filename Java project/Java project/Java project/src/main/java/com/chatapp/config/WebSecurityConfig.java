@@ -2,8 +2,8 @@ package com.chatapp.config;
 
 import com.chatapp.security.jwt.AuthEntryPointJwt;
 import com.chatapp.security.jwt.AuthTokenFilter;
+import com.chatapp.security.jwt.JwtPrincipalResolver;
 import com.chatapp.security.jwt.JwtUtils;
-import com.chatapp.security.services.UserDetailsServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -31,14 +31,14 @@ public class WebSecurityConfig {
     private AuthEntryPointJwt unauthorizedHandler;
 
     @Autowired
-    private UserDetailsServiceImpl userDetailsService;
+    private JwtPrincipalResolver jwtPrincipalResolver;
 
     @Autowired
     private JwtUtils jwtUtils;
 
     @Bean
     public AuthTokenFilter authenticationJwtTokenFilter() {
-        return new AuthTokenFilter(jwtUtils, userDetailsService);
+        return new AuthTokenFilter(jwtUtils, jwtPrincipalResolver);
     }
 
     @Bean
@@ -1,7 +1,8 @@
 package com.chatapp.config;
 
+import com.chatapp.security.jwt.JwtPrincipalResolver;
 import com.chatapp.security.jwt.JwtUtils;
-import com.chatapp.security.services.UserDetailsServiceImpl;
+import io.jsonwebtoken.Claims;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
@@ -23,7 +24,7 @@ public class WebSocketAuthChannelInterceptor implements ChannelInterceptor {
     private JwtUtils jwtUtils;
 
     @Autowired
-    private UserDetailsServiceImpl userDetailsService;
+    private JwtPrincipalResolver jwtPrincipalResolver;
 
     @Override
     public Message<?> preSend(Message<?> message, MessageChannel channel) {
@@ -34,9 +35,11 @@ public class WebSocketAuthChannelInterceptor implements ChannelInterceptor {
             try {
                 String token = (String) accessor.getSessionAttributes().get("token");
 
-                if (token != null && jwtUtils.validateJwtToken(token)) {
-                    String username = jwtUtils.getUserNameFromJwtToken(token);
-                    var userDetails = userDetailsService.loadUserByUsername(username);
+                Claims claims = token != null ? jwtUtils.parseVerifiedClaims(token) : null;
+
+                if (claims != null) {
+                    String username = claims.getSubject();
+                    var userDetails = jwtPrincipalResolver.resolve(claims);
 
                     var authentication = new UsernamePasswordAuthenticationToken(
                             userDetails, null, userDetails.getAuthorities());
@@ -0,0 +1,44 @@
+package com.chatapp.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+
+import java.util.List;
+
+/**
+ * Replaces {@code @EnableWebSocketMessageBroker} so the STOMP WebSocket handler can decorate sessions
+ * with slow-consumer handling. All WebSocketMessageBrokerConfigurer beans (see {@link WebSocketConfig})
+ * still apply.
+ */
+@Configuration
+public class WebSocketBrokerConfiguration extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.outbound.policy:DISCONNECT}")
+    private SlowConsumerSessionDecorator.SlowConsumerPolicy slowConsumerPolicy;
+
+    // Ant-style patterns of destinations where only the newest frame matters
+    @Value("${chat.outbound.coalesce-destinations:}")
+    private List<String> coalesceDestinations;
+
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler(
+            @Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel,
+            @Qualifier("clientOutboundChannel") AbstractSubscribableChannel clientOutboundChannel) {
+        AntPathMatcher matcher = new AntPathMatcher();
+        return new SlowConsumerAwareWebSocketHandler(clientInboundChannel, clientOutboundChannel, slowConsumerPolicy,
+                destination -> coalesceDestinations.stream().anyMatch(pattern -> matcher.match(pattern, destination)),
+                meterRegistry);
+    }
+}
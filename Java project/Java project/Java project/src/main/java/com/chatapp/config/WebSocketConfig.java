@@ -1,9 +1,18 @@
 package com.chatapp.config;
 
+import com.chatapp.cluster.ClusterBrokerBridge;
+import com.chatapp.payload.response.MessageResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.socket.server.HandshakeInterceptor;
@@ -13,20 +22,124 @@ import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.converter.MessageConverter;
 
+import java.security.Principal;
+import java.util.List;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 
+// Broker infrastructure is set up by WebSocketBrokerConfiguration
 @Configuration
-@EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    public enum BrokerMode {
+        // In-memory broker; subscriptions are only visible to this node
+        SIMPLE,
+        // External STOMP broker (RabbitMQ, ActiveMQ) shared by all nodes
+        RELAY,
+        // In-memory broker on every node, with messages exchanged over a ClusterBus
+        CLUSTER
+    }
+
+    public enum InboundExecutor {
+        // Each room's (or conversation's) frames run in order on one single-threaded lane
+        STRIPED,
+        // Spring's default pool; no ordering between frames
+        POOLED
+    }
+
     @Autowired
     private WebSocketAuthChannelInterceptor webSocketAuthChannelInterceptor;
 
+    @Autowired
+    private RateLimitChannelInterceptor rateLimitChannelInterceptor;
+
+    @Autowired
+    private RoomAccessChannelInterceptor roomAccessChannelInterceptor;
+
+    @Autowired
+    private SessionCodecRegistry sessionCodecRegistry;
+
+    @Autowired
+    private MessageReplayInterceptor messageReplayInterceptor;
+
+    @Autowired(required = false)
+    private ClusterBrokerBridge clusterBrokerBridge;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Lazy
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${chat.inbound.executor:STRIPED}")
+    private InboundExecutor inboundExecutor;
+
+    @Value("${chat.inbound.lanes:0}")
+    private int inboundLanes;
+
+    @Value("${chat.inbound.lane-queue-capacity:1000}")
+    private int inboundLaneQueueCapacity;
+
+    @Value("${chat.inbound.fallback-pool-size:2}")
+    private int inboundFallbackPoolSize;
+
+    @Value("${chat.outbound.send-time-limit-ms:10000}")
+    private int sendTimeLimitMillis;
+
+    @Value("${chat.outbound.buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private BrokerMode brokerMode;
+
+    @Value("${chat.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${chat.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${chat.broker.relay.virtual-host:}")
+    private String relayVirtualHost;
+
+    @Value("${chat.broker.relay.client-login:guest}")
+    private String relayClientLogin;
+
+    @Value("${chat.broker.relay.client-passcode:guest}")
+    private String relayClientPasscode;
+
+    @Value("${chat.broker.relay.system-login:guest}")
+    private String relaySystemLogin;
+
+    @Value("${chat.broker.relay.system-passcode:guest}")
+    private String relaySystemPasscode;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic", "/queue");
+        if (brokerMode == BrokerMode.RELAY) {
+            config.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setVirtualHost(relayVirtualHost.isEmpty() ? null : relayVirtualHost)
+                    .setClientLogin(relayClientLogin)
+                    .setClientPasscode(relayClientPasscode)
+                    .setSystemLogin(relaySystemLogin)
+                    .setSystemPasscode(relaySystemPasscode)
+                    // Share connected users between nodes and hand user messages to the node holding the session
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+        } else {
+            config.enableSimpleBroker("/topic", "/queue");
+        }
+        if (clusterBrokerBridge != null) {
+            config.configureBrokerChannel().interceptors(clusterBrokerBridge);
+        }
+        if (isStriped()) {
+            // Keep the lane order through the outbound pool as well
+            config.setPreservePublishOrder(true);
+        }
         config.setApplicationDestinationPrefixes("/app");
         config.setUserDestinationPrefix("/user");
     }
@@ -78,8 +191,57 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .setHandshakeHandler(new DefaultHandshakeHandler());
     }
 
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Per-session limits; what happens when they are hit is chat.outbound.policy
+        registration.setSendTimeLimit(sendTimeLimitMillis)
+                .setSendBufferSizeLimit(sendBufferSizeLimit);
+    }
+
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(webSocketAuthChannelInterceptor);
+        registration.interceptors(webSocketAuthChannelInterceptor, rateLimitChannelInterceptor,
+                roomAccessChannelInterceptor, sessionCodecRegistry.inboundInterceptor(), messageReplayInterceptor);
+        if (isStriped()) {
+            int lanes = inboundLanes > 0 ? inboundLanes : Runtime.getRuntime().availableProcessors() * 2;
+            StripedInboundExecutor executor = new StripedInboundExecutor(lanes, inboundLaneQueueCapacity,
+                    this::sendDropped, meterRegistry);
+            executor.setCorePoolSize(inboundFallbackPoolSize);
+            executor.setMaxPoolSize(inboundFallbackPoolSize);
+            executor.setThreadNamePrefix("clientInboundChannel-");
+            registration.taskExecutor(executor);
+            registration.interceptors(executor.admission());
+        }
+    }
+
+    // Tells the session whose SEND was dropped for a full inbound lane; the session itself stays open
+    private void sendDropped(Message<?> message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        Principal user = accessor.getUser();
+        if (user == null) {
+            return;
+        }
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(accessor.getSessionId());
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(user.getName(), "/queue/errors",
+                new MessageResponse("Error: Server busy, message to " + accessor.getDestination() + " was not delivered"),
+                headers.getMessageHeaders());
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(sessionCodecRegistry.outboundInterceptor());
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        // Inbound frames sent with content-type application/cbor; the defaults are still added
+        messageConverters.add(sessionCodecRegistry.cborMessageConverter());
+        return true;
+    }
+
+    private boolean isStriped() {
+        return inboundExecutor == InboundExecutor.STRIPED;
     }
 }
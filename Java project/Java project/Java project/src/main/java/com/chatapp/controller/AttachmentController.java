@@ -0,0 +1,192 @@
+package com.chatapp.controller;
+
+import com.chatapp.attachment.AttachmentStore;
+import com.chatapp.model.Attachment;
+import com.chatapp.payload.response.MessageResponse;
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.AttachmentService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+@CrossOrigin(origins = "*", maxAge = 3600)
+@RestController
+@RequestMapping("/api/attachments")
+public class AttachmentController {
+    // Tomcat's sendfile contract, as used by its DefaultServlet
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Shown in the browser; everything else is downloaded, so uploaded HTML or SVG never renders on our origin
+    private static final Set<String> INLINE_TYPES = Set.of(
+            "image/png", "image/jpeg", "image/gif", "image/webp", "application/pdf");
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private AttachmentStore attachmentStore;
+
+    // Smaller downloads are copied, which is cheaper than setting up a sendfile
+    @Value("${chat.attachments.sendfile-min-bytes:49152}")
+    private long sendfileMinBytes;
+
+    @PostMapping
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> upload(@RequestParam("file") MultipartFile file) throws IOException {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        try {
+            return ResponseEntity.ok(attachmentService.upload(currentUser.getId(), file));
+        } catch (AttachmentService.QuotaExceededException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .body(new MessageResponse("Error: " + e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse("Error: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/quota")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getRemainingQuota() {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        return ResponseEntity.ok(attachmentService.remainingQuota(currentUser.getId()));
+    }
+
+    /**
+     * The attachment's bytes, honouring a single byte range (If-Range aware) and If-None-Match.
+     * The body is handed to Tomcat as a sendfile, which the connector transfers from the file to
+     * the socket without copying it through the heap.
+     */
+    @GetMapping("/{id}")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> download(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Optional<Attachment> found = attachmentService.find(id);
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        Attachment attachment = found.get();
+        if (!attachmentService.canRead(attachment, currentUser.getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(new MessageResponse("Error: This attachment has not been shared with you"));
+        }
+        Path path = attachmentStore.path(attachment.getSha256());
+        if (!Files.isReadable(path)) {
+            return ResponseEntity.status(HttpStatus.GONE).body(new MessageResponse("Error: Attachment content is missing"));
+        }
+
+        String etag = "\"" + attachment.getSha256() + "\"";
+        long size = attachment.getSize();
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Content behind an id never changes
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return null;
+        }
+        response.setContentType(attachment.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition
+                .builder(INLINE_TYPES.contains(attachment.getContentType()) ? "inline" : "attachment")
+                .filename(attachment.getFilename(), StandardCharsets.UTF_8)
+                .build().toString());
+
+        long start = 0;
+        long end = size - 1;
+        HttpRange range = range(request, etag);
+        if (range != null) {
+            if (size == 0 || !satisfiable(range, size)) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return null;
+            }
+            start = range.getRangeStart(size);
+            end = range.getRangeEnd(size);
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        }
+        long length = end - start + 1;
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod()) || length == 0) {
+            return null;
+        }
+        if (length >= sendfileMinBytes && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                position += channel.transferTo(position, end + 1 - position, out);
+            }
+        }
+        return null;
+    }
+
+    // A Range header is ignored if it is malformed, lists several ranges, or If-Range names other content
+    private static HttpRange range(HttpServletRequest request, String etag) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean satisfiable(HttpRange range, long size) {
+        try {
+            return range.getRangeStart(size) <= range.getRangeEnd(size);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
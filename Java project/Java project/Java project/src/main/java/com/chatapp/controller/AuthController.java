@@ -12,6 +12,7 @@ import com.chatapp.repository.RoleRepository;
 import com.chatapp.repository.UserRepository;
 import com.chatapp.security.jwt.JwtUtils;
 import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.ChatLookupCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -51,6 +52,9 @@ public class AuthController {
     @Autowired
     JwtUtils jwtUtils;
 
+    @Autowired
+    ChatLookupCache chatLookupCache;
+
     @PostMapping("/signin")
     public ResponseEntity<?> authenticateUser(@Valid @RequestBody LoginRequest loginRequest) {
         logger.info("Attempting to authenticate user: {}", loginRequest.getUsername());
@@ -148,6 +152,7 @@ public class AuthController {
 
             user.setRoles(roles);
             userRepository.save(user);
+            chatLookupCache.invalidateUser(user.getUsername());
             logger.info("User registered successfully: {}", user.getUsername());
             return ResponseEntity.ok(new MessageResponse("User registered successfully!"));
         } catch (Exception e) {
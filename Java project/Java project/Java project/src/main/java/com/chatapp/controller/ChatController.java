@@ -1,73 +1,157 @@
 package com.chatapp.controller;
-import com.chatapp.model.ChatRoom;
+import com.chatapp.config.ReadYourWritesTracker;
 import com.chatapp.model.Message;
-import com.chatapp.model.User;
 import com.chatapp.payload.request.ChatMessage;
-import com.chatapp.repository.ChatRoomRepository;
-import com.chatapp.repository.MessageRepository;
-import com.chatapp.repository.UserRepository;
+import com.chatapp.payload.response.MessageDto;
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.AttachmentService;
+import com.chatapp.service.ChatLookupCache;
+import com.chatapp.service.MessagePersistenceService;
+import com.chatapp.service.MessageReplayLog;
+import com.chatapp.service.MessageSearchIndex;
+import com.chatapp.service.RecentMessageCache;
+import com.chatapp.service.RoomBroadcastBatcher;
+import com.chatapp.service.TypingIndicatorService;
+import com.chatapp.service.UnreadCounterService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 
+import java.security.Principal;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.Optional;
 
 @Controller
 public class ChatController {
+    private static final Logger logger = LoggerFactory.getLogger(ChatController.class);
 
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
     @Autowired
-    private UserRepository userRepository;
+    private ChatLookupCache chatLookupCache;
 
     @Autowired
-    private ChatRoomRepository chatRoomRepository;
+    private MessagePersistenceService messagePersistenceService;
 
     @Autowired
-    private MessageRepository messageRepository;
+    private RecentMessageCache recentMessageCache;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private TypingIndicatorService typingIndicatorService;
+
+    @Autowired
+    private RoomBroadcastBatcher roomBroadcastBatcher;
+
+    @Autowired
+    private MessageReplayLog messageReplayLog;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private ReadYourWritesTracker readYourWritesTracker;
+
+    @Autowired
+    private AttachmentService attachmentService;
 
     @MessageMapping("/chat.private.{username}")
-    public void sendPrivateMessage(@DestinationVariable String username, @Payload ChatMessage chatMessage) {
-        Optional<User> sender = userRepository.findByUsername(chatMessage.getSender());
-        Optional<User> receiver = userRepository.findByUsername(username);
+    public void sendPrivateMessage(@DestinationVariable String username, @Payload ChatMessage chatMessage,
+                                   Principal principal) {
+        Optional<Long> senderId = senderId(principal, chatMessage);
+        Optional<Long> receiverId = chatLookupCache.findUserId(username);
 
-        if (sender.isPresent() && receiver.isPresent()) {
+        if (senderId.isPresent() && receiverId.isPresent()) {
+            String conversationKey = Message.conversationKey(senderId.get(), receiverId.get());
+            if (chatMessage.getAttachmentId() != null
+                    && !attachmentService.share(chatMessage.getAttachmentId(), senderId.get(), null, conversationKey)) {
+                return;
+            }
             Message message = new Message();
-            message.setSender(sender.get());
-            message.setReceiver(receiver.get());
+            message.setSender(ChatLookupCache.userReference(senderId.get()));
+            message.setReceiver(ChatLookupCache.userReference(receiverId.get()));
+            message.setConversationKey(conversationKey);
             message.setContent(chatMessage.getContent());
-            message.setSentAt(LocalDateTime.now());
-            messageRepository.save(message);
-
-            messagingTemplate.convertAndSendToUser(
-                    username,
-                    "/queue/messages",
-                    chatMessage
-            );
+            message.setAttachmentId(chatMessage.getAttachmentId());
+            message.setSentAt(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+            messagePersistenceService.persist(message);
+            messageSearchIndex.index(message);
+            readYourWritesTracker.recordWrite(chatMessage.getSender());
+            unreadCounterService.privateMessageSent(receiverId.get(), senderId.get(), chatMessage.getSender(), message.getId());
+
+            messageReplayLog.append(MessageReplayLog.conversationScope(message.getConversationKey()), chatMessage,
+                    () -> messagingTemplate.convertAndSendToUser(
+                            username,
+                            "/queue/messages",
+                            chatMessage
+                    ));
         }
     }
 
     @MessageMapping("/chat.room.{roomId}")
-    public void sendRoomMessage(@DestinationVariable Long roomId, @Payload ChatMessage chatMessage) {
-        Optional<ChatRoom> chatRoom = chatRoomRepository.findById(roomId);
-        Optional<User> sender = userRepository.findByUsername(chatMessage.getSender());
+    public void sendRoomMessage(@DestinationVariable Long roomId, @Payload ChatMessage chatMessage,
+                                Principal principal) {
+        Optional<Long> senderId = senderId(principal, chatMessage);
 
-        if (chatRoom.isPresent() && sender.isPresent()) {
+        if (chatLookupCache.roomExists(roomId) && senderId.isPresent()) {
+            if (chatMessage.getAttachmentId() != null
+                    && !attachmentService.share(chatMessage.getAttachmentId(), senderId.get(), roomId, null)) {
+                return;
+            }
             Message message = new Message();
-            message.setSender(sender.get());
-            message.setChatRoom(chatRoom.get());
+            message.setSender(ChatLookupCache.userReference(senderId.get()));
+            message.setChatRoom(ChatLookupCache.roomReference(roomId));
             message.setContent(chatMessage.getContent());
-            message.setSentAt(LocalDateTime.now());
-            messageRepository.save(message);
+            message.setAttachmentId(chatMessage.getAttachmentId());
+            // Match the column precision so cached copies sort exactly like rows read back from the database
+            message.setSentAt(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+            messagePersistenceService.persist(message);
+            messageSearchIndex.index(message);
+            readYourWritesTracker.recordWrite(chatMessage.getSender());
+            recentMessageCache.append(roomId, new MessageDto(message.getId(), chatMessage.getSender(), null,
+                    roomId, message.getContent(), message.getSentAt(), false, message.getAttachmentId()));
+            unreadCounterService.roomMessageSent(roomId, senderId.get(), message.getId());
+
+            messageReplayLog.append(MessageReplayLog.roomScope(roomId), chatMessage,
+                    () -> roomBroadcastBatcher.broadcast(roomId, chatMessage));
+        }
+    }
+
+    // The sender is taken from the session, so the frame needs no body
+    @MessageMapping("/chat.typing.{roomId}")
+    public void typing(@DestinationVariable Long roomId, Principal principal) {
+        if (principal != null) {
+            typingIndicatorService.typing(roomId, principal.getName());
+        }
+    }
 
-            messagingTemplate.convertAndSend("/topic/room." + roomId, chatMessage);
+    /**
+     * The id of the session's user, if they are who the message claims to be. The sender named in
+     * the payload is chosen by the client, so trusting it would let anyone post, and share
+     * attachments, as someone else.
+     */
+    private static Optional<Long> senderId(Principal principal, ChatMessage chatMessage) {
+        if (principal instanceof Authentication
+                && ((Authentication) principal).getPrincipal() instanceof UserDetailsImpl) {
+            UserDetailsImpl user = (UserDetailsImpl) ((Authentication) principal).getPrincipal();
+            if (user.getUsername().equals(chatMessage.getSender())) {
+                return Optional.of(user.getId());
+            }
         }
+        logger.warn("Dropped a message from {} claiming to be sent by {}",
+                principal != null ? principal.getName() : "anonymous", chatMessage.getSender());
+        return Optional.empty();
     }
 
     @MessageMapping("/chat.addUser")
@@ -1,11 +1,21 @@
 package com.chatapp.controller;
 
+import com.chatapp.archive.MessageArchive;
 import com.chatapp.model.ChatRoom;
 import com.chatapp.model.User;
 import com.chatapp.payload.request.CreateRoomRequest; // NEW
 import com.chatapp.payload.request.JoinRoomRequest;   // NEW
+import com.chatapp.payload.response.RoomSummary;
 import com.chatapp.repository.ChatRoomRepository;
 import com.chatapp.repository.UserRepository;
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.ChatLookupCache;
+import com.chatapp.service.PresenceService;
+import com.chatapp.service.RecentMessageCache;
+import com.chatapp.service.RoomBroadcastBatcher;
+import com.chatapp.service.RoomDirectoryService;
+import com.chatapp.service.RoomMembershipIndex;
+import com.chatapp.service.UnreadCounterService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus; // NEW for UNAUTHORIZED
 import org.springframework.http.ResponseEntity;
@@ -13,12 +23,14 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder; // NEW
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.validation.Valid; // Still needed for DTO validation
 import java.util.List;
 import java.util.Optional; // NEW
+import java.util.function.Supplier;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
 @RestController
@@ -35,13 +47,64 @@ public class ChatRoomController {
     @Autowired // NEW: Inject PasswordEncoder
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private RecentMessageCache recentMessageCache;
+
+    @Autowired
+    private ChatLookupCache chatLookupCache;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private RoomDirectoryService roomDirectoryService;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Autowired
+    private RoomMembershipIndex roomMembershipIndex;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private RoomBroadcastBatcher roomBroadcastBatcher;
+
     @GetMapping
-    public ResponseEntity<List<ChatRoom>> getAllPublicRooms() {
+    public ResponseEntity<List<RoomSummary>> getAllPublicRooms(WebRequest request) {
         logger.info("Fetching all public rooms");
-        // This method will now fetch both public and private rooms.
-        // Frontend will filter them for display (e.g., showing lock icon for private).
-        // If you only want to return PUBLIC rooms here, keep findByIsPrivateFalse()
-        return ResponseEntity.ok(chatRoomRepository.findAll()); // Changed to findAll() to send all rooms to frontend for private logic
+        // Both public and private rooms are listed; the frontend shows a lock icon for private ones
+        return conditional(request, "all", roomDirectoryService::getAllRooms);
+    }
+
+    @GetMapping("/directory")
+    public ResponseEntity<?> getRoomDirectory(@RequestParam(required = false) Boolean isPrivate,
+                                              @RequestParam(defaultValue = "false") boolean member,
+                                              @RequestParam(defaultValue = "0") int page,
+                                              @RequestParam(defaultValue = "50") int size,
+                                              WebRequest request) {
+        Long memberId = member
+                ? ((UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getId()
+                : null;
+        return conditional(request, "directory:" + isPrivate + ":" + memberId + ":" + page + ":" + size,
+                () -> roomDirectoryService.getDirectory(isPrivate, memberId, page, size));
+    }
+
+    // 304 from the directory version when there is one, otherwise by comparing the listing's hash
+    private <T> ResponseEntity<T> conditional(WebRequest request, String query, Supplier<T> listing) {
+        String etag = roomDirectoryService.versionEtag(query);
+        if (etag != null && request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        T body = listing.get();
+        if (etag == null) {
+            etag = roomDirectoryService.contentEtag(body);
+            if (request.checkNotModified(etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+        }
+        return ResponseEntity.ok().eTag(etag).body(body);
     }
 
     @PostMapping
@@ -77,6 +140,10 @@ public class ChatRoomController {
             chatRoom.getParticipants().add(currentUser); // Creator is automatically a participant
             
             ChatRoom savedRoom = chatRoomRepository.save(chatRoom);
+            chatLookupCache.roomCreated(savedRoom.getId());
+            roomMembershipIndex.roomCreated(savedRoom.getId(), savedRoom.isPrivate(), currentUser.getId());
+            unreadCounterService.roomJoined(currentUser.getId(), savedRoom.getId());
+            roomDirectoryService.changed();
             logger.info("Room created successfully with ID: {}", savedRoom.getId());
             
             return ResponseEntity.ok(savedRoom);
@@ -95,17 +162,32 @@ public class ChatRoomController {
         }
         
         ChatRoom chatRoom = room.get();
-        String currentUsername = SecurityContextHolder.getContext().getAuthentication().getName();
-        User currentUser = userRepository.findByUsername(currentUsername).orElse(null);
+        Long currentUserId = ((UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getId();
 
         // Allow access to private rooms only if the current user is a participant
-        if (chatRoom.isPrivate() && (currentUser == null || !chatRoom.getParticipants().contains(currentUser))) {
+        if (chatRoom.isPrivate() && !roomMembershipIndex.isMember(id, currentUserId)) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Access to private room denied. You are not a participant.");
         }
         
         return ResponseEntity.ok(chatRoom);
     }
 
+    // Users connected to this node with the room open; served from memory
+    @GetMapping("/{id}/online")
+    public ResponseEntity<?> getOnlineUsers(@PathVariable Long id) {
+        if (!presenceService.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Room presence is disabled.");
+        }
+        if (!chatLookupCache.roomExists(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        Long currentUserId = ((UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getId();
+        if (!roomMembershipIndex.canAccess(id, currentUserId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Access to private room denied. You are not a participant.");
+        }
+        return ResponseEntity.ok(presenceService.getOnlineInRoom(id));
+    }
+
 
     // NEW: Endpoint to join a private room
     @PostMapping("/{roomId}/join")
@@ -122,8 +204,12 @@ public class ChatRoomController {
 
             if (!chatRoom.isPrivate()) {
                 // If it's a public room, no password needed, just add participant
-                chatRoom.getParticipants().add(currentUser);
-                chatRoomRepository.save(chatRoom);
+                if (chatRoom.getParticipants().add(currentUser)) {
+                    chatRoomRepository.save(chatRoom);
+                    roomMembershipIndex.memberAdded(roomId, currentUser.getId());
+                    unreadCounterService.roomJoined(currentUser.getId(), roomId);
+                    roomDirectoryService.changed();
+                }
                 logger.info("User {} joined public room {}.", username, roomId);
                 return ResponseEntity.ok("Successfully joined public room.");
             }
@@ -135,8 +221,12 @@ public class ChatRoomController {
             }
 
             // Password matches, add user to participants
-            chatRoom.getParticipants().add(currentUser);
-            chatRoomRepository.save(chatRoom);
+            if (chatRoom.getParticipants().add(currentUser)) {
+                chatRoomRepository.save(chatRoom);
+                roomMembershipIndex.memberAdded(roomId, currentUser.getId());
+                unreadCounterService.roomJoined(currentUser.getId(), roomId);
+                roomDirectoryService.changed();
+            }
             logger.info("User {} successfully joined private room {}.", username, roomId);
             return ResponseEntity.ok("Successfully joined private room.");
 
@@ -167,7 +257,10 @@ public class ChatRoomController {
                     } else if (!chatRoom.isPrivate()) {
                         existingRoom.setPasswordHash(null); // Clear password if room becomes public
                     }
-                    return ResponseEntity.ok(chatRoomRepository.save(existingRoom));
+                    ChatRoom savedRoom = chatRoomRepository.save(existingRoom);
+                    roomMembershipIndex.roomUpdated(id, savedRoom.isPrivate());
+                    roomDirectoryService.changed();
+                    return ResponseEntity.ok(savedRoom);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
@@ -179,6 +272,13 @@ public class ChatRoomController {
         return chatRoomRepository.findById(id)
                 .map(room -> {
                     chatRoomRepository.delete(room);
+                    recentMessageCache.evict(id);
+                    messageArchive.roomDeleted(id);
+                    chatLookupCache.roomDeleted(id);
+                    roomMembershipIndex.roomDeleted(id);
+                    unreadCounterService.roomDeleted(id);
+                    roomBroadcastBatcher.roomDeleted(id);
+                    roomDirectoryService.changed();
                     return ResponseEntity.ok().build();
                 })
                 .orElse(ResponseEntity.notFound().build());
@@ -192,8 +292,12 @@ public class ChatRoomController {
                 .map(room -> {
                     userRepository.findByUsername(username)
                             .ifPresent(user -> {
-                                room.getParticipants().add(user);
-                                chatRoomRepository.save(room);
+                                if (room.getParticipants().add(user)) {
+                                    chatRoomRepository.save(room);
+                                    roomMembershipIndex.memberAdded(id, user.getId());
+                                    unreadCounterService.roomJoined(user.getId(), id);
+                                    roomDirectoryService.changed();
+                                }
                             });
                     return ResponseEntity.ok().build();
                 })
@@ -208,8 +312,12 @@ public class ChatRoomController {
                 .map(room -> {
                     userRepository.findByUsername(username)
                             .ifPresent(user -> {
-                                room.getParticipants().remove(user);
-                                chatRoomRepository.save(room);
+                                if (room.getParticipants().remove(user)) {
+                                    chatRoomRepository.save(room);
+                                    roomMembershipIndex.memberRemoved(id, user.getId());
+                                    unreadCounterService.roomLeft(user.getId(), id);
+                                    roomDirectoryService.changed();
+                                }
                             });
                     return ResponseEntity.ok().build();
                 })
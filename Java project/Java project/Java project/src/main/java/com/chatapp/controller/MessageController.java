@@ -1,20 +1,59 @@
 package com.chatapp.controller;
 
+import com.chatapp.archive.MessageArchive;
 import com.chatapp.model.Message;
 import com.chatapp.model.User;
+import com.chatapp.payload.response.MessageDto;
+import com.chatapp.payload.response.MessageResponse;
 import com.chatapp.repository.MessageRepository;
 import com.chatapp.repository.UserRepository;
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.ChatLookupCache;
+import com.chatapp.service.MessageExportService;
+import com.chatapp.service.MessageHistoryService;
+import com.chatapp.service.MessageSearchIndex;
+import com.chatapp.service.RoomMembershipIndex;
+import com.chatapp.service.UnreadCounterService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
 @RestController
 @RequestMapping("/api/messages")
 public class MessageController {
+    private static final Logger logger = LoggerFactory.getLogger(MessageController.class);
+
+    private static final MediaType NDJSON = new MediaType("application", "x-ndjson", StandardCharsets.UTF_8);
+    private static final String EXPORT_PERMIT = MessageController.class.getName() + ".EXPORT_PERMIT";
 
     @Autowired
     private MessageRepository messageRepository;
@@ -22,29 +61,184 @@ public class MessageController {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private MessageHistoryService messageHistoryService;
+
+    @Autowired
+    private ChatLookupCache chatLookupCache;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private RoomMembershipIndex roomMembershipIndex;
+
+    @Autowired
+    private MessageExportService messageExportService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @GetMapping("/private/{username}")
     @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
-    public ResponseEntity<?> getPrivateMessages(@PathVariable String username) {
-        return userRepository.findByUsername(username)
-                .map(user -> {
-                    User currentUser = userRepository.findByUsername(
-                            SecurityContextHolder.getContext().getAuthentication().getName())
-                            .orElseThrow(() -> new RuntimeException("User not found"));
-                    List<Message> messages = messageRepository.findBySenderAndReceiver(currentUser, user);
-                    messages.addAll(messageRepository.findBySenderAndReceiver(user, currentUser));
-                    return ResponseEntity.ok(messages);
+    public ResponseEntity<?> getPrivateMessages(@PathVariable String username,
+                                                @RequestParam(required = false) Long before,
+                                                @RequestParam(defaultValue = "50") int limit) {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        return chatLookupCache.findUserId(username)
+                .<ResponseEntity<?>>map(otherUserId -> ResponseEntity.ok(messageHistoryService.getConversationHistory(
+                        currentUser.getId(), otherUserId, before, limit)))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    // Whole conversation as NDJSON; resume an interrupted export with after=<id of the last complete line>
+    @GetMapping("/private/{username}/export")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> exportPrivateMessages(@PathVariable String username,
+                                                                       @RequestParam(defaultValue = "0") long after,
+                                                                       HttpServletRequest request,
+                                                                       HttpServletResponse response) {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        Optional<Long> otherUserId = chatLookupCache.findUserId(username);
+        if (otherUserId.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return export(request, response, "conversation-" + username,
+                out -> messageExportService.exportConversation(currentUser.getId(), otherUserId.get(), after, out));
+    }
+
+    @PutMapping("/private/{username}/read")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> markConversationRead(@PathVariable String username, @RequestParam Long upTo) {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        return chatLookupCache.findUserId(username)
+                .<ResponseEntity<?>>map(otherUserId -> {
+                    unreadCounterService.markConversationRead(currentUser.getId(), otherUserId, username, upTo);
+                    return ResponseEntity.ok().build();
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @GetMapping("/room/{roomId}")
     @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
-    public ResponseEntity<?> getRoomMessages(@PathVariable Long roomId) {
-        return ResponseEntity.ok(messageRepository.findByChatRoomId(roomId));
+    public ResponseEntity<?> getRoomMessages(@PathVariable Long roomId,
+                                             @RequestParam(required = false) Long before,
+                                             @RequestParam(required = false) Long after,
+                                             @RequestParam(defaultValue = "50") int limit) {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        if (!chatLookupCache.roomExists(roomId)) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!roomMembershipIndex.canAccess(roomId, currentUser.getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(new MessageResponse("Error: You are not a participant of this room"));
+        }
+        try {
+            return ResponseEntity.ok(messageHistoryService.getRoomHistory(roomId, before, after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse("Error: " + e.getMessage()));
+        }
+    }
+
+    // Whole room history as NDJSON; resume an interrupted export with after=<id of the last complete line>
+    @GetMapping("/room/{roomId}/export")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> exportRoomMessages(@PathVariable Long roomId,
+                                                                    @RequestParam(defaultValue = "0") long after,
+                                                                    HttpServletRequest request,
+                                                                    HttpServletResponse response) {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        if (!chatLookupCache.roomExists(roomId)) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!roomMembershipIndex.canAccess(roomId, currentUser.getId())) {
+            return exportError(HttpStatus.FORBIDDEN, "You are not a participant of this room");
+        }
+        return export(request, response, "room-" + roomId,
+                out -> messageExportService.exportRoom(roomId, after, out));
+    }
+
+    @PutMapping("/room/{roomId}/read")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> markRoomRead(@PathVariable Long roomId, @RequestParam Long upTo) {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        if (!chatLookupCache.roomExists(roomId)) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!roomMembershipIndex.canAccess(roomId, currentUser.getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(new MessageResponse("Error: You are not a participant of this room"));
+        }
+        unreadCounterService.markRoomRead(currentUser.getId(), roomId, upTo);
+        return ResponseEntity.ok().build();
+    }
+
+    // Newest messages of one room or conversation containing every word of q
+    @GetMapping("/search")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> searchMessages(@RequestParam String q,
+                                            @RequestParam(required = false) Long roomId,
+                                            @RequestParam(required = false) String username,
+                                            @RequestParam(defaultValue = "20") int limit) {
+        if (!messageSearchIndex.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(new MessageResponse("Error: Message search is disabled"));
+        }
+        if ((roomId == null) == (username == null)) {
+            return ResponseEntity.badRequest().body(new MessageResponse("Error: Pass either roomId or username"));
+        }
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        String scope;
+        if (roomId != null) {
+            if (!chatLookupCache.roomExists(roomId)) {
+                return ResponseEntity.notFound().build();
+            }
+            if (!roomMembershipIndex.canAccess(roomId, currentUser.getId())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body(new MessageResponse("Error: You are not a participant of this room"));
+            }
+            scope = MessageSearchIndex.roomScope(roomId);
+        } else {
+            Optional<Long> otherUserId = chatLookupCache.findUserId(username);
+            if (otherUserId.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            scope = MessageSearchIndex.conversationScope(Message.conversationKey(currentUser.getId(), otherUserId.get()));
+        }
+        try {
+            List<Long> ids = messageSearchIndex.search(scope, q, limit);
+            if (ids.isEmpty()) {
+                return ResponseEntity.ok(ids);
+            }
+            List<MessageDto> messages = messageRepository.findDtosByIdIn(ids);
+            if (roomId != null && messages.size() < ids.size() && messageArchive.hasRoom(roomId)) {
+                // Hits moved to the archive since they were indexed
+                messages = new ArrayList<>(messages);
+                messages.addAll(messageArchive.find(roomId, ids));
+                messages.sort(Comparator.comparing(MessageDto::getId).reversed());
+            }
+            return ResponseEntity.ok(messages);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse("Error: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/unread/summary")
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getUnreadSummary() {
+        UserDetailsImpl currentUser = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        return ResponseEntity.ok(unreadCounterService.getSummary(currentUser.getId()));
     }
 
     @GetMapping("/unread")
     @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    @Transactional(readOnly = true)
     public ResponseEntity<?> getUnreadMessages() {
         User currentUser = userRepository.findByUsername(
                 SecurityContextHolder.getContext().getAuthentication().getName())
@@ -58,8 +252,89 @@ public class MessageController {
         return messageRepository.findById(id)
                 .map(message -> {
                     message.setRead(true);
-                    return ResponseEntity.ok(messageRepository.save(message));
+                    Message saved = messageRepository.save(message);
+                    if (saved.getReceiver() != null) {
+                        unreadCounterService.conversationChanged(saved.getReceiver().getId(),
+                                saved.getSender().getId(), saved.getSender().getUsername());
+                    }
+                    return ResponseEntity.ok(saved);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
-} 
\ No newline at end of file
+
+    /**
+     * Streams an export from a background thread, gzipped if the client accepts it, or answers 503 if
+     * the maximum number of exports is already running. The response is only completed when the
+     * export is: if it fails after the first bytes went out, the connection is dropped so the client
+     * sees a truncated body rather than a clean end. The export slot is given back when the body
+     * ends, or when the async request completes without it having ended, as after a timeout, a
+     * client disconnect or a rejected task.
+     */
+    private ResponseEntity<StreamingResponseBody> export(HttpServletRequest request, HttpServletResponse response,
+                                                         String name, ExportBody body) {
+        if (!messageExportService.tryAcquire()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "10")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(exportError("Too many exports are running, try again later"));
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                messageExportService.release();
+            }
+        };
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(EXPORT_PERMIT, new CallableProcessingInterceptor() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                release.run();
+            }
+        });
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(NDJSON);
+        // The name may hold any username, so it is encoded rather than quoted as is
+        headers.setContentDisposition(ContentDisposition.attachment()
+                .filename(name + ".ndjson", StandardCharsets.UTF_8)
+                .build());
+        headers.setVary(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING));
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        StreamingResponseBody stream = out -> {
+            try {
+                OutputStream target = gzip ? new GZIPOutputStream(out, 8192) : out;
+                long written = body.writeTo(target);
+                if (target instanceof GZIPOutputStream) {
+                    ((GZIPOutputStream) target).finish();
+                }
+                logger.debug("Exported {} messages to {}", written, name);
+            } catch (IOException | RuntimeException e) {
+                if (!response.isCommitted()) {
+                    // Nothing sent yet, so the error response must not claim to be a gzipped export
+                    response.reset();
+                }
+                throw e;
+            } finally {
+                release.run();
+            }
+        };
+        return ResponseEntity.ok().headers(headers).body(stream);
+    }
+
+    private ResponseEntity<StreamingResponseBody> exportError(HttpStatus status, String message) {
+        return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON).body(exportError(message));
+    }
+
+    // Export endpoints return a streaming body, so their error responses are written the same way
+    private StreamingResponseBody exportError(String message) {
+        MessageResponse error = new MessageResponse("Error: " + message);
+        return out -> objectMapper.writeValue(out, error);
+    }
+
+    @FunctionalInterface
+    private interface ExportBody {
+        long writeTo(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,51 @@
+package com.chatapp.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import lombok.Data;
+import org.hibernate.annotations.GenericGenerator;
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A file uploaded by one user. The bytes live once per distinct content in {@code AttachmentStore},
+ * keyed by their SHA-256, however many users upload them; a user uploading the same content again
+ * gets their existing attachment back.
+ */
+@Data
+@Entity
+@Table(name = "attachments", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_attachments_uploader_sha256", columnNames = {"uploader_id", "sha256"})
+})
+public class Attachment {
+    @Id
+    @GeneratedValue(generator = "snowflake")
+    @GenericGenerator(name = "snowflake", strategy = "com.chatapp.model.id.SnowflakeIdentifierGenerator")
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long id;
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    @Column(name = "uploader_id", nullable = false)
+    private Long uploaderId;
+
+    // Lower-case hex
+    @Column(nullable = false, length = 64)
+    private String sha256;
+
+    @Column(nullable = false)
+    private long size;
+
+    @Column(name = "content_type", nullable = false, length = 127)
+    private String contentType;
+
+    @Column(nullable = false)
+    private String filename;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,30 @@
+package com.chatapp.model;
+
+import lombok.Data;
+import javax.persistence.*;
+
+/**
+ * Records that an attachment was posted to a room or private conversation, so everyone who can
+ * read there can download it. Kept apart from the messages, which may move to the archive.
+ */
+@Data
+@Entity
+@Table(name = "attachment_shares", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_attachment_shares_room", columnNames = {"attachment_id", "chat_room_id"}),
+        @UniqueConstraint(name = "uk_attachment_shares_conversation", columnNames = {"attachment_id", "conversation_key"})
+})
+public class AttachmentShare {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "attachment_id", nullable = false)
+    private Long attachmentId;
+
+    // Exactly one of chatRoomId and conversationKey is set
+    @Column(name = "chat_room_id")
+    private Long chatRoomId;
+
+    @Column(name = "conversation_key", length = 41)
+    private String conversationKey;
+}
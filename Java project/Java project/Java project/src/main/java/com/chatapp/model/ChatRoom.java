@@ -1,6 +1,9 @@
 package com.chatapp.model;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
+import org.hibernate.annotations.GenericGenerator;
 import javax.persistence.*;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.Size;
@@ -13,7 +16,9 @@ import java.util.Set;
 @Table(name = "chat_rooms")
 public class ChatRoom {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "snowflake")
+    @GenericGenerator(name = "snowflake", strategy = "com.chatapp.model.id.SnowflakeIdentifierGenerator")
+    @JsonSerialize(using = ToStringSerializer.class) // 64-bit ids do not fit in a JavaScript number
     private Long id;
 
     @NotBlank
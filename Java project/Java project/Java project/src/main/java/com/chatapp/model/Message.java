@@ -1,15 +1,24 @@
 package com.chatapp.model;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
+import org.hibernate.annotations.GenericGenerator;
 import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Data
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+        @Index(name = "idx_messages_room_sent_id", columnList = "chat_room_id, sent_at, id"),
+        @Index(name = "idx_messages_room_id", columnList = "chat_room_id, id"),
+        @Index(name = "idx_messages_conversation_id", columnList = "conversation_key, id")
+})
 public class Message {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "snowflake")
+    @GenericGenerator(name = "snowflake", strategy = "com.chatapp.model.id.SnowflakeIdentifierGenerator")
+    @JsonSerialize(using = ToStringSerializer.class) // 64-bit ids do not fit in a JavaScript number
     private Long id;
 
     @ManyToOne
@@ -33,9 +42,23 @@ public class Message {
     @JoinColumn(name = "chat_room_id")
     private ChatRoom chatRoom;
 
+    // Private messages only: both participants' user ids, lower id first, e.g. "12:40"
+    @Column(name = "conversation_key", length = 41)
+    private String conversationKey;
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    @Column(name = "attachment_id")
+    private Long attachmentId;
+
+    public static String conversationKey(Long userId, Long otherUserId) {
+        return Math.min(userId, otherUserId) + ":" + Math.max(userId, otherUserId);
+    }
+
     @PrePersist
     protected void onCreate() {
-        sentAt = LocalDateTime.now();
+        if (sentAt == null) {
+            sentAt = LocalDateTime.now();
+        }
         isRead = false;
     }
 } 
\ No newline at end of file
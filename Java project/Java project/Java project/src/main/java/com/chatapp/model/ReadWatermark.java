@@ -0,0 +1,44 @@
+package com.chatapp.model;
+
+import lombok.Data;
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * The newest message a user has read in one room or one private conversation.
+ * Everything up to and including {@code lastReadMessageId} counts as read, so catching up on
+ * any number of messages is a single row update.
+ */
+@Data
+@Entity
+@Table(name = "read_watermarks", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_read_watermarks_user_room", columnNames = {"user_id", "chat_room_id"}),
+        @UniqueConstraint(name = "uk_read_watermarks_user_conversation", columnNames = {"user_id", "conversation_key"})
+})
+public class ReadWatermark {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    // Exactly one of chatRoomId and conversationKey is set
+    @Column(name = "chat_room_id")
+    private Long chatRoomId;
+
+    @Column(name = "conversation_key", length = 41)
+    private String conversationKey;
+
+    @Column(name = "last_read_message_id", nullable = false)
+    private Long lastReadMessageId;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
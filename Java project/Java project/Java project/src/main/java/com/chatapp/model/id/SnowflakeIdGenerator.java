@@ -0,0 +1,74 @@
+package com.chatapp.model.id;
+
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free generator of 64-bit, time-ordered ids.
+ * Layout (high to low): 41 bits of milliseconds since {@link #EPOCH_MILLIS}, 10 bits of node id,
+ * 12 bits of per-millisecond sequence. Ids from one node are strictly increasing; ids from different
+ * nodes never collide as long as every node runs with its own node id.
+ */
+public final class SnowflakeIdGenerator {
+
+    public static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    public static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+
+    private static final ConcurrentMap<Long, SnowflakeIdGenerator> INSTANCES = new ConcurrentHashMap<>();
+
+    private final long nodeId;
+
+    // (timestamp << SEQUENCE_BITS) | sequence of the last id handed out
+    private final AtomicLong state = new AtomicLong();
+
+    private SnowflakeIdGenerator(long nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Returns the JVM-wide generator for a node id, so JPA and JDBC writers on the same node
+     * share one sequence and cannot hand out the same id twice.
+     */
+    public static SnowflakeIdGenerator forNode(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        return INSTANCES.computeIfAbsent(nodeId, SnowflakeIdGenerator::new);
+    }
+
+    public long nextId() {
+        while (true) {
+            long last = state.get();
+            long now = System.currentTimeMillis() - EPOCH_MILLIS;
+            // Same millisecond, or the clock moved backwards: keep counting from the last state.
+            // A sequence overflow carries into the timestamp bits, borrowing the next millisecond.
+            long next = now > (last >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : last + 1;
+            if (state.compareAndSet(last, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    public static long timestampMillis(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    /**
+     * Smallest id that could have been generated at the given instant, on any node.
+     */
+    public static long minIdAt(long epochMillis) {
+        return Math.max(0, epochMillis - EPOCH_MILLIS) << (NODE_BITS + SEQUENCE_BITS);
+    }
+}
@@ -0,0 +1,37 @@
+package com.chatapp.model.id;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * Hibernate adapter for {@link SnowflakeIdGenerator}. Unlike IDENTITY, the id is known before the
+ * INSERT runs, so Hibernate can group inserts into JDBC batches.
+ * The node id is read from the {@code chat.id.node-id} Hibernate setting.
+ */
+public class SnowflakeIdentifierGenerator implements IdentifierGenerator {
+
+    public static final String NODE_ID_SETTING = "chat.id.node-id";
+
+    private SnowflakeIdGenerator generator;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        Object nodeId = serviceRegistry.getService(ConfigurationService.class)
+                .getSettings()
+                .getOrDefault(NODE_ID_SETTING, "0");
+        generator = SnowflakeIdGenerator.forNode(Long.parseLong(nodeId.toString().trim()));
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) throws HibernateException {
+        return generator.nextId();
+    }
+}
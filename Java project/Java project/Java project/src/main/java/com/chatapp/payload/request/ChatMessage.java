@@ -1,5 +1,7 @@
 package com.chatapp.payload.request;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
 
 @Data
@@ -8,11 +10,19 @@ public class ChatMessage {
     private String content;
     private String sender;
     private String receiver;
+    @JsonSerialize(using = ToStringSerializer.class)
     private Long chatRoomId;
+    // Position in the room or conversation, assigned by the server (see MessageReplayLog)
+    private Long seq;
+    // An attachment the sender uploaded or can read; sending shares it with the room or conversation
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long attachmentId;
 
     public enum MessageType {
         CHAT,
         JOIN,
-        LEAVE
+        LEAVE,
+        // Ephemeral, never persisted; see TypingIndicatorService
+        TYPING
     }
 } 
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.chatapp.payload.response;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+import java.time.LocalDateTime;
+
+public class MessageDto {
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long id;
+    private String sender;
+    private String receiver;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long chatRoomId;
+    private String content;
+    private LocalDateTime sentAt;
+    private boolean read;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long attachmentId;
+
+    public MessageDto(Long id, String sender, String receiver, Long chatRoomId, String content,
+                      LocalDateTime sentAt, boolean read) {
+        this(id, sender, receiver, chatRoomId, content, sentAt, read, null);
+    }
+
+    public MessageDto(Long id, String sender, String receiver, Long chatRoomId, String content,
+                      LocalDateTime sentAt, boolean read, Long attachmentId) {
+        this.id = id;
+        this.sender = sender;
+        this.receiver = receiver;
+        this.chatRoomId = chatRoomId;
+        this.content = content;
+        this.sentAt = sentAt;
+        this.read = read;
+        this.attachmentId = attachmentId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getReceiver() {
+        return receiver;
+    }
+
+    public Long getChatRoomId() {
+        return chatRoomId;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public LocalDateTime getSentAt() {
+        return sentAt;
+    }
+
+    public boolean isRead() {
+        return read;
+    }
+
+    public Long getAttachmentId() {
+        return attachmentId;
+    }
+}
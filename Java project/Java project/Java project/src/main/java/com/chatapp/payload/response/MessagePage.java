@@ -0,0 +1,31 @@
+package com.chatapp.payload.response;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+import java.util.List;
+
+public class MessagePage {
+    private List<MessageDto> messages;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long nextCursor;
+    private boolean hasMore;
+
+    public MessagePage(List<MessageDto> messages, Long nextCursor, boolean hasMore) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<MessageDto> getMessages() {
+        return messages;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+}
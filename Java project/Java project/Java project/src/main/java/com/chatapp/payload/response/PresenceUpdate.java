@@ -0,0 +1,23 @@
+package com.chatapp.payload.response;
+
+import java.util.List;
+
+public class PresenceUpdate {
+    // Users that came online since the previous update
+    private List<String> online;
+    // Users whose last session closed since the previous update
+    private List<String> offline;
+
+    public PresenceUpdate(List<String> online, List<String> offline) {
+        this.online = online;
+        this.offline = offline;
+    }
+
+    public List<String> getOnline() {
+        return online;
+    }
+
+    public List<String> getOffline() {
+        return offline;
+    }
+}
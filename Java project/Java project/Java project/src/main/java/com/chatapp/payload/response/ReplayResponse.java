@@ -0,0 +1,38 @@
+package com.chatapp.payload.response;
+
+import com.chatapp.payload.request.ChatMessage;
+
+import java.util.List;
+
+public class ReplayResponse {
+    // Destination the client resubscribed to, e.g. /topic/room.42 or /user/queue/messages
+    private String destination;
+    // Other participant for private conversations, null for rooms
+    private String with;
+    private List<ChatMessage> messages;
+    // True when the missed messages are no longer held; reload the room or conversation over REST
+    private boolean resync;
+
+    public ReplayResponse(String destination, String with, List<ChatMessage> messages, boolean resync) {
+        this.destination = destination;
+        this.with = with;
+        this.messages = messages;
+        this.resync = resync;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public String getWith() {
+        return with;
+    }
+
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+
+    public boolean isResync() {
+        return resync;
+    }
+}
@@ -0,0 +1,33 @@
+package com.chatapp.payload.response;
+
+import java.util.List;
+
+public class RoomDirectoryPage {
+    private List<RoomSummary> rooms;
+    private int page;
+    private int size;
+    private boolean hasMore;
+
+    public RoomDirectoryPage(List<RoomSummary> rooms, int page, int size, boolean hasMore) {
+        this.rooms = rooms;
+        this.page = page;
+        this.size = size;
+        this.hasMore = hasMore;
+    }
+
+    public List<RoomSummary> getRooms() {
+        return rooms;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+}
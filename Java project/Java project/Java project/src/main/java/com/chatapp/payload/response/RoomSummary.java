@@ -0,0 +1,53 @@
+package com.chatapp.payload.response;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+/**
+ * Room listing row, built by a single grouped query instead of loading rooms and their participants.
+ */
+public class RoomSummary {
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long id;
+    private String name;
+    private String description;
+    private boolean isPrivate;
+    private String creatorName;
+    private long participantCount;
+
+    public RoomSummary(Long id, String name, String description, boolean isPrivate, String creatorName,
+                       long participantCount) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.isPrivate = isPrivate;
+        this.creatorName = creatorName;
+        this.participantCount = participantCount;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    @JsonProperty("isPrivate")
+    public boolean isPrivate() {
+        return isPrivate;
+    }
+
+    public String getCreatorName() {
+        return creatorName;
+    }
+
+    public long getParticipantCount() {
+        return participantCount;
+    }
+}
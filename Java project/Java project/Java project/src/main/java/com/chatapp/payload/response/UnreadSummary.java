@@ -0,0 +1,29 @@
+package com.chatapp.payload.response;
+
+import java.util.Map;
+
+public class UnreadSummary {
+    private long total;
+    // Room id -> unread messages
+    private Map<Long, Long> rooms;
+    // Other participant's username -> unread private messages
+    private Map<String, Long> conversations;
+
+    public UnreadSummary(long total, Map<Long, Long> rooms, Map<String, Long> conversations) {
+        this.total = total;
+        this.rooms = rooms;
+        this.conversations = conversations;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public Map<Long, Long> getRooms() {
+        return rooms;
+    }
+
+    public Map<String, Long> getConversations() {
+        return conversations;
+    }
+}
@@ -0,0 +1,20 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.Attachment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface AttachmentRepository extends JpaRepository<Attachment, Long> {
+    Optional<Attachment> findByUploaderIdAndSha256(Long uploaderId, String sha256);
+
+    boolean existsBySha256(String sha256);
+
+    // Bytes charged against the user's quota; content shared with other users is charged to each of them
+    @Query("select coalesce(sum(a.size), 0) from Attachment a where a.uploaderId = :uploaderId")
+    long sumSizeByUploaderId(@Param("uploaderId") Long uploaderId);
+}
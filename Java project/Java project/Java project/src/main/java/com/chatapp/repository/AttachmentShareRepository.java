@@ -0,0 +1,14 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.AttachmentShare;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface AttachmentShareRepository extends JpaRepository<AttachmentShare, Long> {
+    List<AttachmentShare> findByAttachmentId(Long attachmentId);
+    boolean existsByAttachmentIdAndChatRoomId(Long attachmentId, Long chatRoomId);
+    boolean existsByAttachmentIdAndConversationKey(Long attachmentId, String conversationKey);
+}
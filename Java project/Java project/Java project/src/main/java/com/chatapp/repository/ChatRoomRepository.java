@@ -2,14 +2,47 @@ package com.chatapp.repository;
 
 import com.chatapp.model.ChatRoom;
 import com.chatapp.model.User;
+import com.chatapp.payload.response.RoomSummary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.util.List;
 
 @Repository
 public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
+    String ROOM_SUMMARY_SELECT = "select new com.chatapp.payload.response.RoomSummary(" +
+            "r.id, r.name, r.description, r.isPrivate, c.username, count(p)) ";
+    String ROOM_SUMMARY_GROUP = "group by r.id, r.name, r.description, r.isPrivate, c.username " +
+            "order by r.name, r.id";
+
     List<ChatRoom> findByParticipantsContaining(User user);
     List<ChatRoom> findByIsPrivateFalse(); // Keep this for potential future use
     List<ChatRoom> findByIsPrivateTrue();  // Added for retrieving only private rooms
     List<ChatRoom> findByCreatedBy(User user);
+
+    // Room directory: one grouped query, participants are counted rather than loaded.
+    // Slice return types fetch one extra row instead of running a COUNT query.
+    @Query(ROOM_SUMMARY_SELECT +
+            "from ChatRoom r join r.createdBy c left join r.participants p " +
+            ROOM_SUMMARY_GROUP)
+    List<RoomSummary> findAllSummaries();
+
+    @Query(ROOM_SUMMARY_SELECT +
+            "from ChatRoom r join r.createdBy c left join r.participants p " +
+            "where (:isPrivate is null or r.isPrivate = :isPrivate) " +
+            ROOM_SUMMARY_GROUP)
+    Slice<RoomSummary> findSummaries(@Param("isPrivate") Boolean isPrivate, Pageable pageable);
+
+    @Query(ROOM_SUMMARY_SELECT +
+            "from ChatRoom r join r.createdBy c join r.participants mine left join r.participants p " +
+            "where mine.id = :userId and (:isPrivate is null or r.isPrivate = :isPrivate) " +
+            ROOM_SUMMARY_GROUP)
+    Slice<RoomSummary> findSummariesByParticipantId(@Param("userId") Long userId,
+                                                    @Param("isPrivate") Boolean isPrivate, Pageable pageable);
+
+    @Query("select r.id from ChatRoom r join r.participants p where p.id = :userId")
+    List<Long> findRoomIdsByParticipantId(@Param("userId") Long userId);
 }
\ No newline at end of file
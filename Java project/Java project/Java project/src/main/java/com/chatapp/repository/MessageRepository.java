@@ -2,13 +2,118 @@ package com.chatapp.repository;
 
 import com.chatapp.model.Message;
 import com.chatapp.model.User;
+import com.chatapp.payload.response.MessageDto;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
+    String MESSAGE_DTO_SELECT = "select new com.chatapp.payload.response.MessageDto(" +
+            "m.id, s.username, r.username, m.chatRoom.id, m.content, m.sentAt, m.isRead, m.attachmentId) " +
+            "from Message m join m.sender s left join m.receiver r ";
+
+    // Rows per round trip of the export streams; MySQL only honours it with useCursorFetch=true
+    String EXPORT_FETCH_SIZE = "500";
+
     List<Message> findBySenderAndReceiver(User sender, User receiver);
     List<Message> findByChatRoomId(Long chatRoomId);
     List<Message> findByReceiverAndIsReadFalse(User receiver);
-} 
\ No newline at end of file
+
+    @Query("select m.sentAt from Message m where m.id = :id")
+    Optional<LocalDateTime> findSentAtById(@Param("id") Long id);
+
+    // Unread counts: messages newer than the user's watermark for the scope, or all of them without one.
+    // Each row is {scope id, sender username (conversations only), count, newest counted id}.
+    @Query("select s.id, s.username, count(m), max(m.id) from Message m join m.sender s " +
+            "left join ReadWatermark w on w.userId = :userId and w.conversationKey = m.conversationKey " +
+            "where m.receiver.id = :userId and m.isRead = false " +
+            "and (w.id is null or m.id > w.lastReadMessageId) " +
+            "group by s.id, s.username")
+    List<Object[]> countUnreadByConversation(@Param("userId") Long userId);
+
+    @Query("select r.id, count(m), max(m.id) from Message m join m.chatRoom r join r.participants p " +
+            "left join ReadWatermark w on w.userId = :userId and w.chatRoomId = r.id " +
+            "where p.id = :userId and m.sender.id <> :userId " +
+            "and (w.id is null or m.id > w.lastReadMessageId) " +
+            "group by r.id")
+    List<Object[]> countUnreadByRoom(@Param("userId") Long userId);
+
+    @Query("select count(m) from Message m where m.conversationKey = :conversationKey " +
+            "and m.receiver.id = :userId and m.isRead = false and m.id > :after")
+    long countUnreadInConversation(@Param("userId") Long userId, @Param("conversationKey") String conversationKey,
+                                   @Param("after") Long after);
+
+    @Query("select count(m) from Message m where m.chatRoom.id = :roomId " +
+            "and m.sender.id <> :userId and m.id > :after")
+    long countUnreadInRoom(@Param("userId") Long userId, @Param("roomId") Long roomId, @Param("after") Long after);
+
+    // Private history is one range scan over idx_messages_conversation_id
+    @Query(MESSAGE_DTO_SELECT +
+            "where m.conversationKey = :conversationKey " +
+            "order by m.id desc")
+    List<MessageDto> findConversationLatest(@Param("conversationKey") String conversationKey, Pageable pageable);
+
+    @Query(MESSAGE_DTO_SELECT +
+            "where m.conversationKey = :conversationKey and m.id < :before " +
+            "order by m.id desc")
+    List<MessageDto> findConversationBefore(@Param("conversationKey") String conversationKey,
+                                            @Param("before") Long before, Pageable pageable);
+
+    // Keyset pages over idx_messages_room_sent_id; a List return type means no COUNT query
+    @Query(MESSAGE_DTO_SELECT +
+            "where m.chatRoom.id = :roomId " +
+            "order by m.sentAt desc, m.id desc")
+    List<MessageDto> findRoomHistoryLatest(@Param("roomId") Long roomId, Pageable pageable);
+
+    @Query(MESSAGE_DTO_SELECT +
+            "where m.chatRoom.id = :roomId " +
+            "and (m.sentAt < :sentAt or (m.sentAt = :sentAt and m.id < :id)) " +
+            "order by m.sentAt desc, m.id desc")
+    List<MessageDto> findRoomHistoryBefore(@Param("roomId") Long roomId, @Param("sentAt") LocalDateTime sentAt,
+                                           @Param("id") Long id, Pageable pageable);
+
+    // Where paging forward leaves the archive and continues in the database
+    @Query(MESSAGE_DTO_SELECT +
+            "where m.chatRoom.id = :roomId " +
+            "order by m.sentAt asc, m.id asc")
+    List<MessageDto> findRoomHistoryEarliest(@Param("roomId") Long roomId, Pageable pageable);
+
+    @Query(MESSAGE_DTO_SELECT +
+            "where m.chatRoom.id = :roomId " +
+            "and (m.sentAt > :sentAt or (m.sentAt = :sentAt and m.id > :id)) " +
+            "order by m.sentAt asc, m.id asc")
+    List<MessageDto> findRoomHistoryAfter(@Param("roomId") Long roomId, @Param("sentAt") LocalDateTime sentAt,
+                                          @Param("id") Long id, Pageable pageable);
+
+    @Query(MESSAGE_DTO_SELECT +
+            "where m.id in :ids " +
+            "order by m.id desc")
+    List<MessageDto> findDtosByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Exports: forward-only streams in id order, to be consumed inside a read-only transaction and closed
+    @QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")})
+    @Query(MESSAGE_DTO_SELECT +
+            "where m.chatRoom.id = :roomId and m.id > :after " +
+            "order by m.id asc")
+    Stream<MessageDto> streamRoomAfter(@Param("roomId") Long roomId, @Param("after") Long after);
+
+    @QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")})
+    @Query(MESSAGE_DTO_SELECT +
+            "where m.conversationKey = :conversationKey and m.id > :after " +
+            "order by m.id asc")
+    Stream<MessageDto> streamConversationAfter(@Param("conversationKey") String conversationKey,
+                                               @Param("after") Long after);
+}
@@ -0,0 +1,31 @@
+package com.chatapp.repository;
+
+import com.chatapp.model.ReadWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+@Repository
+public interface ReadWatermarkRepository extends JpaRepository<ReadWatermark, Long> {
+    Optional<ReadWatermark> findByUserIdAndChatRoomId(Long userId, Long chatRoomId);
+    Optional<ReadWatermark> findByUserIdAndConversationKey(Long userId, String conversationKey);
+
+    // Watermarks only move forward; a stale or replayed request updates nothing
+    @Modifying
+    @Transactional
+    @Query("update ReadWatermark w set w.lastReadMessageId = :upTo, w.updatedAt = current_timestamp " +
+            "where w.userId = :userId and w.chatRoomId = :roomId and w.lastReadMessageId < :upTo")
+    int advanceRoom(@Param("userId") Long userId, @Param("roomId") Long roomId, @Param("upTo") Long upTo);
+
+    @Modifying
+    @Transactional
+    @Query("update ReadWatermark w set w.lastReadMessageId = :upTo, w.updatedAt = current_timestamp " +
+            "where w.userId = :userId and w.conversationKey = :conversationKey and w.lastReadMessageId < :upTo")
+    int advanceConversation(@Param("userId") Long userId, @Param("conversationKey") String conversationKey,
+                            @Param("upTo") Long upTo);
+}
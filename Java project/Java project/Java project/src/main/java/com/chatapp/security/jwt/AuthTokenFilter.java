@@ -1,6 +1,6 @@
 package com.chatapp.security.jwt;
 
-import com.chatapp.security.services.UserDetailsServiceImpl;
+import io.jsonwebtoken.Claims;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -21,11 +21,11 @@ public class AuthTokenFilter extends OncePerRequestFilter {
     private static final Logger logger = LoggerFactory.getLogger(AuthTokenFilter.class);
 
     private final JwtUtils jwtUtils;
-    private final UserDetailsServiceImpl userDetailsService;
+    private final JwtPrincipalResolver principalResolver;
 
-    public AuthTokenFilter(JwtUtils jwtUtils, UserDetailsServiceImpl userDetailsService) {
+    public AuthTokenFilter(JwtUtils jwtUtils, JwtPrincipalResolver principalResolver) {
         this.jwtUtils = jwtUtils;
-        this.userDetailsService = userDetailsService;
+        this.principalResolver = principalResolver;
     }
 
     @Override
@@ -43,11 +43,12 @@ public class AuthTokenFilter extends OncePerRequestFilter {
             if (jwt != null) {
                 logger.debug("JWT token received: {}", jwt);
 
-                if (jwtUtils.validateJwtToken(jwt)) {
-                    String username = jwtUtils.getUserNameFromJwtToken(jwt);
+                Claims claims = jwtUtils.parseVerifiedClaims(jwt);
+                if (claims != null) {
+                    String username = claims.getSubject();
                     logger.debug("JWT valid for user: {}", username);
 
-                    UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+                    UserDetails userDetails = principalResolver.resolve(claims);
                     UsernamePasswordAuthenticationToken authentication =
                             new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
                     authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
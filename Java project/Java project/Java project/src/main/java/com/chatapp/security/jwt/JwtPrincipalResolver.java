@@ -0,0 +1,34 @@
+package com.chatapp.security.jwt;
+
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.security.services.UserDetailsServiceImpl;
+import io.jsonwebtoken.Claims;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+/**
+ * Turns verified JWT claims into a principal. Tokens that embed the user id, email and roles are
+ * trusted as is until they expire, so a change to a user's roles or account only takes effect at
+ * their next signin; tokens without those claims are loaded from the database.
+ */
+@Component
+public class JwtPrincipalResolver {
+
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+
+    @Value("${jwt.claims-principal.enabled:true}")
+    private boolean claimsPrincipalEnabled;
+
+    public UserDetails resolve(Claims claims) {
+        if (claimsPrincipalEnabled) {
+            UserDetailsImpl principal = UserDetailsImpl.fromClaims(claims);
+            if (principal != null) {
+                return principal;
+            }
+        }
+        return userDetailsService.loadUserByUsername(claims.getSubject());
+    }
+}
@@ -1,43 +1,132 @@
 package com.chatapp.security.jwt;
 
+import com.chatapp.security.services.UserDetailsImpl;
 import io.jsonwebtoken.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
 
 @Component
 public class JwtUtils {
     private static final Logger logger = LoggerFactory.getLogger(JwtUtils.class);
 
+    public static final String USER_ID_CLAIM = "uid";
+    public static final String EMAIL_CLAIM = "email";
+    public static final String ROLES_CLAIM = "roles";
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     @Value("${jwt.secret}")
     private String jwtSecret;
 
     @Value("${jwt.expiration}")
     private int jwtExpirationMs;
 
+    @Value("${jwt.verified-cache.max-entries:10000}")
+    private int verifiedCacheMaxEntries;
+
+    @Value("${jwt.claims-principal.enabled:true}")
+    private boolean claimsPrincipalEnabled;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // SHA-256 of the token -> claims whose signature has already been checked
+    private final ConcurrentMap<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+
+    private Counter cacheHits;
+    private Counter cacheMisses;
+
+    @PostConstruct
+    public void init() {
+        cacheHits = meterRegistry.counter("chat.jwt.verified-cache.hits");
+        cacheMisses = meterRegistry.counter("chat.jwt.verified-cache.misses");
+    }
+
     public String generateJwtToken(Authentication authentication) {
         UserDetails userPrincipal = (UserDetails) authentication.getPrincipal();
-        return Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
                 .setSubject(userPrincipal.getUsername())
                 .setIssuedAt(new Date())
-                .setExpiration(new Date((new Date()).getTime() + jwtExpirationMs))
-                .signWith(SignatureAlgorithm.HS512, jwtSecret)
-                .compact();
+                .setExpiration(new Date((new Date()).getTime() + jwtExpirationMs));
+
+        if (claimsPrincipalEnabled && userPrincipal instanceof UserDetailsImpl) {
+            // Lets JwtPrincipalResolver authenticate requests without loading the user
+            UserDetailsImpl user = (UserDetailsImpl) userPrincipal;
+            builder.claim(USER_ID_CLAIM, user.getId())
+                    .claim(EMAIL_CLAIM, user.getEmail())
+                    .claim(ROLES_CLAIM, user.getAuthorities().stream()
+                            .map(GrantedAuthority::getAuthority)
+                            .collect(Collectors.toList()));
+        }
+
+        return builder.signWith(SignatureAlgorithm.HS512, jwtSecret).compact();
+    }
+
+    /**
+     * Verifies the signature and expiry of a token and returns its claims, or null if the token is invalid.
+     * Tokens that verified once are served from a bounded cache until their own expiry.
+     */
+    public Claims parseVerifiedClaims(String token) {
+        if (token == null || token.isEmpty()) {
+            logger.error("JWT claims string is empty");
+            return null;
+        }
+
+        String key = tokenHash(token);
+        long now = System.currentTimeMillis();
+        VerifiedToken cached = verifiedTokens.get(key);
+        if (cached != null) {
+            if (cached.expiresAtMillis > now) {
+                cacheHits.increment();
+                return cached.claims;
+            }
+            verifiedTokens.remove(key, cached);
+        }
+        cacheMisses.increment();
+
+        Claims claims = parseClaims(token);
+        if (claims != null && claims.getExpiration() != null) {
+            cache(key, new VerifiedToken(claims, claims.getExpiration().getTime()), now);
+        }
+        return claims;
     }
 
     public String getUserNameFromJwtToken(String token) {
-        return Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(token).getBody().getSubject();
+        Claims claims = parseVerifiedClaims(token);
+        return claims != null ? claims.getSubject() : null;
     }
 
     public boolean validateJwtToken(String authToken) {
+        return parseVerifiedClaims(authToken) != null;
+    }
+
+    private Claims parseClaims(String authToken) {
         try {
-            Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(authToken);
-            return true;
+            return Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(authToken).getBody();
         } catch (SignatureException e) {
             logger.error("Invalid JWT signature: {}", e.getMessage());
         } catch (MalformedJwtException e) {
@@ -49,6 +138,33 @@ public class JwtUtils {
         } catch (IllegalArgumentException e) {
             logger.error("JWT claims string is empty: {}", e.getMessage());
         }
-        return false;
+        return null;
+    }
+
+    private void cache(String key, VerifiedToken token, long now) {
+        if (verifiedTokens.size() >= verifiedCacheMaxEntries) {
+            verifiedTokens.values().removeIf(entry -> entry.expiresAtMillis <= now);
+            if (verifiedTokens.size() >= verifiedCacheMaxEntries) {
+                // Still full of live tokens: skip caching rather than evict on the request path
+                return;
+            }
+        }
+        verifiedTokens.put(key, token);
+    }
+
+    private static String tokenHash(String token) {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static final class VerifiedToken {
+        private final Claims claims;
+        private final long expiresAtMillis;
+
+        private VerifiedToken(Claims claims, long expiresAtMillis) {
+            this.claims = claims;
+            this.expiresAtMillis = expiresAtMillis;
+        }
     }
-} 
\ No newline at end of file
+}
@@ -1,7 +1,9 @@
 package com.chatapp.security.services;
 
 import com.chatapp.model.User;
+import com.chatapp.security.jwt.JwtUtils;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.jsonwebtoken.Claims;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -45,6 +47,29 @@ public class UserDetailsImpl implements UserDetails {
                 authorities);
     }
 
+    /**
+     * Rebuilds a principal from the claims written by {@link JwtUtils#generateJwtToken}, or returns
+     * null if the token does not carry them. The password is never part of a token.
+     */
+    public static UserDetailsImpl fromClaims(Claims claims) {
+        Number id = claims.get(JwtUtils.USER_ID_CLAIM, Number.class);
+        List<?> roles = claims.get(JwtUtils.ROLES_CLAIM, List.class);
+        if (id == null || roles == null) {
+            return null;
+        }
+
+        List<GrantedAuthority> authorities = roles.stream()
+                .map(role -> new SimpleGrantedAuthority(role.toString()))
+                .collect(Collectors.toList());
+
+        return new UserDetailsImpl(
+                id.longValue(),
+                claims.getSubject(),
+                claims.get(JwtUtils.EMAIL_CLAIM, String.class),
+                null,
+                authorities);
+    }
+
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
         return authorities;
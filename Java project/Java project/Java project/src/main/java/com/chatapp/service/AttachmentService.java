@@ -0,0 +1,179 @@
+package com.chatapp.service;
+
+import com.chatapp.attachment.AttachmentStore;
+import com.chatapp.model.Attachment;
+import com.chatapp.model.AttachmentShare;
+import com.chatapp.repository.AttachmentRepository;
+import com.chatapp.repository.AttachmentShareRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uploads, per-user quotas and access to attachments. A user may download an attachment they
+ * uploaded or one posted to a room or conversation they can read; sending it in a message is
+ * what shares it there.
+ */
+@Service
+public class AttachmentService {
+    // Quota checks and inserts of one user are serialized on one of these
+    private static final int LOCK_STRIPES = 64;
+
+    @Autowired
+    private AttachmentStore attachmentStore;
+
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+
+    @Autowired
+    private AttachmentShareRepository attachmentShareRepository;
+
+    @Autowired
+    private RoomMembershipIndex roomMembershipIndex;
+
+    @Value("${chat.attachments.user-quota-bytes:104857600}")
+    private long userQuotaBytes;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    // Bytes of each user's uploads that are being stored, guarded by the user's lock
+    private final Map<Long, Long> reserved = new ConcurrentHashMap<>();
+
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public long remainingQuota(Long userId) {
+        return Math.max(0, userQuotaBytes - attachmentRepository.sumSizeByUploaderId(userId));
+    }
+
+    /**
+     * Stores the file for the user, or returns their existing attachment with the same content.
+     *
+     * @throws QuotaExceededException if the file does not fit in the user's remaining quota
+     */
+    public Attachment upload(Long userId, MultipartFile file) throws IOException {
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("The file is empty");
+        }
+        long declaredSize = file.getSize();
+        Object lock = locks[Math.floorMod(userId.hashCode(), LOCK_STRIPES)];
+        // Reserved before anything is written, so concurrent uploads of one user cannot together store more than fits
+        synchronized (lock) {
+            if (declaredSize > remainingQuota(userId) - reserved.getOrDefault(userId, 0L)) {
+                throw new QuotaExceededException();
+            }
+            reserved.merge(userId, declaredSize, Long::sum);
+        }
+        try {
+            AttachmentStore.StoredBlob blob;
+            try (InputStream in = file.getInputStream()) {
+                blob = attachmentStore.store(in);
+            }
+            synchronized (lock) {
+                Optional<Attachment> existing = attachmentRepository.findByUploaderIdAndSha256(userId, blob.getSha256());
+                if (existing.isPresent()) {
+                    return existing.get();
+                }
+                long reservedByOthers = reserved.getOrDefault(userId, 0L) - declaredSize;
+                if (blob.getSize() > remainingQuota(userId) - reservedByOthers) {
+                    // Only when the content turned out larger than declared; a blob another attachment uses stays
+                    if (!blob.isDeduplicated() && !attachmentRepository.existsBySha256(blob.getSha256())) {
+                        attachmentStore.delete(blob.getSha256());
+                    }
+                    throw new QuotaExceededException();
+                }
+                Attachment attachment = new Attachment();
+                attachment.setUploaderId(userId);
+                attachment.setSha256(blob.getSha256());
+                attachment.setSize(blob.getSize());
+                attachment.setContentType(contentType(file.getContentType()));
+                attachment.setFilename(filename(file.getOriginalFilename()));
+                return attachmentRepository.save(attachment);
+            }
+        } finally {
+            synchronized (lock) {
+                reserved.computeIfPresent(userId, (id, bytes) -> bytes == declaredSize ? null : bytes - declaredSize);
+            }
+        }
+    }
+
+    public Optional<Attachment> find(Long attachmentId) {
+        return attachmentRepository.findById(attachmentId);
+    }
+
+    public boolean canRead(Attachment attachment, Long userId) {
+        if (attachment.getUploaderId().equals(userId)) {
+            return true;
+        }
+        String member = userId.toString();
+        for (AttachmentShare share : attachmentShareRepository.findByAttachmentId(attachment.getId())) {
+            if (share.getChatRoomId() != null) {
+                if (roomMembershipIndex.canAccess(share.getChatRoomId(), userId)) {
+                    return true;
+                }
+            } else if (share.getConversationKey().startsWith(member + ":")
+                    || share.getConversationKey().endsWith(":" + member)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Shares the attachment with a room ({@code chatRoomId}) or a conversation ({@code conversationKey})
+     * on behalf of the sender, who must be able to read it. Returns false if they cannot.
+     */
+    public boolean share(Long attachmentId, Long senderId, Long chatRoomId, String conversationKey) {
+        Optional<Attachment> attachment = attachmentRepository.findById(attachmentId);
+        if (attachment.isEmpty() || !canRead(attachment.get(), senderId)) {
+            return false;
+        }
+        boolean shared = chatRoomId != null
+                ? attachmentShareRepository.existsByAttachmentIdAndChatRoomId(attachmentId, chatRoomId)
+                : attachmentShareRepository.existsByAttachmentIdAndConversationKey(attachmentId, conversationKey);
+        if (!shared) {
+            AttachmentShare share = new AttachmentShare();
+            share.setAttachmentId(attachmentId);
+            share.setChatRoomId(chatRoomId);
+            share.setConversationKey(conversationKey);
+            try {
+                attachmentShareRepository.save(share);
+            } catch (DataIntegrityViolationException e) {
+                // Shared concurrently by another message
+            }
+        }
+        return true;
+    }
+
+    private static String contentType(String declared) {
+        if (!StringUtils.hasText(declared) || declared.length() > 127) {
+            return "application/octet-stream";
+        }
+        return declared;
+    }
+
+    private static String filename(String original) {
+        String name = StringUtils.getFilename(StringUtils.cleanPath(original == null ? "" : original));
+        if (!StringUtils.hasText(name)) {
+            return "attachment";
+        }
+        return name.length() > 255 ? name.substring(name.length() - 255) : name;
+    }
+
+    public static class QuotaExceededException extends RuntimeException {
+        public QuotaExceededException() {
+            super("Attachment quota exceeded");
+        }
+    }
+}
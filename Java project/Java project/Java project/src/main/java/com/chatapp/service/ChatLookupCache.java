@@ -0,0 +1,174 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.User;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves usernames to user ids and checks room existence for the STOMP send path without
+ * loading entities. Messages only need foreign keys, so callers attach id-only references.
+ * Unknown usernames and missing rooms are cached too, in a separate smaller table, so clients
+ * probing names that do not exist only evict each other; unknown usernames must be invalidated on
+ * signup. Both tables evict their least recently used entry when full. Misses are read in a
+ * read-write transaction, so with read replicas a lagging replica cannot cache a wrong answer.
+ * <p>
+ * Signups and room changes made through another node never reach this one, so when the broker
+ * mode runs more than one node nothing is cached as missing, and an existing room is checked
+ * again once it has been cached for {@code room-ttl-ms}.
+ */
+@Component
+public class ChatLookupCache {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${chat.lookup-cache.max-entries:100000}")
+    private int maxEntries;
+
+    @Value("${chat.lookup-cache.max-negative-entries:10000}")
+    private int maxNegativeEntries;
+
+    @Value("${chat.lookup-cache.room-ttl-ms:5000}")
+    private long roomTtlMillis;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private WebSocketConfig.BrokerMode brokerMode;
+
+    private TransactionTemplate primaryRead;
+    private boolean singleNode;
+    private long roomTtlNanos;
+
+    private Lru<String, Long> userIds;
+    private Lru<String, Boolean> unknownUsers;
+    // Room id -> System.nanoTime() when it was last seen to exist
+    private Lru<Long, Long> rooms;
+    private Lru<Long, Boolean> missingRooms;
+
+    @PostConstruct
+    public void init() {
+        primaryRead = new TransactionTemplate(transactionManager);
+        singleNode = brokerMode == WebSocketConfig.BrokerMode.SIMPLE;
+        roomTtlNanos = TimeUnit.MILLISECONDS.toNanos(roomTtlMillis);
+        userIds = new Lru<>(maxEntries);
+        unknownUsers = new Lru<>(maxNegativeEntries);
+        rooms = new Lru<>(maxEntries);
+        missingRooms = new Lru<>(maxNegativeEntries);
+    }
+
+    public Optional<Long> findUserId(String username) {
+        if (username == null) {
+            return Optional.empty();
+        }
+        Long id = userIds.get(username);
+        if (id != null) {
+            return Optional.of(id);
+        }
+        if (unknownUsers.get(username) != null) {
+            return Optional.empty();
+        }
+        Optional<Long> found = primaryRead.execute(status -> userRepository.findIdByUsername(username));
+        if (found.isPresent()) {
+            userIds.put(username, found.get());
+        } else if (singleNode) {
+            unknownUsers.put(username, Boolean.TRUE);
+        }
+        return found;
+    }
+
+    public boolean roomExists(Long roomId) {
+        Long seenAt = rooms.get(roomId);
+        if (seenAt != null && (singleNode || System.nanoTime() - seenAt < roomTtlNanos)) {
+            return true;
+        }
+        if (missingRooms.get(roomId) != null) {
+            return false;
+        }
+        boolean exists = primaryRead.execute(status -> chatRoomRepository.existsById(roomId));
+        if (exists) {
+            rooms.put(roomId, System.nanoTime());
+        } else {
+            rooms.remove(roomId);
+            if (singleNode) {
+                missingRooms.put(roomId, Boolean.TRUE);
+            }
+        }
+        return exists;
+    }
+
+    public void invalidateUser(String username) {
+        userIds.remove(username);
+        unknownUsers.remove(username);
+    }
+
+    public void roomCreated(Long roomId) {
+        missingRooms.remove(roomId);
+        rooms.put(roomId, System.nanoTime());
+    }
+
+    public void roomDeleted(Long roomId) {
+        rooms.remove(roomId);
+        if (singleNode) {
+            missingRooms.put(roomId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * An unmanaged User carrying only its id; JPA writes it as a foreign key without loading the row.
+     */
+    public static User userReference(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    public static ChatRoom roomReference(Long id) {
+        ChatRoom chatRoom = new ChatRoom();
+        chatRoom.setId(id);
+        return chatRoom;
+    }
+
+    // Access-ordered, so a hit also marks the entry as recently used
+    private static final class Lru<K, V> {
+        private final int maxSize;
+        private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+        private Lru(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized V get(K key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(K key, V value) {
+            entries.put(key, value);
+            if (entries.size() > maxSize) {
+                Map.Entry<K, V> eldest = entries.entrySet().iterator().next();
+                entries.remove(eldest.getKey());
+            }
+        }
+
+        synchronized void remove(K key) {
+            entries.remove(key);
+        }
+    }
+}
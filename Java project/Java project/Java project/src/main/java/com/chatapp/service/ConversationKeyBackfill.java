@@ -0,0 +1,90 @@
+package com.chatapp.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+
+/**
+ * Fills in {@code conversation_key} for private messages written before the column existed.
+ * Runs once per startup on a background thread, walking the table in id order in small chunks so
+ * each UPDATE only holds locks on a short id range.
+ */
+@Component
+public class ConversationKeyBackfill {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationKeyBackfill.class);
+
+    private static final String SELECT_CHUNK_SQL =
+            "SELECT id FROM messages WHERE conversation_key IS NULL AND receiver_id IS NOT NULL AND id > ? " +
+            "ORDER BY id LIMIT ?";
+
+    private static final String UPDATE_CHUNK_SQL =
+            "UPDATE messages SET conversation_key = " +
+            "CONCAT(LEAST(sender_id, receiver_id), ':', GREATEST(sender_id, receiver_id)) " +
+            "WHERE conversation_key IS NULL AND receiver_id IS NOT NULL AND id > ? AND id <= ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${chat.conversation-key.backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.conversation-key.backfill.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${chat.conversation-key.backfill.pause-ms:100}")
+    private long pauseMillis;
+
+    private volatile boolean running;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        Thread worker = new Thread(this::backfill, "conversation-key-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+    }
+
+    private void backfill() {
+        long lastId = 0;
+        long updated = 0;
+        try {
+            while (running) {
+                List<Long> ids = jdbcTemplate.queryForList(SELECT_CHUNK_SQL, Long.class, lastId, chunkSize);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                long upperId = ids.get(ids.size() - 1);
+                // Autocommit: every chunk is its own short transaction
+                updated += jdbcTemplate.update(UPDATE_CHUNK_SQL, lastId, upperId);
+                lastId = upperId;
+                if (ids.size() < chunkSize) {
+                    break;
+                }
+                Thread.sleep(pauseMillis);
+            }
+            if (updated > 0) {
+                logger.info("Backfilled conversation keys for {} private messages", updated);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Conversation key backfill stopped after message {}", lastId, e);
+        }
+    }
+}
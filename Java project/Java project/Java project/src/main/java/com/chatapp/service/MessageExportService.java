@@ -0,0 +1,190 @@
+package com.chatapp.service;
+
+import com.chatapp.archive.MessageArchive;
+import com.chatapp.model.Message;
+import com.chatapp.payload.response.MessageDto;
+import com.chatapp.repository.MessageRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes the whole history of a room or private conversation as NDJSON, one {@link MessageDto}
+ * per line in id order, starting after a cursor id so an interrupted export can be resumed from
+ * the last complete line. Rows are streamed from a forward-only result set as DTOs, so neither the
+ * heap nor the persistence context grows with the size of the room; archived room messages are
+ * read segment by segment ahead of them. Each export holds a database connection for as long as the
+ * client takes to read it, so only {@code max-concurrent} run at a time.
+ */
+@Service
+public class MessageExportService {
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Lines written between flushes of the response
+    @Value("${chat.export.flush-every:500}")
+    private int flushEvery;
+
+    @Value("${chat.export.archive-batch-size:1000}")
+    private int archiveBatchSize;
+
+    @Value("${chat.export.max-concurrent:4}")
+    private int maxConcurrent;
+
+    private TransactionTemplate replicaRead;
+    private ObjectWriter lineWriter;
+    private Semaphore permits;
+    private Counter exported;
+    private Counter rejected;
+
+    @PostConstruct
+    public void init() {
+        replicaRead = new TransactionTemplate(transactionManager);
+        replicaRead.setReadOnly(true);
+        lineWriter = objectMapper.writerFor(MessageDto.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        permits = new Semaphore(maxConcurrent);
+        exported = Counter.builder("chat.export.messages")
+                .description("Messages written by history exports")
+                .register(meterRegistry);
+        rejected = Counter.builder("chat.export.rejected")
+                .description("Exports refused because max-concurrent were already running")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Takes one of the export slots without waiting; a caller that gets one must {@link #release()} it.
+     */
+    public boolean tryAcquire() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Writes the room's messages with an id above {@code after} to {@code out}, which is not closed.
+     */
+    public long exportRoom(Long roomId, long after, OutputStream out) throws IOException {
+        try (JsonGenerator generator = newGenerator(out)) {
+            long written = 0;
+            long cursor = after;
+            while (true) {
+                List<MessageDto> batch = messageArchive.after(roomId, cursor, archiveBatchSize);
+                if (!batch.isEmpty()) {
+                    for (MessageDto message : batch) {
+                        writeLine(generator, message, ++written);
+                    }
+                    cursor = batch.get(batch.size() - 1).getId();
+                    continue;
+                }
+                // Rows of the newest segment may still be in the database after an interrupted archive
+                // run, and a segment sealed while the archive was read holds rows that may be deleted
+                // already: either way, anything up to the last archived id is read from the archive
+                if (messageArchive.lastArchivedId(roomId) > cursor) {
+                    continue;
+                }
+                long databaseAfter = cursor;
+                // A segment sealed before the query saw the table had its rows deleted first, so it is
+                // read from the archive instead; checked once the query is running
+                Long streamed = writeAll(generator, written,
+                        () -> messageRepository.streamRoomAfter(roomId, databaseAfter),
+                        () -> messageArchive.lastArchivedId(roomId) > databaseAfter);
+                if (streamed != null) {
+                    return written + streamed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the messages between the two users with an id above {@code after} to {@code out}, which is not closed.
+     */
+    public long exportConversation(Long userId, Long otherUserId, long after, OutputStream out) throws IOException {
+        String conversationKey = Message.conversationKey(userId, otherUserId);
+        try (JsonGenerator generator = newGenerator(out)) {
+            return writeAll(generator, 0,
+                    () -> messageRepository.streamConversationAfter(conversationKey, after), () -> false);
+        }
+    }
+
+    /**
+     * Writes every row of the source and returns how many, or null without writing anything if
+     * {@code superseded} is true once the query has started.
+     */
+    private Long writeAll(JsonGenerator generator, long writtenBefore, Supplier<Stream<MessageDto>> source,
+                          BooleanSupplier superseded) throws IOException {
+        try {
+            return replicaRead.execute(status -> {
+                long count = 0;
+                try (Stream<MessageDto> messages = source.get()) {
+                    Iterator<MessageDto> iterator = messages.iterator();
+                    if (superseded.getAsBoolean()) {
+                        return null;
+                    }
+                    while (iterator.hasNext()) {
+                        writeLine(generator, iterator.next(), writtenBefore + ++count);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return count;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void writeLine(JsonGenerator generator, MessageDto message, long lineNumber) throws IOException {
+        lineWriter.writeValue(generator, message);
+        generator.writeRaw('\n');
+        exported.increment();
+        if (lineNumber % flushEvery == 0) {
+            generator.flush();
+        }
+    }
+
+    private JsonGenerator newGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // Lines are separated by the newline written after each value, not the default space
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+}
@@ -0,0 +1,168 @@
+package com.chatapp.service;
+
+import com.chatapp.archive.MessageArchive;
+import com.chatapp.model.Message;
+import com.chatapp.payload.response.MessageDto;
+import com.chatapp.payload.response.MessagePage;
+import com.chatapp.repository.MessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cursor-paginated message history. Pages are always returned oldest first; the cursor is a message id.
+ * Room history continues from the messages table into {@link MessageArchive}, which holds every
+ * message of the room up to its last archived id. Database reads run in read-only transactions, so
+ * they are served by a read replica when one is configured.
+ */
+@Service
+public class MessageHistoryService {
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private RecentMessageCache recentMessageCache;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private ChatLookupCache chatLookupCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${chat.history.max-page-size:200}")
+    private int maxPageSize;
+
+    private TransactionTemplate replicaRead;
+    private TransactionTemplate primaryRead;
+
+    @PostConstruct
+    public void init() {
+        replicaRead = new TransactionTemplate(transactionManager);
+        replicaRead.setReadOnly(true);
+        primaryRead = new TransactionTemplate(transactionManager);
+    }
+
+    public MessagePage getRoomHistory(Long roomId, Long before, Long after, int limit) {
+        if (before != null && after != null) {
+            throw new IllegalArgumentException("Use either 'before' or 'after', not both");
+        }
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        // One extra row tells us whether another page exists without counting
+        PageRequest window = PageRequest.of(0, pageSize + 1);
+
+        if (after != null) {
+            List<MessageDto> rows;
+            if (messageArchive.isArchived(roomId, after)) {
+                rows = messageArchive.after(roomId, after, pageSize + 1);
+                if (rows.size() <= pageSize) {
+                    PageRequest rest = PageRequest.of(0, pageSize + 1 - rows.size());
+                    rows.addAll(withoutArchived(roomId, replicaRead.execute(
+                            status -> messageRepository.findRoomHistoryEarliest(roomId, rest))));
+                }
+            } else {
+                rows = replicaRead.execute(
+                        status -> messageRepository.findRoomHistoryAfter(roomId, cursorSentAt(after), after, window));
+            }
+            boolean hasMore = rows.size() > pageSize;
+            List<MessageDto> page = hasMore ? rows.subList(0, pageSize) : rows;
+            Long nextCursor = page.isEmpty() ? after : page.get(page.size() - 1).getId();
+            return new MessagePage(new ArrayList<>(page), nextCursor, hasMore);
+        }
+
+        if (before != null) {
+            if (messageArchive.isArchived(roomId, before)) {
+                return newestFirstToPage(messageArchive.before(roomId, before, pageSize + 1), pageSize);
+            }
+            List<MessageDto> rows = replicaRead.execute(
+                    status -> messageRepository.findRoomHistoryBefore(roomId, cursorSentAt(before), before, window));
+            return newestFirstToPage(withArchive(roomId, rows, pageSize), pageSize);
+        }
+
+        // Unknown room ids are not cached, so requests for made-up rooms cannot fill the cache
+        if (!recentMessageCache.canServe(pageSize) || !chatLookupCache.roomExists(roomId)) {
+            List<MessageDto> rows = replicaRead.execute(status -> messageRepository.findRoomHistoryLatest(roomId, window));
+            return newestFirstToPage(withArchive(roomId, rows, pageSize), pageSize);
+        }
+        MessagePage cached = recentMessageCache.getLatest(roomId, pageSize);
+        if (cached == null) {
+            // Warm the whole ring, not just this page, so the next reader of the room is served from memory.
+            // Read from the primary: a replica could miss messages already appended to the ring.
+            int capacity = recentMessageCache.getRoomCapacity();
+            List<MessageDto> rows = primaryRead.execute(
+                    status -> messageRepository.findRoomHistoryLatest(roomId, PageRequest.of(0, capacity + 1)));
+            boolean truncated = rows.size() > capacity;
+            cached = recentMessageCache.warm(roomId, truncated ? rows.subList(0, capacity) : rows, truncated, pageSize);
+        }
+        if (cached.isHasMore() || !messageArchive.hasRoom(roomId)) {
+            return cached;
+        }
+        List<MessageDto> rows = new ArrayList<>(cached.getMessages());
+        Collections.reverse(rows);
+        return newestFirstToPage(withArchive(roomId, rows, pageSize), pageSize);
+    }
+
+    @Transactional(readOnly = true)
+    public MessagePage getConversationHistory(Long userId, Long otherUserId, Long before, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        PageRequest window = PageRequest.of(0, pageSize + 1);
+        String conversationKey = Message.conversationKey(userId, otherUserId);
+        List<MessageDto> rows = before != null
+                ? messageRepository.findConversationBefore(conversationKey, before, window)
+                : messageRepository.findConversationLatest(conversationKey, window);
+        return newestFirstToPage(rows, pageSize);
+    }
+
+    /**
+     * Completes a newest-first page from the database that ran out of rows with the newest archived
+     * messages, so a client paging backwards crosses into the archive without noticing.
+     */
+    private List<MessageDto> withArchive(Long roomId, List<MessageDto> newestFirst, int pageSize) {
+        if (!messageArchive.hasRoom(roomId)) {
+            return newestFirst;
+        }
+        List<MessageDto> rows = withoutArchived(roomId, newestFirst);
+        if (rows.size() <= pageSize) {
+            rows.addAll(messageArchive.before(roomId, Long.MAX_VALUE, pageSize + 1 - rows.size()));
+        }
+        return rows;
+    }
+
+    // Rows of a chunk that is already sealed but not yet deleted from the database are read from the archive
+    private List<MessageDto> withoutArchived(Long roomId, List<MessageDto> rows) {
+        long lastArchivedId = messageArchive.lastArchivedId(roomId);
+        List<MessageDto> kept = new ArrayList<>(rows.size());
+        for (MessageDto row : rows) {
+            if (row.getId() > lastArchivedId) {
+                kept.add(row);
+            }
+        }
+        return kept;
+    }
+
+    private static MessagePage newestFirstToPage(List<MessageDto> rows, int pageSize) {
+        boolean hasMore = rows.size() > pageSize;
+        List<MessageDto> page = new ArrayList<>(hasMore ? rows.subList(0, pageSize) : rows);
+        Collections.reverse(page);
+        Long nextCursor = hasMore ? page.get(0).getId() : null;
+        return new MessagePage(page, nextCursor, hasMore);
+    }
+
+    private LocalDateTime cursorSentAt(Long messageId) {
+        return messageRepository.findSentAtById(messageId)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown cursor: " + messageId));
+    }
+}
@@ -0,0 +1,304 @@
+package com.chatapp.service;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.id.SnowflakeIdGenerator;
+import com.chatapp.repository.MessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Persists chat messages either synchronously through JPA or, in write-behind mode,
+ * through a bounded queue drained by a dedicated writer thread that issues batched inserts.
+ */
+@Service
+public class MessagePersistenceService {
+    private static final Logger logger = LoggerFactory.getLogger(MessagePersistenceService.class);
+
+    private static final String INSERT_SQL =
+            "INSERT INTO messages (id, sender_id, receiver_id, chat_room_id, conversation_key, content, sent_at, is_read, " +
+            "attachment_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    public enum Mode {
+        SYNC,
+        WRITE_BEHIND
+    }
+
+    public enum AckPolicy {
+        // Return as soon as the message is queued; a crash loses whatever is still queued
+        ON_ENQUEUE,
+        // Block the caller until the batch containing the message has committed
+        ON_FLUSH
+    }
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.id.node-id:0}")
+    private long nodeId;
+
+    @Value("${chat.persistence.mode:SYNC}")
+    private Mode mode;
+
+    @Value("${chat.persistence.write-behind.ack-policy:ON_ENQUEUE}")
+    private AckPolicy ackPolicy;
+
+    @Value("${chat.persistence.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${chat.persistence.write-behind.batch-size:500}")
+    private int batchSize;
+
+    @Value("${chat.persistence.write-behind.poll-interval-ms:50}")
+    private long pollIntervalMs;
+
+    @Value("${chat.persistence.write-behind.offer-timeout-ms:100}")
+    private long offerTimeoutMs;
+
+    @Value("${chat.persistence.write-behind.ack-timeout-ms:5000}")
+    private long ackTimeoutMs;
+
+    private SnowflakeIdGenerator idGenerator;
+    private BlockingQueue<PendingMessage> queue;
+    private TransactionTemplate transactionTemplate;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    private Timer flushTimer;
+    private DistributionSummary batchSizeSummary;
+    private Counter overflowCounter;
+    private Counter failedCounter;
+
+    @PostConstruct
+    public void init() {
+        idGenerator = SnowflakeIdGenerator.forNode(nodeId);
+        if (mode != Mode.WRITE_BEHIND) {
+            logger.info("Message persistence running in {} mode", mode);
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        Gauge.builder("chat.persistence.queue.depth", queue, BlockingQueue::size)
+                .description("Messages accepted but not yet flushed to the database")
+                .register(meterRegistry);
+        flushTimer = Timer.builder("chat.persistence.flush")
+                .description("Latency of one batched insert into the messages table")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("chat.persistence.batch.size")
+                .register(meterRegistry);
+        overflowCounter = Counter.builder("chat.persistence.overflow")
+                .description("Messages persisted on the caller thread because the queue was full")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("chat.persistence.failed")
+                .description("Messages that could not be written by the background writer")
+                .register(meterRegistry);
+
+        running = true;
+        writerThread = new Thread(this::runWriter, "message-writer");
+        writerThread.start();
+        logger.info("Message persistence running in WRITE_BEHIND mode (capacity={}, batchSize={}, ackPolicy={})",
+                queueCapacity, batchSize, ackPolicy);
+    }
+
+    public void persist(Message message) {
+        if (!running) {
+            messageRepository.save(message);
+            return;
+        }
+
+        // Same generator the JPA mapping uses, so ids stay unique whichever path writes the row
+        message.setId(idGenerator.nextId());
+        PendingMessage pending = new PendingMessage(message, ackPolicy == AckPolicy.ON_FLUSH);
+        try {
+            if (!queue.offer(pending, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                // Backpressure: the writer is behind, so the caller pays for its own insert. It goes
+                // through the writer's insert rather than save(), which would merge the entity that
+                // already has an id and store it under a newly generated one
+                overflowCounter.increment();
+                logger.warn("Write-behind queue full, persisting message synchronously");
+                transactionTemplate.executeWithoutResult(status -> insertBatch(List.of(pending)));
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing message", e);
+        }
+
+        if (pending.ack != null) {
+            awaitAck(pending);
+        }
+    }
+
+    private void awaitAck(PendingMessage pending) {
+        try {
+            pending.ack.get(ackTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for message flush", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Message could not be persisted", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out waiting for message flush", e);
+        }
+    }
+
+    private void runWriter() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(pollIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("Unexpected error in message writer: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+        logger.info("Message writer stopped");
+    }
+
+    private void flush(List<PendingMessage> batch) {
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> insertBatch(batch));
+            batch.forEach(PendingMessage::complete);
+        } catch (Exception e) {
+            logger.warn("Batch insert of {} messages failed, retrying row by row: {}", batch.size(), e.getMessage());
+            for (PendingMessage pending : batch) {
+                try {
+                    insertBatch(List.of(pending));
+                    pending.complete();
+                } catch (Exception rowError) {
+                    failedCounter.increment();
+                    logger.error("Dropping message {} from user {}: {}", pending.message.getId(),
+                            pending.message.getSender().getId(), rowError.getMessage());
+                    pending.fail(rowError);
+                }
+            }
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchSizeSummary.record(batch.size());
+        }
+    }
+
+    private void insertBatch(List<PendingMessage> batch) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Message message = batch.get(i).message;
+                ps.setLong(1, message.getId());
+                ps.setLong(2, message.getSender().getId());
+                if (message.getReceiver() != null) {
+                    ps.setLong(3, message.getReceiver().getId());
+                } else {
+                    ps.setNull(3, Types.BIGINT);
+                }
+                if (message.getChatRoom() != null) {
+                    ps.setLong(4, message.getChatRoom().getId());
+                } else {
+                    ps.setNull(4, Types.BIGINT);
+                }
+                ps.setString(5, message.getConversationKey());
+                ps.setString(6, message.getContent());
+                ps.setTimestamp(7, Timestamp.valueOf(message.getSentAt()));
+                ps.setBoolean(8, message.isRead());
+                if (message.getAttachmentId() != null) {
+                    ps.setLong(9, message.getAttachmentId());
+                } else {
+                    ps.setNull(9, Types.BIGINT);
+                }
+            }
+
+            @Override
+            public int getBatchSize() {
+                return batch.size();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        logger.info("Draining {} queued messages before shutdown", queue.size());
+        // The writer exits once it observes running == false and the queue is empty
+        running = false;
+        writerThread.join();
+
+        // Anything offered while the writer was exiting
+        List<PendingMessage> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            flush(remaining);
+        }
+    }
+
+    private static final class PendingMessage {
+        private final Message message;
+        private final CompletableFuture<Void> ack;
+
+        private PendingMessage(Message message, boolean needsAck) {
+            this.message = message;
+            this.ack = needsAck ? new CompletableFuture<>() : null;
+        }
+
+        private void complete() {
+            if (ack != null) {
+                ack.complete(null);
+            }
+        }
+
+        private void fail(Exception e) {
+            if (ack != null) {
+                ack.completeExceptionally(e);
+            }
+        }
+    }
+}
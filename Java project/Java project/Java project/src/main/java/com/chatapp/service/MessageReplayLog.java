@@ -0,0 +1,177 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.payload.request.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Gives every room and private conversation ("scope") a gap-free sequence number and keeps the
+ * newest messages of each scope, so a reconnecting client can be sent exactly what it missed.
+ * A scope's first sequence number is derived from the clock, so numbers keep growing across
+ * restarts and evictions; a client whose last sequence is older than the log is told to resync.
+ * Scopes are evicted least recently used. Sequences are only meaningful on a single node.
+ */
+@Component
+public class MessageReplayLog {
+    private static final Logger logger = LoggerFactory.getLogger(MessageReplayLog.class);
+
+    // Leaves room for 1000 messages per millisecond of downtime while staying below 2^53 for JS clients
+    private static final long SEQ_PER_MILLI = 1000;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.replay.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private WebSocketConfig.BrokerMode brokerMode;
+
+    @Value("${chat.replay.capacity:100}")
+    private int capacity;
+
+    @Value("${chat.replay.max-scopes:2000}")
+    private int maxScopes;
+
+    // Access-ordered, so iteration starts at the least recently used scope
+    private final LinkedHashMap<String, ScopeLog> scopes = new LinkedHashMap<>(256, 0.75f, true);
+
+    private Counter replayed;
+    private Counter resyncs;
+
+    @PostConstruct
+    public void init() {
+        if (enabled && brokerMode != WebSocketConfig.BrokerMode.SIMPLE) {
+            // Every node would number the same room independently
+            logger.warn("Message replay disabled: broker mode {} runs more than one node", brokerMode);
+            enabled = false;
+        }
+        replayed = meterRegistry.counter("chat.replay.messages");
+        resyncs = meterRegistry.counter("chat.replay.resyncs");
+        Gauge.builder("chat.replay.scopes", this, log -> log.size()).register(meterRegistry);
+    }
+
+    public static String roomScope(Long roomId) {
+        return "room:" + roomId;
+    }
+
+    public static String conversationScope(String conversationKey) {
+        return "dm:" + conversationKey;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Numbers the message and runs {@code send} while holding the scope, so messages of one scope
+     * are sent in sequence order whichever thread handles them.
+     */
+    public void append(String scope, ChatMessage message, Runnable send) {
+        if (!enabled) {
+            send.run();
+            return;
+        }
+        ScopeLog log = scope(scope);
+        synchronized (log) {
+            message.setSeq(log.add(message));
+            send.run();
+        }
+    }
+
+    /**
+     * Messages of a scope numbered after {@code lastSeq}, or null when some of them are no longer
+     * held and the client has to reload the scope from the history API.
+     */
+    public List<ChatMessage> since(String scope, long lastSeq) {
+        ScopeLog log;
+        synchronized (this) {
+            log = scopes.get(scope);
+        }
+        List<ChatMessage> missed;
+        if (log == null) {
+            missed = null;
+        } else {
+            synchronized (log) {
+                missed = log.since(lastSeq);
+            }
+        }
+        if (missed == null) {
+            resyncs.increment();
+        } else {
+            replayed.increment(missed.size());
+        }
+        return missed;
+    }
+
+    public synchronized int size() {
+        return scopes.size();
+    }
+
+    private synchronized ScopeLog scope(String scope) {
+        ScopeLog log = scopes.get(scope);
+        if (log == null) {
+            log = new ScopeLog(capacity, System.currentTimeMillis() * SEQ_PER_MILLI);
+            scopes.put(scope, log);
+            Iterator<ScopeLog> eldest = scopes.values().iterator();
+            while (scopes.size() > maxScopes) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return log;
+    }
+
+    private static final class ScopeLog {
+        private final ChatMessage[] ring;
+        private int head; // index of the oldest entry
+        private int size;
+        private long lastSeq;
+
+        private ScopeLog(int capacity, long firstSeq) {
+            this.ring = new ChatMessage[capacity];
+            this.lastSeq = firstSeq - 1;
+        }
+
+        private long add(ChatMessage message) {
+            long seq = ++lastSeq;
+            if (size == ring.length) {
+                ring[head] = message;
+                head = (head + 1) % ring.length;
+            } else {
+                ring[(head + size) % ring.length] = message;
+                size++;
+            }
+            return seq;
+        }
+
+        private List<ChatMessage> since(long seq) {
+            if (seq == lastSeq) {
+                return new ArrayList<>();
+            }
+            // Ahead of the log means the number came from before a restart or eviction
+            if (seq > lastSeq || seq < lastSeq - size) {
+                return null;
+            }
+            int count = (int) (lastSeq - seq);
+            List<ChatMessage> missed = new ArrayList<>(count);
+            for (int i = size - count; i < size; i++) {
+                missed.add(ring[(head + i) % ring.length]);
+            }
+            return missed;
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.model.Message;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process inverted index over message content. Each message becomes a document numbered in
+ * arrival order, so higher numbers are newer; every word of the content and the message's room or
+ * conversation ("scope") are terms pointing at it. A search intersects the posting lists of the
+ * query words and the scope from the newest document backwards, so results come out newest first
+ * and a query stops as soon as it has enough hits. Only message ids are held; content is read from
+ * the database for the hits.
+ * <p>
+ * Posting lists are delta-encoded varints in blocks of 128 documents with the first document of
+ * each block kept aside for skipping. New messages are queued by {@link #index(Message)} and added
+ * by a single indexer thread, which at startup first rebuilds the index from the messages table.
+ * Results are partial until that rebuild is done. Only messages sent through this node are added
+ * as they arrive, so the index is switched off when the broker mode runs more than one node.
+ */
+@Service
+public class MessageSearchIndex {
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchIndex.class);
+
+    private static final String REBUILD_SQL =
+            "SELECT id, chat_room_id, conversation_key, sender_id, receiver_id, content FROM messages " +
+            "WHERE id > ? ORDER BY id LIMIT ?";
+
+    private static final int BLOCK_SIZE = 128;
+    private static final int DOC_PAGE_BITS = 16;
+    private static final int MAX_TERM_LENGTH = 40;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.search.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private WebSocketConfig.BrokerMode brokerMode;
+
+    @Value("${chat.search.queue-capacity:100000}")
+    private int queueCapacity;
+
+    @Value("${chat.search.rebuild.chunk-size:5000}")
+    private int rebuildChunkSize;
+
+    @Value("${chat.search.max-results:100}")
+    private int maxResults;
+
+    @Value("${chat.search.max-query-terms:8}")
+    private int maxQueryTerms;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private long[][] messageIds = new long[16][];
+    private int documents;
+
+    private BlockingQueue<Document> queue;
+    private Thread indexerThread;
+    private volatile boolean running;
+
+    private Timer queryTimer;
+    private Counter droppedCounter;
+
+    @PostConstruct
+    public void init() {
+        if (enabled && brokerMode != WebSocketConfig.BrokerMode.SIMPLE) {
+            // Messages sent through other nodes would never be indexed here
+            logger.warn("Message search disabled: broker mode {} runs more than one node", brokerMode);
+            enabled = false;
+        }
+        if (!enabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        queryTimer = Timer.builder("chat.search.query")
+                .description("Latency of one message search against the in-memory index")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("chat.search.dropped")
+                .description("Messages not indexed because the indexer queue was full")
+                .register(meterRegistry);
+        Gauge.builder("chat.search.documents", this, index -> index.documentCount()).register(meterRegistry);
+        Gauge.builder("chat.search.terms", this, index -> index.termCount()).register(meterRegistry);
+        Gauge.builder("chat.search.bytes", this, index -> index.footprintBytes())
+                .description("Approximate heap used by the search index")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        indexerThread = new Thread(this::runIndexer, "message-search-indexer");
+        indexerThread.setDaemon(true);
+        indexerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (indexerThread != null) {
+            indexerThread.interrupt();
+        }
+    }
+
+    public static String roomScope(Long roomId) {
+        return "room:" + roomId;
+    }
+
+    public static String conversationScope(String conversationKey) {
+        return "dm:" + conversationKey;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a persisted message for indexing. Never blocks; a message that does not fit in the
+     * queue is only searchable after the next restart.
+     */
+    public void index(Message message) {
+        if (!enabled || message.getId() == null) {
+            return;
+        }
+        String scope = message.getChatRoom() != null
+                ? roomScope(message.getChatRoom().getId())
+                : conversationScope(message.getConversationKey());
+        if (!queue.offer(new Document(message.getId(), scope, message.getContent()))) {
+            droppedCounter.increment();
+        }
+    }
+
+    /**
+     * Ids of the newest messages in the scope that contain every word of the query, newest first.
+     *
+     * @throws IllegalArgumentException if the query has more words than allowed
+     */
+    public List<Long> search(String scope, String query, int limit) {
+        Set<String> terms = terms(query);
+        if (terms.size() > maxQueryTerms) {
+            throw new IllegalArgumentException("Queries are limited to " + maxQueryTerms + " words");
+        }
+        if (!enabled || terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        terms.add(scope);
+        int wanted = Math.max(1, Math.min(limit, maxResults));
+        long started = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return matchNewestFirst(terms, wanted);
+        } finally {
+            lock.readLock().unlock();
+            queryTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Lower-cased runs of letters and digits; longer runs than MAX_TERM_LENGTH (links, base64) are skipped.
+     */
+    static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                term.appendCodePoint(Character.toLowerCase(codePoint));
+            } else {
+                if (term.length() > 0 && term.length() <= MAX_TERM_LENGTH) {
+                    terms.add(term.toString());
+                }
+                term.setLength(0);
+            }
+            i += Character.charCount(codePoint);
+        }
+        return terms;
+    }
+
+    private void runIndexer() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            logger.error("Search index rebuild failed; only new messages will be searchable", e);
+        }
+
+        List<Document> batch = new ArrayList<>();
+        while (running) {
+            try {
+                Document first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, 1023);
+                add(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                logger.error("Failed to index {} messages", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Walks the messages table in id order. Messages sent meanwhile wait until the walk is done, so
+     * documents stay in id order; ids that turn up both ways are indexed once.
+     */
+    private void rebuild() {
+        long started = System.currentTimeMillis();
+        Long newestAtStart = jdbcTemplate.queryForObject("SELECT MAX(id) FROM messages", Long.class);
+        long cutoff = newestAtStart != null ? newestAtStart : Long.MIN_VALUE;
+
+        List<Document> deferred = new ArrayList<>();
+        Set<Long> deferredIds = new HashSet<>();
+        Set<Long> scannedAfterCutoff = new HashSet<>();
+        List<Document> arrived = new ArrayList<>();
+        long lastId = Long.MIN_VALUE;
+        int scanned = 0;
+        while (running) {
+            List<Document> chunk = jdbcTemplate.query(REBUILD_SQL, this::mapRow, lastId, rebuildChunkSize);
+            queue.drainTo(arrived);
+            for (Document document : arrived) {
+                deferred.add(document);
+                deferredIds.add(document.messageId);
+            }
+            arrived.clear();
+
+            List<Document> fresh = new ArrayList<>(chunk.size());
+            for (Document document : chunk) {
+                if (deferredIds.contains(document.messageId)) {
+                    continue;
+                }
+                if (document.messageId > cutoff) {
+                    scannedAfterCutoff.add(document.messageId);
+                }
+                fresh.add(document);
+            }
+            add(fresh);
+            scanned += chunk.size();
+            if (chunk.size() < rebuildChunkSize) {
+                break;
+            }
+            lastId = chunk.get(chunk.size() - 1).messageId;
+        }
+
+        queue.drainTo(deferred);
+        deferred.removeIf(document -> scannedAfterCutoff.contains(document.messageId));
+        add(deferred);
+        logger.info("Search index rebuilt from {} messages in {} ms: {} terms, ~{} MiB", scanned,
+                System.currentTimeMillis() - started, termCount(), footprintBytes() / (1024 * 1024));
+    }
+
+    private Document mapRow(ResultSet row, int rowNum) throws SQLException {
+        long id = row.getLong(1);
+        long roomId = row.getLong(2);
+        String scope;
+        if (!row.wasNull()) {
+            scope = roomScope(roomId);
+        } else {
+            String conversationKey = row.getString(3);
+            // Rows written before conversation_key existed may not be backfilled yet
+            scope = conversationScope(conversationKey != null
+                    ? conversationKey : Message.conversationKey(row.getLong(4), row.getLong(5)));
+        }
+        return new Document(id, scope, row.getString(6));
+    }
+
+    // Tokenizes outside the lock; only the appends hold it
+    private void add(List<Document> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Set<String>> batchTerms = new ArrayList<>(batch.size());
+        for (Document document : batch) {
+            Set<String> terms = terms(document.content);
+            terms.add(document.scope);
+            batchTerms.add(terms);
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                int doc = appendDocument(batch.get(i).messageId);
+                for (String term : batchTerms.get(i)) {
+                    postings.computeIfAbsent(term, t -> new PostingList()).add(doc);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int appendDocument(long messageId) {
+        int doc = documents;
+        int page = doc >>> DOC_PAGE_BITS;
+        if (page == messageIds.length) {
+            messageIds = Arrays.copyOf(messageIds, page * 2);
+        }
+        if (messageIds[page] == null) {
+            messageIds[page] = new long[1 << DOC_PAGE_BITS];
+        }
+        messageIds[page][doc & ((1 << DOC_PAGE_BITS) - 1)] = messageId;
+        documents++;
+        return doc;
+    }
+
+    private long messageIdOf(int doc) {
+        return messageIds[doc >>> DOC_PAGE_BITS][doc & ((1 << DOC_PAGE_BITS) - 1)];
+    }
+
+    private List<Long> matchNewestFirst(Set<String> terms, int limit) {
+        List<PostingList> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return new ArrayList<>();
+            }
+            lists.add(list);
+        }
+        List<Long> hits = new ArrayList<>(limit);
+        for (int doc : intersectNewestFirst(lists, limit)) {
+            hits.add(messageIdOf(doc));
+        }
+        return hits;
+    }
+
+    // Leapfrog intersection: every cursor is moved to the newest document at or below the candidate
+    // until all of them agree, starting from the shortest list
+    static List<Integer> intersectNewestFirst(List<PostingList> lists, int limit) {
+        List<PostingList> sorted = new ArrayList<>(lists);
+        sorted.sort(Comparator.comparingInt(list -> list.size));
+        Cursor[] cursors = new Cursor[sorted.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = new Cursor(sorted.get(i));
+        }
+
+        List<Integer> docs = new ArrayList<>(limit);
+        int candidate = cursors[0].floor(Integer.MAX_VALUE);
+        while (candidate >= 0 && docs.size() < limit) {
+            int agreed = 1;
+            for (int i = 1 % cursors.length; agreed < cursors.length; i = (i + 1) % cursors.length) {
+                int doc = cursors[i].floor(candidate);
+                if (doc < 0) {
+                    return docs;
+                }
+                if (doc == candidate) {
+                    agreed++;
+                } else {
+                    candidate = doc;
+                    agreed = 1;
+                }
+            }
+            docs.add(candidate);
+            candidate = candidate > 0 ? cursors[0].floor(candidate - 1) : -1;
+        }
+        return docs;
+    }
+
+    private int documentCount() {
+        lock.readLock().lock();
+        try {
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate bytes held by the index: the term dictionary, the posting lists and the
+     * document-to-message-id table.
+     */
+    public long footprintBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 16L + 8L * messageIds.length;
+            for (long[] page : messageIds) {
+                bytes += page != null ? 16L + 8L * page.length : 0;
+            }
+            // Hash table slot plus entry object per term
+            bytes += 16L + 4L * Integer.highestOneBit(Math.max(1, postings.size()) * 2) + 32L * postings.size();
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                // String object plus its Latin-1 (or UTF-16) value array
+                bytes += 24 + 16 + entry.getKey().length() * 2L;
+                bytes += entry.getValue().footprintBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static final class Document {
+        private final long messageId;
+        private final String scope;
+        private final String content;
+
+        private Document(long messageId, String scope, String content) {
+            this.messageId = messageId;
+            this.scope = scope;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Ascending document numbers of one term. Full blocks are sealed into {@code data} as varint
+     * gaps after their first document, which is kept in {@code blockFirst}; the newest documents sit
+     * uncompressed in {@code tail}, which starts small since most terms are rare.
+     */
+    static final class PostingList {
+        private int[] tail = new int[2];
+        private int tailSize;
+        private int[] blockFirst;
+        private int[] blockOffset;
+        private int blocks;
+        private byte[] data;
+        private int dataLength;
+        private int size;
+        private int lastDoc = -1;
+
+        void add(int doc) {
+            // A term repeated in one message is posted once
+            if (doc == lastDoc) {
+                return;
+            }
+            if (tailSize == tail.length) {
+                if (tailSize == BLOCK_SIZE) {
+                    seal();
+                } else {
+                    tail = Arrays.copyOf(tail, Math.min(tail.length * 2, BLOCK_SIZE));
+                }
+            }
+            tail[tailSize++] = doc;
+            lastDoc = doc;
+            size++;
+        }
+
+        private void seal() {
+            if (blockFirst == null) {
+                blockFirst = new int[4];
+                blockOffset = new int[4];
+                data = new byte[BLOCK_SIZE * 2];
+            } else if (blocks == blockFirst.length) {
+                blockFirst = Arrays.copyOf(blockFirst, blocks * 2);
+                blockOffset = Arrays.copyOf(blockOffset, blocks * 2);
+            }
+            blockFirst[blocks] = tail[0];
+            blockOffset[blocks] = dataLength;
+            blocks++;
+            for (int i = 1; i < BLOCK_SIZE; i++) {
+                // Up to five bytes per gap
+                if (dataLength + 5 > data.length) {
+                    data = Arrays.copyOf(data, data.length + (data.length >> 1) + 5);
+                }
+                int gap = tail[i] - tail[i - 1];
+                while ((gap & ~0x7F) != 0) {
+                    data[dataLength++] = (byte) ((gap & 0x7F) | 0x80);
+                    gap >>>= 7;
+                }
+                data[dataLength++] = (byte) gap;
+            }
+            tailSize = 0;
+        }
+
+        private void decodeBlock(int block, int[] into) {
+            int doc = blockFirst[block];
+            into[0] = doc;
+            int offset = blockOffset[block];
+            for (int i = 1; i < BLOCK_SIZE; i++) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[offset++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += gap;
+                into[i] = doc;
+            }
+        }
+
+        long footprintBytes() {
+            long bytes = 48 + 16 + 4L * tail.length;
+            if (blockFirst != null) {
+                bytes += 2 * (16 + 4L * blockFirst.length) + 16 + data.length;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Walks one posting list from the newest document backwards. Segments are the sealed blocks
+     * followed by the tail; only the segment under the cursor is decoded.
+     */
+    static final class Cursor {
+        private final PostingList list;
+        private final int[] decoded = new int[BLOCK_SIZE];
+        private int segment;
+        private int[] docs;
+        private int position;
+
+        Cursor(PostingList list) {
+            this.list = list;
+            this.segment = list.tailSize > 0 ? list.blocks : list.blocks - 1;
+            if (segment >= 0) {
+                load(segment);
+            }
+        }
+
+        /**
+         * The newest document at or below {@code target}, or -1; targets must not increase.
+         */
+        int floor(int target) {
+            if (segment < 0) {
+                return -1;
+            }
+            if (docs[0] > target) {
+                // Last block that starts at or below the target
+                int low = 0;
+                int high = segment - 1;
+                int found = -1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    if (list.blockFirst[mid] <= target) {
+                        found = mid;
+                        low = mid + 1;
+                    } else {
+                        high = mid - 1;
+                    }
+                }
+                segment = found;
+                if (found < 0) {
+                    return -1;
+                }
+                load(found);
+            }
+            while (docs[position] > target) {
+                position--;
+            }
+            return docs[position];
+        }
+
+        private void load(int segment) {
+            if (segment == list.blocks) {
+                docs = list.tail;
+                position = list.tailSize - 1;
+            } else {
+                list.decodeBlock(segment, decoded);
+                docs = decoded;
+                position = BLOCK_SIZE - 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.payload.response.PresenceUpdate;
+import com.chatapp.security.services.UserDetailsImpl;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.security.Principal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks which users have an open STOMP session, and which rooms they are subscribed to, from the
+ * session lifecycle events. A user stays online until their last session closes. Changes are not
+ * sent as they happen: the latest state per user is collected and published to /topic/presence once
+ * per broadcast interval, and is_online/last_login are written back to the users table in one batch
+ * per flush interval. The maps only cover sessions connected to this node, so presence is switched
+ * off unless chat.broker.mode is SIMPLE: another node would mark a user offline while they are still
+ * connected elsewhere.
+ */
+@Service
+public class PresenceService {
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+
+    private static final String ROOM_TOPIC_PREFIX = "/topic/room.";
+
+    private static final String UPDATE_SQL =
+            "UPDATE users SET is_online = ?, last_login = COALESCE(?, last_login) WHERE id = ?";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private WebSocketConfig.BrokerMode brokerMode;
+
+    @Value("${chat.presence.broadcast-interval-ms:1000}")
+    private long broadcastIntervalMillis;
+
+    @Value("${chat.presence.flush-interval-ms:5000}")
+    private long flushIntervalMillis;
+
+    // Username -> open sessions of that user
+    private final ConcurrentMap<String, UserPresence> online = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SessionState> sessions = new ConcurrentHashMap<>();
+    // Room id -> username -> number of that user's subscriptions to the room topic
+    private final ConcurrentMap<Long, ConcurrentMap<String, Integer>> roomPresence = new ConcurrentHashMap<>();
+
+    // Latest unpublished state per username, and latest unwritten state per user id
+    private final ConcurrentMap<String, Boolean> pendingBroadcast = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, PresenceWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    private boolean enabled;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        enabled = brokerMode == WebSocketConfig.BrokerMode.SIMPLE;
+        if (!enabled) {
+            logger.warn("Presence tracking disabled: broker mode {} runs more than one node", brokerMode);
+            return;
+        }
+        Gauge.builder("chat.presence.online", online, Map::size)
+                .description("Users with at least one open WebSocket session on this node")
+                .register(meterRegistry);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::broadcastChanges,
+                broadcastIntervalMillis, broadcastIntervalMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::flushWrites,
+                flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Nobody is connected to a node that just started, so flags left behind by a crash are cleared.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resetStaleFlags() {
+        if (!enabled) {
+            return;
+        }
+        int cleared = jdbcTemplate.update("UPDATE users SET is_online = ? WHERE is_online = ?", false, true);
+        if (cleared > 0) {
+            logger.info("Cleared stale online flag of {} users", cleared);
+        }
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        UserDetailsImpl user = userOf(event.getUser());
+        String sessionId = StompHeaderAccessor.wrap(event.getMessage()).getSessionId();
+        if (user == null || sessionId == null) {
+            return;
+        }
+        sessions.put(sessionId, new SessionState(user.getUsername()));
+        boolean[] cameOnline = {false};
+        online.compute(user.getUsername(), (username, presence) -> {
+            if (presence == null) {
+                presence = new UserPresence(user.getId());
+                cameOnline[0] = true;
+            }
+            presence.sessionIds.add(sessionId);
+            return presence;
+        });
+        if (cameOnline[0]) {
+            changed(user.getUsername(), user.getId(), true);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        // Spring may publish more than one disconnect event per session; only the first finds it
+        SessionState session = sessions.remove(event.getSessionId());
+        if (session == null) {
+            return;
+        }
+        for (Long roomId : session.subscriptions.values()) {
+            leaveRoom(roomId, session.username);
+        }
+        Long[] wentOffline = {null};
+        online.computeIfPresent(session.username, (username, presence) -> {
+            presence.sessionIds.remove(event.getSessionId());
+            if (presence.sessionIds.isEmpty()) {
+                wentOffline[0] = presence.userId;
+                return null;
+            }
+            return presence;
+        });
+        if (wentOffline[0] != null) {
+            changed(session.username, wentOffline[0], false);
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        SessionState session = sessions.get(accessor.getSessionId());
+        Long roomId = roomIdOf(accessor.getDestination());
+        if (session == null || roomId == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        if (session.subscriptions.putIfAbsent(accessor.getSubscriptionId(), roomId) == null) {
+            roomPresence.computeIfAbsent(roomId, id -> new ConcurrentHashMap<>())
+                    .merge(session.username, 1, Integer::sum);
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        SessionState session = sessions.get(accessor.getSessionId());
+        if (session == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        Long roomId = session.subscriptions.remove(accessor.getSubscriptionId());
+        if (roomId != null) {
+            leaveRoom(roomId, session.username);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isOnline(String username) {
+        return online.containsKey(username);
+    }
+
+    public Set<String> getOnlineUsers() {
+        return new TreeSet<>(online.keySet());
+    }
+
+    /**
+     * Users currently subscribed to a room's topic, answered from memory.
+     */
+    public Set<String> getOnlineInRoom(Long roomId) {
+        Map<String, Integer> users = roomPresence.get(roomId);
+        return users == null ? new TreeSet<>() : new TreeSet<>(users.keySet());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        scheduler.shutdownNow();
+        // Sessions end with the node; record that instead of leaving the users online
+        for (UserPresence presence : online.values()) {
+            pendingWrites.put(presence.userId, new PresenceWrite(false, null));
+        }
+        flushWrites();
+    }
+
+    private void leaveRoom(Long roomId, String username) {
+        roomPresence.computeIfPresent(roomId, (id, users) -> {
+            users.computeIfPresent(username, (name, count) -> count > 1 ? count - 1 : null);
+            return users.isEmpty() ? null : users;
+        });
+    }
+
+    private void changed(String username, Long userId, boolean isOnline) {
+        pendingBroadcast.put(username, isOnline);
+        PresenceWrite write = new PresenceWrite(isOnline, isOnline ? LocalDateTime.now() : null);
+        pendingWrites.merge(userId, write, (older, newer) ->
+                newer.lastLogin != null ? newer : new PresenceWrite(newer.isOnline, older.lastLogin));
+    }
+
+    private void broadcastChanges() {
+        try {
+            List<String> cameOnline = new ArrayList<>();
+            List<String> wentOffline = new ArrayList<>();
+            for (Map.Entry<String, Boolean> change : pendingBroadcast.entrySet()) {
+                // Keep a state that changed again meanwhile for the next round
+                if (pendingBroadcast.remove(change.getKey(), change.getValue())) {
+                    (change.getValue() ? cameOnline : wentOffline).add(change.getKey());
+                }
+            }
+            if (!cameOnline.isEmpty() || !wentOffline.isEmpty()) {
+                messagingTemplate.convertAndSend("/topic/presence", new PresenceUpdate(cameOnline, wentOffline));
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to broadcast presence changes", e);
+        }
+    }
+
+    private void flushWrites() {
+        List<Object[]> batch = new ArrayList<>();
+        List<Map.Entry<Long, PresenceWrite>> taken = new ArrayList<>();
+        for (Map.Entry<Long, PresenceWrite> entry : pendingWrites.entrySet()) {
+            PresenceWrite write = entry.getValue();
+            if (pendingWrites.remove(entry.getKey(), write)) {
+                taken.add(Map.entry(entry.getKey(), write));
+                batch.add(new Object[]{write.isOnline,
+                        write.lastLogin != null ? Timestamp.valueOf(write.lastLogin) : null, entry.getKey()});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, batch);
+        } catch (RuntimeException e) {
+            logger.error("Failed to write presence of {} users, retrying next round", batch.size(), e);
+            // Newer states recorded meanwhile win over the ones being put back
+            for (Map.Entry<Long, PresenceWrite> entry : taken) {
+                pendingWrites.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static UserDetailsImpl userOf(Principal principal) {
+        if (principal instanceof Authentication
+                && ((Authentication) principal).getPrincipal() instanceof UserDetailsImpl) {
+            return (UserDetailsImpl) ((Authentication) principal).getPrincipal();
+        }
+        return null;
+    }
+
+    private static Long roomIdOf(String destination) {
+        if (destination == null || !destination.startsWith(ROOM_TOPIC_PREFIX)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(destination.substring(ROOM_TOPIC_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            // Sub-topics such as /topic/room.{id}.typing are not room presence
+            return null;
+        }
+    }
+
+    private static final class UserPresence {
+        private final Long userId;
+        // Only modified inside compute() on the owning map entry
+        private final Set<String> sessionIds = new HashSet<>();
+
+        private UserPresence(Long userId) {
+            this.userId = userId;
+        }
+    }
+
+    private static final class SessionState {
+        private final String username;
+        // Subscription id -> room id
+        private final ConcurrentMap<String, Long> subscriptions = new ConcurrentHashMap<>();
+
+        private SessionState(String username) {
+            this.username = username;
+        }
+    }
+
+    private static final class PresenceWrite {
+        private final boolean isOnline;
+        private final LocalDateTime lastLogin;
+
+        private PresenceWrite(boolean isOnline, LocalDateTime lastLogin) {
+            this.isOnline = isOnline;
+            this.lastLogin = lastLogin;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.payload.response.MessageDto;
+import com.chatapp.payload.response.MessagePage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bounded per-room ring buffers holding the newest messages of recently used rooms.
+ * Rooms are kept in LRU order and evicted once the estimated size of all buffers, including the
+ * fixed cost of an empty one, exceeds the global cap.
+ * A buffer only serves reads after it has been warmed from the database; messages written while a
+ * room is cold are buffered too and merged with the warm-up rows, so a slow writer cannot leave gaps.
+ * Buffers keep the history order (sent_at, then id): a message that arrives late is inserted where it
+ * belongs, and one that is already buffered is ignored.
+ */
+@Component
+public class RecentMessageCache {
+    private static final Logger logger = LoggerFactory.getLogger(RecentMessageCache.class);
+
+    private static final Comparator<MessageDto> CHRONOLOGICAL =
+            Comparator.comparing(MessageDto::getSentAt).thenComparing(MessageDto::getId);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.history.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private WebSocketConfig.BrokerMode brokerMode;
+
+    @Value("${chat.history.cache.room-capacity:50}")
+    private int roomCapacity;
+
+    @Value("${chat.history.cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    // Access-ordered, so iteration starts at the least recently used room
+    private final LinkedHashMap<Long, RoomBuffer> rooms = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    private Counter hits;
+    private Counter misses;
+    private Counter evictions;
+
+    @PostConstruct
+    public void init() {
+        if (enabled && brokerMode != WebSocketConfig.BrokerMode.SIMPLE) {
+            // Buffers only see messages sent through this node, so other nodes' messages would be missing
+            logger.warn("Recent message cache disabled: broker mode {} runs more than one node", brokerMode);
+            enabled = false;
+        }
+        hits = meterRegistry.counter("chat.history.cache.hits");
+        misses = meterRegistry.counter("chat.history.cache.misses");
+        evictions = meterRegistry.counter("chat.history.cache.evictions");
+        Gauge.builder("chat.history.cache.rooms", this, cache -> cache.size()).register(meterRegistry);
+        Gauge.builder("chat.history.cache.bytes", this, cache -> cache.bytes()).register(meterRegistry);
+    }
+
+    public boolean canServe(int limit) {
+        return enabled && limit <= roomCapacity;
+    }
+
+    public int getRoomCapacity() {
+        return roomCapacity;
+    }
+
+    /**
+     * Returns the newest {@code limit} messages of a room, or null when the room is not warm.
+     */
+    public MessagePage getLatest(Long roomId, int limit) {
+        synchronized (this) {
+            RoomBuffer buffer = rooms.get(roomId);
+            if (buffer != null && buffer.warm) {
+                hits.increment();
+                return buffer.tail(limit);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void append(Long roomId, MessageDto message) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            RoomBuffer buffer = buffer(roomId);
+            totalBytes += buffer.add(message);
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Installs rows loaded from the database, newest first as returned by the history query, and
+     * returns the newest {@code limit} messages of the merged buffer.
+     * {@code truncated} is true when the room holds more messages than were loaded.
+     */
+    public MessagePage warm(Long roomId, List<MessageDto> newestFirst, boolean truncated, int limit) {
+        synchronized (this) {
+            RoomBuffer buffer = buffer(roomId);
+            totalBytes += buffer.merge(newestFirst, truncated);
+            MessagePage page = buffer.tail(limit);
+            evictIfNeeded();
+            return page;
+        }
+    }
+
+    public void evict(Long roomId) {
+        synchronized (this) {
+            RoomBuffer buffer = rooms.remove(roomId);
+            if (buffer != null) {
+                totalBytes -= buffer.bytes;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return rooms.size();
+    }
+
+    public synchronized long bytes() {
+        return totalBytes;
+    }
+
+    private RoomBuffer buffer(Long roomId) {
+        RoomBuffer buffer = rooms.get(roomId);
+        if (buffer == null) {
+            buffer = new RoomBuffer(roomCapacity);
+            rooms.put(roomId, buffer);
+            totalBytes += buffer.bytes;
+        }
+        return buffer;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<RoomBuffer> eldest = rooms.values().iterator();
+        // Never evict the room that was just touched (the last entry)
+        while (totalBytes > maxBytes && rooms.size() > 1) {
+            RoomBuffer buffer = eldest.next();
+            eldest.remove();
+            totalBytes -= buffer.bytes;
+            evictions.increment();
+        }
+    }
+
+    static long estimateBytes(MessageDto message) {
+        long chars = length(message.getContent()) + length(message.getSender()) + length(message.getReceiver());
+        // Object headers, boxed ids and the LocalDateTime, plus two bytes per char
+        return 128 + 2 * chars;
+    }
+
+    // The ring array, the buffer object and its map entry with the boxed key
+    static long overheadBytes(int capacity) {
+        return 16 + 4L * capacity + 48 + 56;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static final class RoomBuffer {
+        private final MessageDto[] ring;
+        private int head; // index of the oldest entry
+        private int size;
+        private long bytes;
+        private boolean warm;
+        // True once the room is known to hold messages older than the buffer
+        private boolean truncated;
+
+        private RoomBuffer(int capacity) {
+            this.ring = new MessageDto[capacity];
+            this.bytes = overheadBytes(capacity);
+        }
+
+        private long add(MessageDto message) {
+            // Late arrivals are rare and recent, so the position is searched from the newest end
+            int position = size;
+            while (position > 0) {
+                MessageDto previous = at(position - 1);
+                if (previous.getId().equals(message.getId())) {
+                    return 0;
+                }
+                if (CHRONOLOGICAL.compare(previous, message) < 0) {
+                    break;
+                }
+                position--;
+            }
+            long before = bytes;
+            if (size == ring.length) {
+                truncated = true;
+                if (position == 0) {
+                    // Older than everything held; it is only reachable through the database
+                    return 0;
+                }
+                bytes -= estimateBytes(ring[head]);
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+                position--;
+            }
+            for (int i = size; i > position; i--) {
+                ring[(head + i) % ring.length] = at(i - 1);
+            }
+            ring[(head + position) % ring.length] = message;
+            size++;
+            bytes += estimateBytes(message);
+            return bytes - before;
+        }
+
+        private MessageDto at(int index) {
+            return ring[(head + index) % ring.length];
+        }
+
+        private long merge(List<MessageDto> newestFirst, boolean loadedTruncated) {
+            List<MessageDto> merged = new ArrayList<>(size + newestFirst.size());
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i < size; i++) {
+                MessageDto message = ring[(head + i) % ring.length];
+                if (seen.add(message.getId())) {
+                    merged.add(message);
+                }
+            }
+            for (MessageDto message : newestFirst) {
+                if (seen.add(message.getId())) {
+                    merged.add(message);
+                }
+            }
+            merged.sort(CHRONOLOGICAL);
+
+            long before = bytes;
+            boolean wasTruncated = truncated;
+            head = 0;
+            size = 0;
+            bytes = overheadBytes(ring.length);
+            for (MessageDto message : merged.subList(Math.max(0, merged.size() - ring.length), merged.size())) {
+                add(message);
+            }
+            truncated = wasTruncated || loadedTruncated || merged.size() > ring.length;
+            warm = true;
+            return bytes - before;
+        }
+
+        private MessagePage tail(int limit) {
+            int count = Math.min(limit, size);
+            List<MessageDto> page = new ArrayList<>(count);
+            for (int i = size - count; i < size; i++) {
+                page.add(ring[(head + i) % ring.length]);
+            }
+            boolean hasMore = size > count || truncated;
+            Long nextCursor = hasMore && !page.isEmpty() ? page.get(0).getId() : null;
+            return new MessagePage(page, nextCursor, hasMore);
+        }
+    }
+}
+
@@ -0,0 +1,193 @@
+package com.chatapp.service;
+
+import com.chatapp.payload.request.ChatMessage;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcasts room messages to /topic/room.{id}. Rooms opted in through chat.broadcast.batch.rooms
+ * get one JSON array frame per subscriber for all messages that arrive within the batching window,
+ * instead of one frame per message. A batch is sent once the room has been quiet for the window,
+ * once its first message has waited max-latency, or as soon as it holds max-size messages. A room's
+ * batch is dropped once it has nothing left to send, so only rooms with messages in flight hold one.
+ */
+@Service
+public class RoomBroadcastBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(RoomBroadcastBatcher.class);
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Room ids, or "*" for every room; empty disables batching
+    @Value("${chat.broadcast.batch.rooms:}")
+    private List<String> batchedRooms;
+
+    @Value("${chat.broadcast.batch.window-ms:15}")
+    private long windowMillis;
+
+    @Value("${chat.broadcast.batch.max-latency-ms:50}")
+    private long maxLatencyMillis;
+
+    @Value("${chat.broadcast.batch.max-size:100}")
+    private int maxSize;
+
+    private final ConcurrentMap<Long, RoomBatch> batches = new ConcurrentHashMap<>();
+
+    private boolean allRooms;
+    private Set<Long> roomIds;
+    private ScheduledExecutorService scheduler;
+    private DistributionSummary batchSize;
+
+    @PostConstruct
+    public void init() {
+        roomIds = new HashSet<>();
+        for (String room : batchedRooms) {
+            if (room.trim().equals("*")) {
+                allRooms = true;
+            } else if (!room.isBlank()) {
+                roomIds.add(Long.valueOf(room.trim()));
+            }
+        }
+        if (!allRooms && roomIds.isEmpty()) {
+            return;
+        }
+        batchSize = DistributionSummary.builder("chat.broadcast.batch.size")
+                .description("Messages per batched room broadcast frame")
+                .register(meterRegistry);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "room-broadcast-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Batching broadcasts for {} (window={}ms, maxLatency={}ms, maxSize={})",
+                allRooms ? "all rooms" : "rooms " + roomIds, windowMillis, maxLatencyMillis, maxSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            batches.values().forEach(RoomBatch::flush);
+        }
+    }
+
+    public void broadcast(Long roomId, ChatMessage message) {
+        if (!isBatched(roomId)) {
+            messagingTemplate.convertAndSend(destination(roomId), message);
+            return;
+        }
+        // A batch retired between the lookup and the add is already out of the map; the next lookup makes a new one
+        while (!batches.computeIfAbsent(roomId, RoomBatch::new).add(message)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Drops the room's batch; messages it still holds are sent when it falls due.
+     */
+    public void roomDeleted(Long roomId) {
+        RoomBatch batch = batches.get(roomId);
+        if (batch != null) {
+            batch.retire();
+        }
+    }
+
+    private boolean isBatched(Long roomId) {
+        return scheduler != null && (allRooms || roomIds.contains(roomId));
+    }
+
+    private static String destination(Long roomId) {
+        return "/topic/room." + roomId;
+    }
+
+    private final class RoomBatch {
+        private final Long roomId;
+        private List<ChatMessage> messages = new ArrayList<>();
+        private long firstAt;
+        private long lastAt;
+        private boolean flushScheduled;
+        private boolean retired;
+
+        private RoomBatch(Long roomId) {
+            this.roomId = roomId;
+        }
+
+        private synchronized boolean add(ChatMessage message) {
+            if (retired) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (messages.isEmpty()) {
+                firstAt = now;
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    scheduler.schedule(this::flushIfDue, windowMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            lastAt = now;
+            messages.add(message);
+            if (messages.size() >= maxSize) {
+                flush();
+            }
+            return true;
+        }
+
+        // Every batch ends here: a flush after max-size leaves this scheduled, and finds nothing to send
+        private synchronized void flushIfDue() {
+            flushScheduled = false;
+            if (!messages.isEmpty()) {
+                long now = System.currentTimeMillis();
+                // Still receiving: wait for a quiet window, but never past the latency cap
+                long due = Math.min(lastAt + windowMillis, firstAt + maxLatencyMillis);
+                if (due > now) {
+                    flushScheduled = true;
+                    scheduler.schedule(this::flushIfDue, due - now, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                flush();
+            }
+            retire();
+        }
+
+        private synchronized void retire() {
+            retired = true;
+            batches.remove(roomId, this);
+        }
+
+        // Sent while holding the lock so consecutive batches of a room cannot overtake each other
+        private synchronized void flush() {
+            if (messages.isEmpty()) {
+                return;
+            }
+            List<ChatMessage> batch = messages;
+            messages = new ArrayList<>();
+            batchSize.record(batch.size());
+            try {
+                messagingTemplate.convertAndSend(destination(roomId), batch);
+            } catch (RuntimeException e) {
+                logger.error("Failed to broadcast {} messages to room {}", batch.size(), roomId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.chatapp.service;
+
+import com.chatapp.config.ReadYourWritesTracker;
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.payload.response.RoomDirectoryPage;
+import com.chatapp.payload.response.RoomSummary;
+import com.chatapp.repository.ChatRoomRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paged room listings plus a version that changes whenever any listing could change,
+ * used to answer conditional requests with 304 without querying. Listings are read from a replica
+ * when one is configured, except right after a change: a stale listing served under the new
+ * version's ETag would stay cached by clients until the next change.
+ * <p>
+ * The version only sees changes made through this node, so with more than one node there is no
+ * version ETag and listings are tagged with a hash of their content instead; a 304 then still
+ * saves the response body, but not the query.
+ */
+@Service
+public class RoomDirectoryService {
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ReadYourWritesTracker readYourWritesTracker;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private WebSocketConfig.BrokerMode brokerMode;
+
+    @Value("${chat.rooms.directory.max-page-size:100}")
+    private int maxPageSize;
+
+    // Starts at the boot time so ETags handed out before a restart never match
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+
+    private volatile long changedAt;
+    private TransactionTemplate replicaRead;
+    private TransactionTemplate primaryRead;
+
+    @PostConstruct
+    public void init() {
+        replicaRead = new TransactionTemplate(transactionManager);
+        replicaRead.setReadOnly(true);
+        primaryRead = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Called after rooms are created, updated or deleted and after participants join or leave.
+     */
+    public void changed() {
+        changedAt = System.currentTimeMillis();
+        version.incrementAndGet();
+    }
+
+    /**
+     * ETag for a listing known without reading it, or null with more than one node. The query
+     * (filters, page and member id) is part of the tag, so listings of different users or pages
+     * served under one URL never share one.
+     */
+    public String versionEtag(String query) {
+        if (brokerMode != WebSocketConfig.BrokerMode.SIMPLE) {
+            return null;
+        }
+        return "\"rooms-" + version.get() + "-" + Integer.toHexString(query.hashCode()) + "\"";
+    }
+
+    public String contentEtag(Object listing) {
+        try {
+            return "\"rooms-" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(listing)) + "\"";
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public List<RoomSummary> getAllRooms() {
+        return read().execute(status -> chatRoomRepository.findAllSummaries());
+    }
+
+    /**
+     * @param isPrivate only public (false) or private (true) rooms; null for both
+     * @param memberId  only rooms this user participates in; null for all rooms
+     */
+    public RoomDirectoryPage getDirectory(Boolean isPrivate, Long memberId, int page, int size) {
+        PageRequest pageRequest = PageRequest.of(Math.max(0, page), Math.max(1, Math.min(size, maxPageSize)));
+        Slice<RoomSummary> slice = read().execute(status -> memberId != null
+                ? chatRoomRepository.findSummariesByParticipantId(memberId, isPrivate, pageRequest)
+                : chatRoomRepository.findSummaries(isPrivate, pageRequest));
+        return new RoomDirectoryPage(slice.getContent(), slice.getNumber(), slice.getSize(), slice.hasNext());
+    }
+
+    private TransactionTemplate read() {
+        return readYourWritesTracker.withinWindow(changedAt) ? primaryRead : replicaRead;
+    }
+}
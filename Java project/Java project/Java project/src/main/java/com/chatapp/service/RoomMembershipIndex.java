@@ -0,0 +1,364 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * In-memory copy of chat_room_participants plus each room's private flag, so membership checks on
+ * the STOMP hot path and in the REST API never load the participant set. Members are kept in an
+ * open-addressing table of primitive user ids per room, about 16-32 bytes per member. Loaded in full
+ * at startup and kept current by {@code ChatRoomController}; a room missing from the index (created
+ * on another node) is loaded on first use. With more than one node, a negative answer is checked
+ * against the database before it is trusted, since the member may have joined elsewhere, and a room
+ * is reloaded when used more than {@code refresh-ms} after it was last loaded, so a removal or a
+ * switch to private made on another node applies here within that time. A negative answer the
+ * database confirmed is kept until that reload, so repeated attempts by a non-member do not query
+ * again; a join on another node after such an answer also applies within {@code refresh-ms}.
+ */
+@Component
+@DependsOn("entityManagerFactory") // The schema has to exist before the participants are read
+public class RoomMembershipIndex {
+    private static final Logger logger = LoggerFactory.getLogger(RoomMembershipIndex.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ChatLookupCache chatLookupCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private WebSocketConfig.BrokerMode brokerMode;
+
+    @Value("${chat.membership.refresh-ms:5000}")
+    private long refreshMillis;
+
+    private final ConcurrentMap<Long, RoomMembers> rooms = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        long started = System.currentTimeMillis();
+        jdbcTemplate.query("SELECT id, is_private FROM chat_rooms",
+                row -> { rooms.put(row.getLong(1), new RoomMembers(row.getBoolean(2))); });
+        long[] memberships = {0};
+        jdbcTemplate.query("SELECT chat_room_id, user_id FROM chat_room_participants", row -> {
+            RoomMembers members = rooms.get(row.getLong(1));
+            if (members != null) {
+                members.add(row.getLong(2));
+                memberships[0]++;
+            }
+        });
+        logger.info("Indexed {} memberships of {} rooms in {} ms ({} KiB)", memberships[0], rooms.size(),
+                System.currentTimeMillis() - started, footprintBytes() / 1024);
+        Gauge.builder("chat.membership.rooms", rooms, ConcurrentMap::size).register(meterRegistry);
+        Gauge.builder("chat.membership.entries", this, index -> index.entryCount()).register(meterRegistry);
+        Gauge.builder("chat.membership.bytes", this, index -> index.footprintBytes())
+                .description("Approximate heap used by the member tables")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Whether the user may read and post in the room: every existing public room, and private
+     * rooms the user participates in.
+     */
+    public boolean canAccess(Long roomId, Long userId) {
+        RoomMembers members = members(roomId);
+        if (members == null) {
+            return false;
+        }
+        return !members.isPrivate || isMember(members, roomId, userId);
+    }
+
+    public boolean isMember(Long roomId, Long userId) {
+        RoomMembers members = members(roomId);
+        return members != null && isMember(members, roomId, userId);
+    }
+
+    public void roomCreated(Long roomId, boolean isPrivate, Long creatorId) {
+        RoomMembers members = new RoomMembers(isPrivate);
+        members.add(creatorId);
+        rooms.put(roomId, members);
+    }
+
+    public void roomUpdated(Long roomId, boolean isPrivate) {
+        RoomMembers members = rooms.get(roomId);
+        if (members != null) {
+            members.isPrivate = isPrivate;
+        }
+    }
+
+    public void roomDeleted(Long roomId) {
+        rooms.remove(roomId);
+    }
+
+    public void memberAdded(Long roomId, Long userId) {
+        RoomMembers members = members(roomId);
+        if (members != null) {
+            members.add(userId);
+        }
+    }
+
+    public void memberRemoved(Long roomId, Long userId) {
+        RoomMembers members = members(roomId);
+        if (members != null) {
+            members.remove(userId);
+        }
+    }
+
+    /**
+     * Approximate bytes held by the member tables, for comparing against loading participant sets.
+     */
+    public long footprintBytes() {
+        long bytes = 0;
+        for (RoomMembers members : rooms.values()) {
+            bytes += members.footprintBytes();
+        }
+        return bytes;
+    }
+
+    private long entryCount() {
+        long entries = 0;
+        for (RoomMembers members : rooms.values()) {
+            entries += members.size();
+        }
+        return entries;
+    }
+
+    private boolean isMember(RoomMembers members, Long roomId, Long userId) {
+        if (userId == null) {
+            return false;
+        }
+        if (members.contains(userId)) {
+            return true;
+        }
+        if (brokerMode == WebSocketConfig.BrokerMode.SIMPLE || members.isConfirmedAbsent(userId)) {
+            return false;
+        }
+        RoomMembers reloaded = load(roomId);
+        if (reloaded == null) {
+            rooms.remove(roomId);
+            return false;
+        }
+        rooms.put(roomId, reloaded);
+        if (reloaded.contains(userId)) {
+            return true;
+        }
+        reloaded.confirmAbsent(userId);
+        return false;
+    }
+
+    private RoomMembers members(Long roomId) {
+        RoomMembers members = rooms.get(roomId);
+        if (members == null && chatLookupCache.roomExists(roomId)) {
+            members = rooms.computeIfAbsent(roomId, this::load);
+        }
+        if (members != null && brokerMode != WebSocketConfig.BrokerMode.SIMPLE
+                && members.claimRefresh(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(refreshMillis))) {
+            // Only the thread that claimed the refresh queries; the others keep using the current copy
+            RoomMembers reloaded = load(roomId);
+            if (reloaded == null) {
+                rooms.remove(roomId, members);
+                return null;
+            }
+            rooms.replace(roomId, members, reloaded);
+            members = reloaded;
+        }
+        return members;
+    }
+
+    private RoomMembers load(Long roomId) {
+        List<Boolean> isPrivate = jdbcTemplate.queryForList(
+                "SELECT is_private FROM chat_rooms WHERE id = ?", Boolean.class, roomId);
+        if (isPrivate.isEmpty()) {
+            return null;
+        }
+        RoomMembers members = new RoomMembers(isPrivate.get(0));
+        jdbcTemplate.query("SELECT user_id FROM chat_room_participants WHERE chat_room_id = ?",
+                row -> { members.add(row.getLong(1)); }, roomId);
+        return members;
+    }
+
+    /**
+     * Set of user ids in a linear-probing table kept at most half full; 0 marks a free slot, which
+     * is safe because user ids start at 1. Reads are optimistic and only take the read lock when a
+     * write overlapped them, so lookups do not block each other.
+     */
+    static final class RoomMembers {
+        private static final int MIN_CAPACITY = 4;
+
+        private final StampedLock lock = new StampedLock();
+        private final AtomicLong loadedAt = new AtomicLong(System.nanoTime());
+        // Users the database said are not members when this copy was loaded; only used with several nodes
+        private final Set<Long> confirmedAbsent = ConcurrentHashMap.newKeySet();
+        private volatile boolean isPrivate;
+        private long[] table = new long[MIN_CAPACITY];
+        private int size;
+
+        RoomMembers(boolean isPrivate) {
+            this.isPrivate = isPrivate;
+        }
+
+        /**
+         * True for exactly one caller once the table is older than {@code maxAgeNanos}; that caller
+         * is expected to replace it with a fresh copy.
+         */
+        boolean claimRefresh(long now, long maxAgeNanos) {
+            long loaded = loadedAt.get();
+            return now - loaded > maxAgeNanos && loadedAt.compareAndSet(loaded, now);
+        }
+
+        boolean isConfirmedAbsent(long userId) {
+            return confirmedAbsent.contains(userId);
+        }
+
+        // Holds only the ids of users who asked, and is dropped with this copy at the next reload
+        void confirmAbsent(long userId) {
+            confirmedAbsent.add(userId);
+        }
+
+        boolean contains(long userId) {
+            long stamp = lock.tryOptimisticRead();
+            boolean found = find(table, userId) >= 0;
+            if (lock.validate(stamp)) {
+                return found;
+            }
+            stamp = lock.readLock();
+            try {
+                return find(table, userId) >= 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void add(long userId) {
+            long stamp = lock.writeLock();
+            try {
+                confirmedAbsent.remove(userId);
+                if (find(table, userId) >= 0) {
+                    return;
+                }
+                if ((size + 1) * 2 > table.length) {
+                    rehash(table.length * 2);
+                }
+                insert(table, userId);
+                size++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void remove(long userId) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = find(table, userId);
+                if (slot < 0) {
+                    return;
+                }
+                deleteAt(slot);
+                size--;
+                if (table.length > MIN_CAPACITY && size * 8 < table.length) {
+                    rehash(table.length / 2);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long footprintBytes() {
+            long stamp = lock.readLock();
+            try {
+                // Array header plus slots, and the object with its lock
+                return 16 + 8L * table.length + 48;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void rehash(int capacity) {
+            long[] old = table;
+            long[] resized = new long[capacity];
+            for (long userId : old) {
+                if (userId != 0) {
+                    insert(resized, userId);
+                }
+            }
+            table = resized;
+        }
+
+        // Removes the entry and shifts later entries of the same probe run back into the gap
+        private void deleteAt(int slot) {
+            int mask = table.length - 1;
+            int gap = slot;
+            int next = (gap + 1) & mask;
+            while (table[next] != 0) {
+                int home = slotOf(table[next], mask);
+                // Move the entry unless its home lies cyclically within (gap, next]
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    table[gap] = table[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            table[gap] = 0;
+        }
+
+        private static void insert(long[] table, long userId) {
+            int mask = table.length - 1;
+            int slot = slotOf(userId, mask);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = userId;
+        }
+
+        // Bounded by the table length, so a torn optimistic read cannot loop forever
+        private static int find(long[] table, long userId) {
+            int mask = table.length - 1;
+            int slot = slotOf(userId, mask);
+            for (int probes = 0; probes < table.length; probes++) {
+                long entry = table[slot];
+                if (entry == userId) {
+                    return slot;
+                }
+                if (entry == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int slotOf(long userId, int mask) {
+            long hash = userId * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.chatapp.service;
+
+import com.chatapp.payload.request.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relays typing indicators to /topic/room.{id}.typing without persisting them. Each user is
+ * broadcast at most once per window and room; keystrokes in between are dropped, since receivers
+ * already show the user as typing. Receivers hide the indicator once no refresh arrived for the
+ * ttl, so no "stopped typing" frame is needed, and idle entries are swept after the same ttl.
+ */
+@Service
+public class TypingIndicatorService {
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.typing.window-ms:2000}")
+    private long windowMillis;
+
+    @Value("${chat.typing.ttl-ms:5000}")
+    private long ttlMillis;
+
+    @Value("${chat.typing.max-entries:100000}")
+    private int maxEntries;
+
+    // "roomId:username" -> time of the last broadcast
+    private final ConcurrentMap<String, AtomicLong> lastBroadcast = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService sweeper;
+    private Counter received;
+    private Counter throttled;
+
+    @PostConstruct
+    public void init() {
+        received = meterRegistry.counter("chat.typing.received");
+        throttled = meterRegistry.counter("chat.typing.throttled");
+        Gauge.builder("chat.typing.active", lastBroadcast, Map::size).register(meterRegistry);
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "typing-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, ttlMillis, ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    public void typing(Long roomId, String username) {
+        received.increment();
+        String key = roomId + ":" + username;
+        AtomicLong last = lastBroadcast.get(key);
+        if (last == null) {
+            if (lastBroadcast.size() >= maxEntries) {
+                throttled.increment();
+                return;
+            }
+            last = lastBroadcast.computeIfAbsent(key, k -> new AtomicLong());
+        }
+        long now = System.currentTimeMillis();
+        long previous = last.get();
+        // Losing the race means another frame from the same user is being broadcast right now
+        if (now - previous < windowMillis || !last.compareAndSet(previous, now)) {
+            throttled.increment();
+            return;
+        }
+
+        ChatMessage indicator = new ChatMessage();
+        indicator.setType(ChatMessage.MessageType.TYPING);
+        indicator.setSender(username);
+        indicator.setChatRoomId(roomId);
+        messagingTemplate.convertAndSend("/topic/room." + roomId + ".typing", indicator);
+    }
+
+    private void sweep() {
+        long expired = System.currentTimeMillis() - ttlMillis;
+        lastBroadcast.values().removeIf(last -> last.get() < expired);
+    }
+}
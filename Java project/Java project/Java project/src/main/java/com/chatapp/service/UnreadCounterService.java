@@ -0,0 +1,353 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.model.Message;
+import com.chatapp.model.ReadWatermark;
+import com.chatapp.model.id.SnowflakeIdGenerator;
+import com.chatapp.payload.response.UnreadSummary;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.ReadWatermarkRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-user unread counts for rooms and private conversations, kept in memory and bumped as messages
+ * are sent. A user's counts are seeded with two grouped queries the first time they are asked for;
+ * until then sends cost nothing for that user. Read state is a watermark per scope rather than a
+ * flag per message, and every watermark move recounts its scope from the database, so counts that
+ * drift under concurrent writes are corrected the next time the user reads.
+ * <p>
+ * Counters only see sends handled by this node, so when the broker mode runs more than one node
+ * nothing is held and every summary is counted from the database.
+ */
+@Service
+public class UnreadCounterService {
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private ReadWatermarkRepository readWatermarkRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.unread.max-users:50000}")
+    private int maxUsers;
+
+    @Value("${chat.broker.mode:SIMPLE}")
+    private WebSocketConfig.BrokerMode brokerMode;
+
+    private final ConcurrentMap<Long, UserCounters> users = new ConcurrentHashMap<>();
+    // Room id -> seeded users participating in it
+    private final ConcurrentMap<Long, Set<Long>> roomMembers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("chat.unread.users", users, Map::size).register(meterRegistry);
+    }
+
+    public UnreadSummary getSummary(Long userId) {
+        if (brokerMode != WebSocketConfig.BrokerMode.SIMPLE) {
+            UserCounters counted = new UserCounters();
+            counted.seeded(messageRepository.countUnreadByRoom(userId), messageRepository.countUnreadByConversation(userId));
+            return counted.snapshot();
+        }
+        UserCounters counters = users.get(userId);
+        if (counters == null) {
+            counters = seed(userId);
+        }
+        return counters.snapshot();
+    }
+
+    public void privateMessageSent(Long receiverId, Long senderId, String senderUsername, Long messageId) {
+        UserCounters counters = users.get(receiverId);
+        if (counters != null) {
+            counters.add(new Increment(null, senderId, senderUsername, messageId));
+        }
+    }
+
+    public void roomMessageSent(Long roomId, Long senderId, Long messageId) {
+        Set<Long> members = roomMembers.get(roomId);
+        if (members == null) {
+            return;
+        }
+        for (Long memberId : members) {
+            UserCounters counters = users.get(memberId);
+            if (counters != null && !memberId.equals(senderId)) {
+                counters.add(new Increment(roomId, null, null, messageId));
+            }
+        }
+    }
+
+    public void markRoomRead(Long userId, Long roomId, Long upTo) {
+        long watermark = advance(userId, roomId, null, upTo);
+        UserCounters counters = users.get(userId);
+        if (counters != null) {
+            counters.setRoom(roomId, messageRepository.countUnreadInRoom(userId, roomId, watermark));
+        }
+    }
+
+    public void markConversationRead(Long userId, Long otherUserId, String otherUsername, Long upTo) {
+        long watermark = advance(userId, null, Message.conversationKey(userId, otherUserId), upTo);
+        refreshConversation(userId, otherUserId, otherUsername, watermark);
+    }
+
+    /**
+     * Recounts one conversation after messages in it were marked read individually.
+     */
+    public void conversationChanged(Long userId, Long otherUserId, String otherUsername) {
+        if (users.containsKey(userId)) {
+            long watermark = readWatermarkRepository
+                    .findByUserIdAndConversationKey(userId, Message.conversationKey(userId, otherUserId))
+                    .map(ReadWatermark::getLastReadMessageId)
+                    .orElse(0L);
+            refreshConversation(userId, otherUserId, otherUsername, watermark);
+        }
+    }
+
+    /**
+     * A new participant starts with nothing unread: older messages are covered by a watermark at the join time.
+     */
+    public void roomJoined(Long userId, Long roomId) {
+        advance(userId, roomId, null, SnowflakeIdGenerator.minIdAt(System.currentTimeMillis()) - 1);
+        UserCounters counters = users.get(userId);
+        if (counters != null) {
+            roomMembers.computeIfAbsent(roomId, id -> ConcurrentHashMap.newKeySet()).add(userId);
+            counters.setRoom(roomId, 0);
+        }
+    }
+
+    public void roomLeft(Long userId, Long roomId) {
+        Set<Long> members = roomMembers.get(roomId);
+        if (members != null) {
+            members.remove(userId);
+        }
+        UserCounters counters = users.get(userId);
+        if (counters != null) {
+            counters.removeRoom(roomId);
+        }
+    }
+
+    public void roomDeleted(Long roomId) {
+        Set<Long> members = roomMembers.remove(roomId);
+        if (members != null) {
+            for (Long memberId : members) {
+                UserCounters counters = users.get(memberId);
+                if (counters != null) {
+                    counters.removeRoom(roomId);
+                }
+            }
+        }
+    }
+
+    private UserCounters seed(Long userId) {
+        // Crude bound, as in ChatLookupCache: forget everyone and reseed on demand
+        if (users.size() >= maxUsers) {
+            users.clear();
+            roomMembers.clear();
+        }
+        UserCounters fresh = new UserCounters();
+        UserCounters existing = users.putIfAbsent(userId, fresh);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            // Register memberships first so sends racing with the queries are buffered, not lost
+            for (Long roomId : chatRoomRepository.findRoomIdsByParticipantId(userId)) {
+                roomMembers.computeIfAbsent(roomId, id -> ConcurrentHashMap.newKeySet()).add(userId);
+                fresh.setRoom(roomId, 0);
+            }
+            fresh.seeded(messageRepository.countUnreadByRoom(userId), messageRepository.countUnreadByConversation(userId));
+        } catch (RuntimeException e) {
+            users.remove(userId, fresh);
+            fresh.failed();
+            throw e;
+        }
+        return fresh;
+    }
+
+    private void refreshConversation(Long userId, Long otherUserId, String otherUsername, long watermark) {
+        UserCounters counters = users.get(userId);
+        if (counters != null) {
+            long unread = messageRepository.countUnreadInConversation(
+                    userId, Message.conversationKey(userId, otherUserId), watermark);
+            counters.setConversation(otherUserId, otherUsername, unread);
+        }
+    }
+
+    /**
+     * Moves the watermark for one scope forward to {@code upTo} and returns its resulting position.
+     */
+    private long advance(Long userId, Long roomId, String conversationKey, Long upTo) {
+        Optional<ReadWatermark> existing = roomId != null
+                ? readWatermarkRepository.findByUserIdAndChatRoomId(userId, roomId)
+                : readWatermarkRepository.findByUserIdAndConversationKey(userId, conversationKey);
+        if (existing.isPresent()) {
+            advanceExisting(userId, roomId, conversationKey, upTo);
+            return Math.max(existing.get().getLastReadMessageId(), upTo);
+        }
+        ReadWatermark watermark = new ReadWatermark();
+        watermark.setUserId(userId);
+        watermark.setChatRoomId(roomId);
+        watermark.setConversationKey(conversationKey);
+        watermark.setLastReadMessageId(upTo);
+        try {
+            readWatermarkRepository.save(watermark);
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent request created the row first
+            advanceExisting(userId, roomId, conversationKey, upTo);
+        }
+        return upTo;
+    }
+
+    private void advanceExisting(Long userId, Long roomId, String conversationKey, Long upTo) {
+        if (roomId != null) {
+            readWatermarkRepository.advanceRoom(userId, roomId, upTo);
+        } else {
+            readWatermarkRepository.advanceConversation(userId, conversationKey, upTo);
+        }
+    }
+
+    private static final class Increment {
+        private final Long roomId;
+        private final Long senderId;
+        private final String senderUsername;
+        private final long messageId;
+
+        private Increment(Long roomId, Long senderId, String senderUsername, long messageId) {
+            this.roomId = roomId;
+            this.senderId = senderId;
+            this.senderUsername = senderUsername;
+            this.messageId = messageId;
+        }
+    }
+
+    private static final class Conversation {
+        private final String username;
+        private long unread;
+
+        private Conversation(String username, long unread) {
+            this.username = username;
+            this.unread = unread;
+        }
+    }
+
+    private static final class UserCounters {
+        private final Map<Long, Long> rooms = new HashMap<>();
+        // Keyed by the other participant's user id
+        private final Map<Long, Conversation> conversations = new HashMap<>();
+        private List<Increment> pending = new ArrayList<>();
+        private boolean seeding = true;
+        private boolean failed;
+
+        private synchronized void add(Increment increment) {
+            if (seeding) {
+                pending.add(increment);
+            } else {
+                apply(increment);
+            }
+        }
+
+        private void apply(Increment increment) {
+            if (increment.roomId != null) {
+                rooms.merge(increment.roomId, 1L, Long::sum);
+            } else {
+                conversations.computeIfAbsent(increment.senderId, id -> new Conversation(increment.senderUsername, 0))
+                        .unread++;
+            }
+        }
+
+        private synchronized void seeded(List<Object[]> roomRows, List<Object[]> conversationRows) {
+            Map<Long, Long> newestCounted = new HashMap<>();
+            for (Object[] row : roomRows) {
+                rooms.put((Long) row[0], (Long) row[1]);
+                newestCounted.put((Long) row[0], (Long) row[2]);
+            }
+            Map<Long, Long> newestCountedFrom = new HashMap<>();
+            for (Object[] row : conversationRows) {
+                conversations.put((Long) row[0], new Conversation((String) row[1], (Long) row[2]));
+                newestCountedFrom.put((Long) row[0], (Long) row[3]);
+            }
+            // Replay sends that arrived during the queries unless the queries already saw them
+            for (Increment increment : pending) {
+                Long newest = increment.roomId != null
+                        ? newestCounted.get(increment.roomId)
+                        : newestCountedFrom.get(increment.senderId);
+                if (newest == null || increment.messageId > newest) {
+                    apply(increment);
+                }
+            }
+            pending = null;
+            seeding = false;
+            notifyAll();
+        }
+
+        private synchronized void failed() {
+            pending = null;
+            seeding = false;
+            failed = true;
+            notifyAll();
+        }
+
+        private synchronized void setRoom(Long roomId, long unread) {
+            rooms.put(roomId, unread);
+        }
+
+        private synchronized void removeRoom(Long roomId) {
+            rooms.remove(roomId);
+        }
+
+        private synchronized void setConversation(Long otherUserId, String otherUsername, long unread) {
+            conversations.put(otherUserId, new Conversation(otherUsername, unread));
+        }
+
+        private synchronized UnreadSummary snapshot() {
+            while (seeding) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while loading unread counts");
+                }
+            }
+            if (failed) {
+                throw new IllegalStateException("Unread counts could not be loaded");
+            }
+            long total = 0;
+            Map<Long, Long> roomCounts = new HashMap<>();
+            for (Map.Entry<Long, Long> entry : rooms.entrySet()) {
+                if (entry.getValue() > 0) {
+                    roomCounts.put(entry.getKey(), entry.getValue());
+                    total += entry.getValue();
+                }
+            }
+            Map<String, Long> conversationCounts = new HashMap<>();
+            for (Conversation conversation : conversations.values()) {
+                if (conversation.unread > 0) {
+                    conversationCounts.put(conversation.username, conversation.unread);
+                    total += conversation.unread;
+                }
+            }
+            return new UnreadSummary(total, roomCounts, conversationCounts);
+        }
+    }
+}
@@ -1,4 +1,8 @@
 let currentRoom = null;
+// Messages rendered for the current room (oldest first) and the cursor for the next older page
+let roomMessages = [];
+let olderMessagesCursor = null;
+let loadingOlderMessages = false;
 // NEW: Global variable to store the room that is currently attempting to be joined (for password modal)
 let pendingPrivateRoom = null;
 
@@ -122,22 +126,57 @@ async function authenticateAndJoinPrivateRoom(roomId, password) {
     }
 }
 
+async function fetchRoomMessagesPage(roomId, before) {
+    const params = new URLSearchParams({ limit: '50' });
+    if (before) {
+        params.set('before', before);
+    }
+    const response = await fetch(`${window.API_URL}/messages/room/${roomId}?${params}`, {
+        headers: getAuthHeaders(),
+    });
+
+    if (!response.ok) {
+        const errorText = await response.text();
+        throw new Error(`Failed to load messages: ${response.status} - ${errorText}`);
+    }
+    return response.json();
+}
+
 async function loadMessages(roomId) {
     try {
-        const response = await fetch(`${window.API_URL}/messages/room/${roomId}`, {
-            headers: getAuthHeaders(),
-        });
+        const page = await fetchRoomMessagesPage(roomId);
+        roomMessages = page.messages;
+        olderMessagesCursor = page.hasMore ? page.nextCursor : null;
+        displayMessages(roomMessages);
+    } catch (error) {
+        console.error(error);
+        alert('Failed to load messages');
+    }
+}
 
-        if (!response.ok) {
-            const errorText = await response.text();
-            throw new Error(`Failed to load messages: ${response.status} - ${errorText}`);
+// Fetch the next older page when the user scrolls to the top of the message area
+async function loadOlderMessages() {
+    if (!currentRoom || !olderMessagesCursor || loadingOlderMessages) {
+        return;
+    }
+    loadingOlderMessages = true;
+    const roomId = currentRoom.id;
+    try {
+        const page = await fetchRoomMessagesPage(roomId, olderMessagesCursor);
+        if (!currentRoom || currentRoom.id !== roomId) {
+            return;
         }
-
-        const messages = await response.json();
-        displayMessages(messages);
+        const messageArea = document.getElementById('messageArea');
+        const previousHeight = messageArea.scrollHeight;
+        roomMessages = page.messages.concat(roomMessages);
+        olderMessagesCursor = page.hasMore ? page.nextCursor : null;
+        displayMessages(roomMessages);
+        // Keep the previously visible messages in place
+        messageArea.scrollTop = messageArea.scrollHeight - previousHeight;
     } catch (error) {
         console.error(error);
-        alert('Failed to load messages');
+    } finally {
+        loadingOlderMessages = false;
     }
 }
 
@@ -165,8 +204,11 @@ window.displayMessages = function(messages) {
             lastDate = messageDate;
         }
 
+        // History pages carry the sender as a plain username, WebSocket messages may carry an object
+        const senderName = message.sender?.username || message.sender;
+
         // Determine if the message was sent by the current user
-        const isSent = window.currentUser && message.sender?.username === window.currentUser.username;
+        const isSent = window.currentUser && senderName === window.currentUser.username;
 
         // Create a wrapper for the message bubble to handle alignment (flexbox)
         const messageWrapper = document.createElement('div');
@@ -187,7 +229,6 @@ window.displayMessages = function(messages) {
         }
 
         // Populate the message bubble with sender name, content, and time
-        const senderName = message.sender.username || message.sender; // Handle both object and string sender
         messageBubble.innerHTML = `
             <div class="sender">${senderName}</div>
             <div class="text">${message.content}</div>
@@ -293,6 +334,18 @@ document.addEventListener('DOMContentLoaded', () => {
     console.log('Initializing chat functionality...');
     initializeCurrentUser();
 
+    document.getElementById('messageInput').addEventListener('input', () => {
+        if (currentRoom && typeof window.sendTyping === 'function') {
+            window.sendTyping(currentRoom.id);
+        }
+    });
+
+    document.getElementById('messageArea').addEventListener('scroll', (e) => {
+        if (e.target.scrollTop === 0) {
+            loadOlderMessages();
+        }
+    });
+
     const createRoomModal = new bootstrap.Modal(document.getElementById('createRoomModal'));
     const createRoomForm = document.getElementById('createRoomForm');
     const createRoomBtn = document.getElementById('createRoomBtn');
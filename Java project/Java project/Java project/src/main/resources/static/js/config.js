@@ -1,4 +1,7 @@
 // config.js
 // Declare the base back‑end URL exactly once, on the global object
 window.API_URL = 'http://localhost:8080/api';
-window.WEBSOCKET_BASE_URL = 'http://localhost:8080';
\ No newline at end of file
+window.WEBSOCKET_BASE_URL = 'http://localhost:8080';
+// Must match chat.typing.window-ms / chat.typing.ttl-ms on the server
+window.TYPING_WINDOW_MS = 2000;
+window.TYPING_TTL_MS = 5000;
@@ -2,10 +2,19 @@
 window.stompClient = null;
 let reconnectAttempts = 0;
 const MAX_RECONNECT_ATTEMPTS = 5;
+// Message and typing indicator subscriptions for the current room, and username -> hide timer
+let roomSubscriptions = [];
+let subscribedRoomId = null;
+const typingUsers = new Map();
+// Highest sequence number seen per 'room:<id>' / 'dm:<username>'; sent as last-seq when resubscribing
+const lastSeqs = new Map();
+// Keys waiting for their replay, with the live messages that arrived meanwhile
+const awaitingReplay = new Map();
 
 function initializeWebSocket() {
     if (window.stompClient && window.stompClient.connected) { // Use window.stompClient
         console.log('WebSocket already connected');
+        subscribeToRoomTopics(false);
         return;
     }
 
@@ -31,8 +40,15 @@ function onConnected() {
     console.log('✅ WebSocket connected');
     reconnectAttempts = 0;
 
+    // Subscribed first, so replies to the resubscriptions below cannot be missed
+    window.stompClient.subscribe('/user/queue/replay', onReplayReceived);
+    window.stompClient.subscribe('/user/queue/errors', onErrorReceived);
     window.stompClient.subscribe('/topic/public', onMessageReceived);
-    window.stompClient.subscribe('/user/queue/messages', onMessageReceived);
+    window.stompClient.subscribe('/user/queue/messages', onMessageReceived, resumeHeaders(
+        Array.from(lastSeqs.keys()).filter(key => key.startsWith('dm:'))));
+    roomSubscriptions = [];
+    subscribedRoomId = null;
+    subscribeToRoomTopics(true);
 
     const currentUser = JSON.parse(localStorage.getItem('user'));
     if (currentUser?.username) {
@@ -44,6 +60,76 @@ function onConnected() {
     }
 }
 
+// Builds the last-seq header for the given keys and holds their live messages until the replay arrives
+function resumeHeaders(keys) {
+    if (keys.length === 0) {
+        return {};
+    }
+    keys.forEach(key => awaitingReplay.set(key, []));
+    const value = keys.map(key => key.startsWith('dm:')
+        ? `${key.substring(3)}=${lastSeqs.get(key)}`
+        : `${lastSeqs.get(key)}`).join(',');
+    return { 'last-seq': value };
+}
+
+// resume: resubscribing after a reconnect, so ask for what was missed instead of reloading the room
+function subscribeToRoomTopics(resume) {
+    const currentRoom = JSON.parse(localStorage.getItem('currentRoom'));
+    if (!currentRoom || subscribedRoomId === currentRoom.id) {
+        return;
+    }
+    const roomKey = `room:${currentRoom.id}`;
+    if (!resume) {
+        // The room is reloaded over REST when selected
+        lastSeqs.delete(roomKey);
+    }
+    roomSubscriptions.forEach(subscription => subscription.unsubscribe());
+    typingUsers.forEach(timer => clearTimeout(timer));
+    typingUsers.clear();
+    renderTypingIndicator();
+    subscribedRoomId = currentRoom.id;
+    roomSubscriptions = [
+        window.stompClient.subscribe(`/topic/room.${currentRoom.id}`, onMessageReceived,
+            resume && lastSeqs.has(roomKey) ? resumeHeaders([roomKey]) : {}),
+        window.stompClient.subscribe(`/topic/room.${currentRoom.id}.typing`, onTypingReceived)
+    ];
+}
+
+function onTypingReceived(payload) {
+    const indicator = JSON.parse(payload.body);
+    if (indicator.sender === window.currentUser?.username) {
+        return;
+    }
+    // Each refresh restarts the timer; the indicator expires when refreshes stop
+    clearTimeout(typingUsers.get(indicator.sender));
+    typingUsers.set(indicator.sender, setTimeout(() => {
+        typingUsers.delete(indicator.sender);
+        renderTypingIndicator();
+    }, window.TYPING_TTL_MS));
+    renderTypingIndicator();
+}
+
+function renderTypingIndicator() {
+    const element = document.getElementById('typingIndicator');
+    if (!element) {
+        return;
+    }
+    const names = Array.from(typingUsers.keys());
+    element.textContent = names.length === 0 ? ''
+        : `${names.join(', ')} ${names.length === 1 ? 'is' : 'are'} typing...`;
+}
+
+let lastTypingSent = 0;
+
+// Called on input; the server throttles too, this only avoids sending frames it would drop
+function sendTyping(roomId) {
+    const now = Date.now();
+    if (window.stompClient?.connected && now - lastTypingSent >= window.TYPING_WINDOW_MS) {
+        lastTypingSent = now;
+        window.stompClient.send(`/app/chat.typing.${roomId}`, {}, '');
+    }
+}
+
 function onError(error) {
     console.error('❌ WebSocket error:', error);
 
@@ -58,23 +144,76 @@ function onError(error) {
 
 function onMessageReceived(payload) {
     try {
-        const message = JSON.parse(payload.body);
-        const currentRoom = JSON.parse(localStorage.getItem('currentRoom')); // Access currentRoom from localStorage
-
-        // Ensure displayMessages is defined globally (which we already did in chat.js)
-        if (window.displayMessages && message.type === 'CHAT' && currentRoom?.id === message.chatRoomId) {
-            const newMessage = {
-                sender: { username: message.sender },
-                content: message.content,
-                sentAt: new Date()
-            };
-            window.displayMessages([newMessage]); // Call globally exposed displayMessages
-        }
+        const body = JSON.parse(payload.body);
+        // Busy rooms may be batched by the server into one array frame
+        const messages = Array.isArray(body) ? body : [body];
+        messages.forEach(message => deliverSequenced(sequenceKey(message), message));
     } catch (e) {
         console.error('📩 Error parsing message:', e);
     }
 }
 
+function sequenceKey(message) {
+    return message.chatRoomId ? `room:${message.chatRoomId}` : `dm:${message.sender}`;
+}
+
+function deliverSequenced(key, message) {
+    const held = awaitingReplay.get(key);
+    if (held) {
+        held.push(message);
+        return;
+    }
+    if (message.seq != null) {
+        const last = lastSeqs.get(key);
+        if (last != null && message.seq <= last) {
+            return; // Already received, live and in a replay
+        }
+        lastSeqs.set(key, message.seq);
+    }
+    renderMessage(message);
+}
+
+function renderMessage(message) {
+    const currentRoom = JSON.parse(localStorage.getItem('currentRoom')); // Access currentRoom from localStorage
+
+    // Own messages were already shown optimistically when sent
+    if (window.appendMessage && message.type === 'CHAT' && currentRoom?.id === message.chatRoomId
+            && message.sender !== window.currentUser?.username) {
+        window.appendMessage({
+            sender: { username: message.sender },
+            content: message.content,
+            sentAt: new Date()
+        });
+    }
+}
+
+// A message the server could not take; the connection stays up
+function onErrorReceived(payload) {
+    console.warn('⚠️ ' + JSON.parse(payload.body).message);
+}
+
+function onReplayReceived(payload) {
+    const replay = JSON.parse(payload.body);
+    const key = replay.with ? `dm:${replay.with}` : `room:${replay.destination.substring('/topic/room.'.length)}`;
+    const held = awaitingReplay.get(key) || [];
+    awaitingReplay.delete(key);
+
+    if (replay.resync) {
+        // Too far behind for the replay log: reload instead
+        lastSeqs.delete(key);
+        const currentRoom = JSON.parse(localStorage.getItem('currentRoom'));
+        if (currentRoom && key === `room:${currentRoom.id}` && typeof loadMessages === 'function') {
+            held.filter(message => message.seq != null)
+                .forEach(message => lastSeqs.set(key, Math.max(lastSeqs.get(key) || 0, message.seq)));
+            loadMessages(currentRoom.id);
+            return;
+        }
+    } else {
+        replay.messages.forEach(message => deliverSequenced(key, message));
+    }
+    held.forEach(message => deliverSequenced(key, message));
+}
+
 document.addEventListener('DOMContentLoaded', () => {
     const token = localStorage.getItem('token');
     if (token) {
@@ -85,4 +224,5 @@ document.addEventListener('DOMContentLoaded', () => {
 });
 
 // Export the function so chat.js can use it
-window.connectWebSocket = initializeWebSocket;
\ No newline at end of file
+window.connectWebSocket = initializeWebSocket;
+window.sendTyping = sendTyping;
\ No newline at end of file
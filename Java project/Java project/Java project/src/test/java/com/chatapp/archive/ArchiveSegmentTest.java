@@ -0,0 +1,138 @@
+package com.chatapp.archive;
+
+import com.chatapp.payload.response.MessageDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ArchiveSegmentTest {
+
+    private static final long ROOM_ID = 42;
+    private static final int INDEX_INTERVAL = 16;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsEveryField() throws IOException {
+        List<MessageDto> messages = messages(100, 1000);
+        ArchiveSegment written = ArchiveSegment.write(directory, ROOM_ID, messages, INDEX_INTERVAL);
+        ArchiveSegment segment = ArchiveSegment.open(written.path);
+
+        assertEquals(ROOM_ID, segment.roomId);
+        assertEquals(1000, segment.firstId);
+        assertEquals(1000 + 99 * 3, segment.lastId);
+        assertEquals(100, segment.count);
+        assertEquals(ArchiveSegment.fileName(1000), segment.path.getFileName().toString());
+        assertFalse(Files.exists(directory.resolve(String.format("%020d", 1000) + ArchiveSegment.TEMP_SUFFIX)));
+
+        List<MessageDto> read = new ArrayList<>();
+        segment.readAfter(map(segment), Long.MIN_VALUE, Integer.MAX_VALUE, read);
+        assertEquals(messages.size(), read.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertSame(messages.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    void readsAfterAndBeforeACursor() throws IOException {
+        List<MessageDto> messages = messages(100, 1000);
+        ArchiveSegment segment = ArchiveSegment.open(
+                ArchiveSegment.write(directory, ROOM_ID, messages, INDEX_INTERVAL).path);
+        ByteBuffer buffer = map(segment);
+
+        List<MessageDto> after = new ArrayList<>();
+        // Between two ids, so the cursor itself is not in the segment
+        segment.readAfter(buffer, 1000 + 40 * 3 + 1, 10, after);
+        assertEquals(10, after.size());
+        assertEquals(1000 + 41 * 3, after.get(0).getId());
+        assertEquals(1000 + 50 * 3, after.get(9).getId());
+
+        List<MessageDto> before = new ArrayList<>();
+        segment.readBefore(buffer, 1000 + 40 * 3, 20, before);
+        assertEquals(20, before.size());
+        assertEquals(1000 + 39 * 3, before.get(0).getId());
+        assertEquals(1000 + 20 * 3, before.get(19).getId());
+
+        List<MessageDto> none = new ArrayList<>();
+        segment.readBefore(buffer, 1000, 10, none);
+        segment.readAfter(buffer, segment.lastId, 10, none);
+        assertEquals(0, none.size());
+    }
+
+    @Test
+    void findsSingleMessages() throws IOException {
+        List<MessageDto> messages = messages(50, 1);
+        ArchiveSegment segment = ArchiveSegment.open(
+                ArchiveSegment.write(directory, ROOM_ID, messages, INDEX_INTERVAL).path);
+        ByteBuffer buffer = map(segment);
+        for (MessageDto message : messages) {
+            assertSame(message, segment.find(buffer, message.getId()));
+        }
+        assertNull(segment.find(buffer, 2));
+        assertNull(segment.find(buffer, 0));
+        assertNull(segment.find(buffer, segment.lastId + 1));
+    }
+
+    @Test
+    void rejectsATruncatedFile() throws IOException {
+        ArchiveSegment segment = ArchiveSegment.write(directory, ROOM_ID, messages(10, 1), INDEX_INTERVAL);
+        byte[] bytes = Files.readAllBytes(segment.path);
+        Path truncated = directory.resolve("truncated" + ArchiveSegment.SUFFIX);
+        Files.write(truncated, java.util.Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(IOException.class, () -> ArchiveSegment.open(truncated));
+    }
+
+    @Test
+    void detectsACorruptRecord() throws IOException {
+        ArchiveSegment segment = ArchiveSegment.write(directory, ROOM_ID, messages(10, 1), INDEX_INTERVAL);
+        byte[] bytes = Files.readAllBytes(segment.path);
+        // A byte of the first record's sender; the footer is intact so the file still opens
+        bytes[16 + 8 + 8 + 8 + 2 + 3]++;
+        Files.write(segment.path, bytes);
+        ArchiveSegment reopened = ArchiveSegment.open(segment.path);
+        assertThrows(IllegalStateException.class,
+                () -> reopened.readAfter(map(reopened), 0, 10, new ArrayList<>()));
+    }
+
+    // Every third id, with and without attachments, sent times and non-ASCII text
+    private static List<MessageDto> messages(int count, long firstId) {
+        List<MessageDto> messages = new ArrayList<>(count);
+        LocalDateTime base = LocalDateTime.of(2024, 3, 1, 12, 0, 0, 123_456_000);
+        for (int i = 0; i < count; i++) {
+            messages.add(new MessageDto(firstId + i * 3L, i % 5 == 0 ? "zoë" : "sender" + (i % 7), null, ROOM_ID,
+                    "message " + i + (i % 4 == 0 ? " ✓ ünïcode" : ""),
+                    i % 11 == 0 ? null : base.plusSeconds(i), false, i % 3 == 0 ? 500L + i : null));
+        }
+        return messages;
+    }
+
+    private static ByteBuffer map(ArchiveSegment segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static void assertSame(MessageDto expected, MessageDto actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getChatRoomId(), actual.getChatRoomId());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getSentAt(), actual.getSentAt());
+        assertEquals(expected.getAttachmentId(), actual.getAttachmentId());
+    }
+}
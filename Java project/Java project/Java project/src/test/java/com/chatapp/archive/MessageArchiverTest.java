@@ -0,0 +1,79 @@
+package com.chatapp.archive;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.service.RecentMessageCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MessageArchiverTest {
+
+    @Mock
+    private MessageArchive messageArchive;
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private RecentMessageCache recentMessageCache;
+
+    @InjectMocks
+    private MessageArchiver messageArchiver;
+
+    @AfterEach
+    void tearDown() {
+        messageArchiver.shutdown();
+    }
+
+    @Test
+    void doesNotArchiveOrDeleteWithMoreThanOneNode() {
+        configure(WebSocketConfig.BrokerMode.CLUSTER);
+
+        messageArchiver.start();
+
+        assertFalse((Boolean) ReflectionTestUtils.getField(messageArchiver, "enabled"));
+        assertNull(ReflectionTestUtils.getField(messageArchiver, "scheduler"));
+        verifyNoInteractions(jdbcTemplate);
+        verifyNoInteractions(messageArchive);
+    }
+
+    @Test
+    void completesInterruptedDeletesAndSchedulesOnASingleNode() {
+        configure(WebSocketConfig.BrokerMode.SIMPLE);
+        when(messageArchive.rooms()).thenReturn(Collections.singleton(7L));
+        when(messageArchive.newestRange(7L)).thenReturn(new long[]{100, 200});
+
+        messageArchiver.start();
+
+        assertTrue((Boolean) ReflectionTestUtils.getField(messageArchiver, "enabled"));
+        assertNotNull(ReflectionTestUtils.getField(messageArchiver, "scheduler"));
+        verify(jdbcTemplate).update(anyString(), eq(7L), eq(100L), eq(200L));
+        verify(recentMessageCache, never()).evict(7L);
+    }
+
+    private void configure(WebSocketConfig.BrokerMode brokerMode) {
+        ReflectionTestUtils.setField(messageArchiver, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(messageArchiver, "enabled", true);
+        ReflectionTestUtils.setField(messageArchiver, "brokerMode", brokerMode);
+        ReflectionTestUtils.setField(messageArchiver, "intervalMillis", 3_600_000L);
+        ReflectionTestUtils.setField(messageArchiver, "minAgeHours", 2160L);
+    }
+}
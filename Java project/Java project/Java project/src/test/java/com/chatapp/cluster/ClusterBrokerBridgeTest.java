@@ -0,0 +1,103 @@
+package com.chatapp.cluster;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ClusterBrokerBridgeTest {
+
+    private final ConcurrentMap<String, List<String>> delivered = new ConcurrentHashMap<>();
+    private final InProcessClusterBus clusterBus = new InProcessClusterBus();
+
+    private ClusterTestNode node1;
+    private ClusterTestNode node2;
+
+    @BeforeEach
+    void setUp() {
+        node1 = new ClusterTestNode(1, clusterBus, this::record);
+        node2 = new ClusterTestNode(2, clusterBus, this::record);
+    }
+
+    @AfterEach
+    void tearDown() {
+        node1.stop();
+        node2.stop();
+    }
+
+    @Test
+    void roomMessageFansOutToSubscribersOnEveryNode() {
+        node1.subscribe("alice-session", "/topic/room.1");
+        node2.subscribe("bob-session", "/topic/room.1");
+        node2.subscribe("carol-session", "/topic/room.1");
+        node2.subscribe("dave-session", "/topic/room.2");
+
+        node1.messagingTemplate().convertAndSend("/topic/room.1", Map.of("content", "hello"));
+
+        List<String> expected = List.of("{\"content\":\"hello\"}");
+        assertEquals(expected, delivered.get("alice-session"));
+        assertEquals(expected, delivered.get("bob-session"));
+        assertEquals(expected, delivered.get("carol-session"));
+        assertNull(delivered.get("dave-session"));
+        // Node 2 does not publish what it received, so nothing loops back to node 1
+        assertEquals(1.0, node1.published());
+        assertEquals(0.0, node2.published());
+        assertEquals(1.0, node2.received());
+        assertEquals(0.0, node1.received());
+    }
+
+    @Test
+    void everyNodeCanPublish() {
+        node1.subscribe("alice-session", "/topic/room.1");
+        node2.subscribe("bob-session", "/topic/room.1");
+
+        node1.messagingTemplate().convertAndSend("/topic/room.1", Map.of("content", "from node 1"));
+        node2.messagingTemplate().convertAndSend("/topic/room.1", Map.of("content", "from node 2"));
+
+        List<String> both = List.of("{\"content\":\"from node 1\"}", "{\"content\":\"from node 2\"}");
+        assertEquals(both, delivered.get("alice-session"));
+        assertEquals(both, delivered.get("bob-session"));
+    }
+
+    @Test
+    void unresolvedUserDestinationsArePublishedButSessionQueuesStayLocal() {
+        // Resolved on the node holding the user's sessions
+        node1.messagingTemplate().convertAndSend("/user/bob/queue/messages", Map.of("content", "hi bob"));
+        assertEquals(1.0, node1.published());
+        assertEquals(1.0, node2.received());
+
+        // Already resolved to one of node 1's sessions
+        node1.subscribe("alice-session", "/queue/messages-useralice-session");
+        node1.messagingTemplate().convertAndSend("/queue/messages-useralice-session", Map.of("content", "hi alice"));
+        assertEquals(1.0, node1.published());
+        assertEquals(List.of("{\"content\":\"hi alice\"}"), delivered.get("alice-session"));
+    }
+
+    @Test
+    void stoppedNodeNoLongerReceives() {
+        node2.subscribe("bob-session", "/topic/room.1");
+        node2.stop();
+
+        node1.messagingTemplate().convertAndSend("/topic/room.1", Map.of("content", "hello"));
+
+        assertNull(delivered.get("bob-session"));
+        assertEquals(0.0, node2.received());
+    }
+
+    private void record(Message<?> message) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        delivered.computeIfAbsent(sessionId, id -> new CopyOnWriteArrayList<>())
+                .add(new String((byte[]) message.getPayload(), StandardCharsets.UTF_8));
+    }
+}
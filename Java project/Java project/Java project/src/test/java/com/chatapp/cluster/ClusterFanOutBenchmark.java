@@ -0,0 +1,79 @@
+package com.chatapp.cluster;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Room broadcast throughput with one node against two and four CLUSTER nodes joined by
+ * InProcessClusterBus. The same subscribers are spread evenly over the nodes and every node
+ * publishes in turn, so the difference is what ClusterBrokerBridge adds per message: publishing the
+ * envelope, rebuilding it on every other node and a broker dispatch per node. Channels are
+ * synchronous and the bus is in-process, so network latency is not part of the numbers.
+ *
+ * Run with {@code mvn test -Pbenchmark -Dtest=ClusterFanOutBenchmark}; -Dbenchmark.messages=...
+ * sets the number of messages per run.
+ */
+@Tag("benchmark")
+class ClusterFanOutBenchmark {
+
+    private static final int MESSAGES = Integer.getInteger("benchmark.messages", 20_000);
+    private static final int SUBSCRIBERS = 400;
+    private static final String ROOM_TOPIC = "/topic/room.1";
+
+    @Test
+    void oneNodeVersusSeveral() {
+        // The broker logs every message at DEBUG, which would be most of what gets measured
+        Logger messagingLogger = (Logger) LoggerFactory.getLogger("org.springframework.messaging");
+        Level level = messagingLogger.getLevel();
+        messagingLogger.setLevel(Level.INFO);
+        try {
+            // Warms up the JIT on the local and the bridged path before anything is measured
+            run(1);
+            run(2);
+            for (int nodes : new int[]{1, 2, 4}) {
+                long nanos = run(nodes);
+                System.out.printf("%d node(s): %,d messages to %d subscribers in %,d ms, %,.0f messages/s, %,.0f deliveries/s%n",
+                        nodes, MESSAGES, SUBSCRIBERS, nanos / 1_000_000,
+                        MESSAGES * 1e9 / nanos, (double) MESSAGES * SUBSCRIBERS * 1e9 / nanos);
+            }
+        } finally {
+            messagingLogger.setLevel(level);
+        }
+    }
+
+    private long run(int nodeCount) {
+        InProcessClusterBus clusterBus = new InProcessClusterBus();
+        AtomicLong deliveries = new AtomicLong();
+        List<ClusterTestNode> nodes = new ArrayList<>();
+        try {
+            for (int n = 0; n < nodeCount; n++) {
+                nodes.add(new ClusterTestNode(n + 1, clusterBus, message -> deliveries.incrementAndGet()));
+            }
+            for (int s = 0; s < SUBSCRIBERS; s++) {
+                nodes.get(s % nodeCount).subscribe("session-" + s, ROOM_TOPIC);
+            }
+            Map<String, String> payload = Map.of("sender", "alice", "content", "Are we still on for three?");
+
+            long start = System.nanoTime();
+            for (int m = 0; m < MESSAGES; m++) {
+                nodes.get(m % nodeCount).messagingTemplate().convertAndSend(ROOM_TOPIC, payload);
+            }
+            long nanos = System.nanoTime() - start;
+
+            assertEquals((long) MESSAGES * SUBSCRIBERS, deliveries.get());
+            return nanos;
+        } finally {
+            nodes.forEach(ClusterTestNode::stop);
+        }
+    }
+}
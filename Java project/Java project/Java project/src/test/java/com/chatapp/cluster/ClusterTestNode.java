@@ -0,0 +1,91 @@
+package com.chatapp.cluster;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The broker side of one node as WebSocketConfig wires it in CLUSTER mode: a SimpleBroker on the
+ * broker channel, with ClusterBrokerBridge intercepting that channel. Channels are synchronous,
+ * and frames the broker sends to sessions go to the given consumer instead of a socket.
+ */
+class ClusterTestNode {
+
+    private final SimpleBrokerMessageHandler broker;
+    private final ClusterBrokerBridge bridge;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Set<String> connected = new HashSet<>();
+
+    ClusterTestNode(long nodeId, ClusterBus clusterBus, Consumer<Message<?>> toSessions) {
+        ExecutorSubscribableChannel clientInboundChannel = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutboundChannel = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        // Only MESSAGE frames; CONNECT_ACK and the like are of no interest here
+        clientOutboundChannel.subscribe(message -> {
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+                toSessions.accept(message);
+            }
+        });
+
+        bridge = new ClusterBrokerBridge();
+        ReflectionTestUtils.setField(bridge, "clusterBus", clusterBus);
+        ReflectionTestUtils.setField(bridge, "brokerChannel", brokerChannel);
+        ReflectionTestUtils.setField(bridge, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(bridge, "nodeId", nodeId);
+        bridge.init();
+        brokerChannel.addInterceptor(bridge);
+
+        broker = new SimpleBrokerMessageHandler(clientInboundChannel, clientOutboundChannel, brokerChannel,
+                List.of("/topic", "/queue"));
+        broker.start();
+
+        messagingTemplate = new SimpMessagingTemplate(brokerChannel);
+        messagingTemplate.setMessageConverter(new MappingJackson2MessageConverter());
+    }
+
+    /**
+     * Subscribes a session, connecting it first if needed: the broker only sends to connected sessions.
+     */
+    void subscribe(String sessionId, String destination) {
+        if (connected.add(sessionId)) {
+            SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+            connect.setSessionId(sessionId);
+            broker.handleMessage(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-" + destination);
+        accessor.setDestination(destination);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    SimpMessagingTemplate messagingTemplate() {
+        return messagingTemplate;
+    }
+
+    double published() {
+        return meterRegistry.counter("chat.cluster.published").count();
+    }
+
+    double received() {
+        return meterRegistry.counter("chat.cluster.received").count();
+    }
+
+    void stop() {
+        broker.stop();
+        bridge.shutdown();
+    }
+}
@@ -0,0 +1,184 @@
+package com.chatapp.config;
+
+import com.chatapp.payload.request.ChatMessage;
+import com.chatapp.payload.response.ReplayResponse;
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.ChatLookupCache;
+import com.chatapp.service.MessageReplayLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MessageReplayInterceptorTest {
+
+    private static final long ALICE_ID = 1;
+    private static final long BOB_ID = 2;
+
+    @Mock
+    private ChatLookupCache chatLookupCache;
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+    @Mock
+    private MessageChannel channel;
+
+    @InjectMocks
+    private MessageReplayInterceptor interceptor;
+
+    private final MessageReplayLog replayLog = new MessageReplayLog();
+    private final SimpleBrokerMessageHandler broker = mock(SimpleBrokerMessageHandler.class);
+    private final UserDestinationMessageHandler userDestinations = mock(UserDestinationMessageHandler.class);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(replayLog, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(replayLog, "enabled", true);
+        ReflectionTestUtils.setField(replayLog, "brokerMode", WebSocketConfig.BrokerMode.SIMPLE);
+        ReflectionTestUtils.setField(replayLog, "capacity", 3);
+        ReflectionTestUtils.setField(replayLog, "maxScopes", 100);
+        replayLog.init();
+        ReflectionTestUtils.setField(interceptor, "messageReplayLog", replayLog);
+    }
+
+    @Test
+    void roomGapIsReplayedToTheResubscribingSession() {
+        List<ChatMessage> sent = append(MessageReplayLog.roomScope(7L), 3);
+
+        interceptor.afterMessageHandled(subscribe("/topic/room.7", String.valueOf(sent.get(0).getSeq())),
+                channel, broker, null);
+
+        ReplayResponse response = replayed(1).get(0);
+        assertEquals("/topic/room.7", response.getDestination());
+        assertNull(response.getWith());
+        assertFalse(response.isResync());
+        assertEquals(seqs(sent.subList(1, 3)), seqs(response.getMessages()));
+    }
+
+    @Test
+    void roomSequenceOlderThanTheLogAsksForResync() {
+        List<ChatMessage> sent = append(MessageReplayLog.roomScope(7L), 5);
+
+        interceptor.afterMessageHandled(subscribe("/topic/room.7", String.valueOf(sent.get(0).getSeq())),
+                channel, broker, null);
+
+        ReplayResponse response = replayed(1).get(0);
+        assertTrue(response.isResync());
+        assertNull(response.getMessages());
+    }
+
+    @Test
+    void conversationsAreReplayedOnePerUsername() {
+        List<ChatMessage> sent = append(MessageReplayLog.conversationScope(
+                com.chatapp.model.Message.conversationKey(ALICE_ID, BOB_ID)), 2);
+        when(chatLookupCache.findUserId("bob")).thenReturn(Optional.of(BOB_ID));
+        when(chatLookupCache.findUserId("ghost")).thenReturn(Optional.empty());
+
+        interceptor.afterMessageHandled(subscribe("/user/queue/messages",
+                "bob=" + sent.get(0).getSeq() + ", ghost=5"), channel, userDestinations, null);
+
+        List<ReplayResponse> responses = replayed(2);
+        assertEquals("bob", responses.get(0).getWith());
+        assertEquals(seqs(sent.subList(1, 2)), seqs(responses.get(0).getMessages()));
+        // An unknown user is answered too, so the client stops waiting
+        assertEquals("ghost", responses.get(1).getWith());
+        assertTrue(responses.get(1).isResync());
+    }
+
+    @Test
+    void framesWithoutAReplayableSequenceAreIgnored() {
+        append(MessageReplayLog.roomScope(7L), 1);
+
+        interceptor.afterMessageHandled(subscribe("/topic/room.7", null), channel, broker, null);
+        interceptor.afterMessageHandled(subscribe("/topic/room.7.typing", "5"), channel, broker, null);
+        interceptor.afterMessageHandled(subscribe("/topic/room.7", "not-a-number"), channel, broker, null);
+        // The user destination handler also sees room subscriptions; only the broker answers them
+        interceptor.afterMessageHandled(subscribe("/topic/room.7", "5"), channel, userDestinations, null);
+        interceptor.afterMessageHandled(subscribe("/topic/room.7", "5"), channel, broker, new IllegalStateException());
+
+        verify(messagingTemplate, never()).convertAndSendToUser(anyString(), anyString(), any(), anyMap());
+    }
+
+    @Test
+    void nothingIsReplayedWhenTheLogIsDisabled() {
+        ReflectionTestUtils.setField(replayLog, "enabled", false);
+
+        interceptor.afterMessageHandled(subscribe("/topic/room.7", "5"), channel, broker, null);
+
+        verify(messagingTemplate, never()).convertAndSendToUser(anyString(), anyString(), any(), anyMap());
+    }
+
+    private List<ChatMessage> append(String scope, int count) {
+        List<ChatMessage> sent = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ChatMessage message = new ChatMessage();
+            replayLog.append(scope, message, () -> sent.add(message));
+        }
+        return sent;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ReplayResponse> replayed(int count) {
+        ArgumentCaptor<ReplayResponse> responses = ArgumentCaptor.forClass(ReplayResponse.class);
+        ArgumentCaptor<Map<String, Object>> headers = ArgumentCaptor.forClass(Map.class);
+        verify(messagingTemplate, times(count)).convertAndSendToUser(eq("alice"), eq("/queue/replay"),
+                responses.capture(), headers.capture());
+        // Only the resubscribing session gets the replay, not every session of the user
+        for (Map<String, Object> sent : headers.getAllValues()) {
+            assertEquals("session-1", SimpMessageHeaderAccessor.getSessionId(sent));
+        }
+        return responses.getAllValues();
+    }
+
+    private static Message<byte[]> subscribe(String destination, String lastSeq) {
+        UserDetailsImpl alice = new UserDetailsImpl(ALICE_ID, "alice", "alice@example.com", "", List.of());
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId("session-1");
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination(destination);
+        accessor.setUser(new UsernamePasswordAuthenticationToken(alice, null, alice.getAuthorities()));
+        if (lastSeq != null) {
+            accessor.addNativeHeader(MessageReplayInterceptor.LAST_SEQ_HEADER, lastSeq);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static List<Long> seqs(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::getSeq).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,158 @@
+package com.chatapp.config;
+
+import com.chatapp.payload.request.ChatMessage;
+import com.chatapp.payload.response.MessageDto;
+import com.chatapp.payload.response.PresenceUpdate;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.MimeTypeUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares JSON and CBOR for the payloads the server sends most: a room message, a history page of
+ * 50 messages and a presence update. Reports payload and whole STOMP frame sizes, the CPU cost of
+ * encoding and decoding each payload, and the cost of the JSON-to-CBOR transcoding that
+ * SessionCodecRegistry does once per broadcast for CBOR sessions. Decoding reads a tree, as a
+ * browser client would; the room message is also decoded into ChatMessage, as inbound SENDs are.
+ *
+ * Run with {@code mvn test -Pbenchmark -Dtest=PayloadCodecBenchmark}; -Dbenchmark.iterations=...
+ * sets the number of timed operations per measurement.
+ */
+@Tag("benchmark")
+class PayloadCodecBenchmark {
+
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 50_000);
+    private static final String SESSION_ID = "cbor-session";
+
+    private final ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final ObjectMapper cborMapper = Jackson2ObjectMapperBuilder.cbor().build();
+    private final StompEncoder stompEncoder = new StompEncoder();
+
+    private ChannelInterceptor outbound;
+    // Keeps the JIT from discarding the measured work
+    private long sink;
+
+    @BeforeEach
+    void setUp() {
+        SessionCodecRegistry registry = new SessionCodecRegistry();
+        ReflectionTestUtils.setField(registry, "meterRegistry", new SimpleMeterRegistry());
+        registry.init();
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.setSessionId(SESSION_ID);
+        connect.setNativeHeader(SessionCodecRegistry.CODEC_HEADER, "cbor");
+        registry.inboundInterceptor().preSend(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()), null);
+        outbound = registry.outboundInterceptor();
+    }
+
+    @Test
+    void jsonVersusCbor() throws Exception {
+        System.out.printf("%-16s %9s %9s %10s %10s %10s %10s %10s %10s %10s%n", "payload",
+                "json B", "cbor B", "json frame", "cbor frame",
+                "json enc", "cbor enc", "json dec", "cbor dec", "transcode");
+        measure("room message", chatMessage(), ChatMessage.class);
+        measure("history page", historyPage(), null);
+        measure("presence", new PresenceUpdate(List.of("alice", "bob", "carol"), List.of("dave")), null);
+        System.out.println("Encode, decode and transcode times are ns per payload; typed decode of the room message:");
+        byte[] json = jsonMapper.writeValueAsBytes(chatMessage());
+        byte[] cbor = cborMapper.writeValueAsBytes(chatMessage());
+        System.out.printf("  ChatMessage json %,d ns, cbor %,d ns%n",
+                nanosPerOp(() -> sink += jsonMapper.readValue(json, ChatMessage.class).getContent().length()),
+                nanosPerOp(() -> sink += cborMapper.readValue(cbor, ChatMessage.class).getContent().length()));
+    }
+
+    private void measure(String name, Object payload, Class<?> type) throws Exception {
+        byte[] json = jsonMapper.writeValueAsBytes(payload);
+        byte[] cbor = cborMapper.writeValueAsBytes(payload);
+        Message<byte[]> jsonFrame = jsonMessage(json);
+        Message<?> cborFrame = outbound.preSend(jsonFrame, null);
+
+        // The transcoded frame carries the same document, in fewer bytes
+        assertTrue(cborFrame.getPayload() instanceof byte[]);
+        byte[] transcoded = (byte[]) cborFrame.getPayload();
+        assertEquals(jsonMapper.readTree(json), cborMapper.readTree(transcoded));
+        assertTrue(transcoded.length < json.length, name + " is not smaller as CBOR");
+        if (type != null) {
+            assertEquals(jsonMapper.readValue(json, type), cborMapper.readValue(cbor, type));
+        }
+
+        System.out.printf("%-16s %,9d %,9d %,10d %,10d %,10d %,10d %,10d %,10d %,10d%n", name,
+                json.length, transcoded.length,
+                stompEncoder.encode(jsonFrame).length, stompEncoder.encode(frame(cborFrame)).length,
+                nanosPerOp(() -> sink += jsonMapper.writeValueAsBytes(payload).length),
+                nanosPerOp(() -> sink += cborMapper.writeValueAsBytes(payload).length),
+                nanosPerOp(() -> sink += jsonMapper.readTree(json).size()),
+                nanosPerOp(() -> sink += cborMapper.readTree(cbor).size()),
+                // A fresh array each time, since the registry caches by payload identity
+                nanosPerOp(() -> sink += ((byte[]) outbound.preSend(jsonMessage(json.clone()), null).getPayload()).length));
+    }
+
+    private long nanosPerOp(Operation operation) throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static Message<byte[]> jsonMessage(byte[] json) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setSessionId(SESSION_ID);
+        accessor.setDestination("/topic/room.42");
+        accessor.setSubscriptionId("sub-0");
+        accessor.setMessageId("7c9f1e3a-1");
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(json, accessor.getMessageHeaders());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Message<byte[]> frame(Message<?> message) {
+        return (Message<byte[]>) message;
+    }
+
+    private static ChatMessage chatMessage() {
+        ChatMessage message = new ChatMessage();
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setSender("alice");
+        message.setContent("Are we still on for the release review at three?");
+        message.setChatRoomId(42L);
+        message.setSeq(1_729_000_000_000_123L);
+        return message;
+    }
+
+    private static List<MessageDto> historyPage() {
+        List<MessageDto> page = new ArrayList<>();
+        LocalDateTime sentAt = LocalDateTime.of(2026, 10, 17, 9, 0);
+        for (int i = 0; i < 50; i++) {
+            page.add(new MessageDto(7_000_000_000_000_000L + i, i % 2 == 0 ? "alice" : "bob", null, 42L,
+                    "History message number " + i + " with an ordinary sentence of text", sentAt.plusSeconds(i), true));
+        }
+        return page;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run() throws Exception;
+    }
+}
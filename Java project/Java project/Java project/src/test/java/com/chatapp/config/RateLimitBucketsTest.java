@@ -0,0 +1,100 @@
+package com.chatapp.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitBucketsTest {
+
+    private static final long INTERVAL = 100;
+    private static final long BURST = 3;
+    private static final long TOLERANCE = INTERVAL * BURST;
+
+    @Test
+    void allowsTheBurstThenRejects() {
+        long now = 1_000_000;
+        RateLimitChannelInterceptor.Buckets buckets = new RateLimitChannelInterceptor.Buckets(now);
+        for (int i = 0; i < BURST; i++) {
+            assertTrue(buckets.tryAcquire(0, now, INTERVAL, TOLERANCE), "frame " + i);
+        }
+        assertFalse(buckets.tryAcquire(0, now, INTERVAL, TOLERANCE));
+        // A rejection takes nothing, so the next token arrives after exactly one interval
+        assertFalse(buckets.tryAcquire(0, now + INTERVAL - 1, INTERVAL, TOLERANCE));
+        assertTrue(buckets.tryAcquire(0, now + INTERVAL, INTERVAL, TOLERANCE));
+        assertFalse(buckets.tryAcquire(0, now + INTERVAL, INTERVAL, TOLERANCE));
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() {
+        long now = 0;
+        RateLimitChannelInterceptor.Buckets buckets = new RateLimitChannelInterceptor.Buckets(now);
+        int accepted = 0;
+        // One attempt every quarter interval for 100 intervals
+        for (long t = now; t < now + 100 * INTERVAL; t += INTERVAL / 4) {
+            if (buckets.tryAcquire(0, t, INTERVAL, TOLERANCE)) {
+                accepted++;
+            }
+        }
+        assertEquals(100 + BURST - 1, accepted);
+    }
+
+    @Test
+    void limitsAreIndependent() {
+        long now = 0;
+        RateLimitChannelInterceptor.Buckets buckets = new RateLimitChannelInterceptor.Buckets(now);
+        while (buckets.tryAcquire(0, now, INTERVAL, TOLERANCE)) {
+            // Drain the first limit
+        }
+        assertTrue(buckets.tryAcquire(1, now, INTERVAL, TOLERANCE));
+    }
+
+    @Test
+    void isFullOnlyOnceEveryLimitHasRefilled() {
+        long now = 0;
+        RateLimitChannelInterceptor.Buckets buckets = new RateLimitChannelInterceptor.Buckets(now);
+        assertTrue(buckets.isFull(now));
+        buckets.tryAcquire(0, now, INTERVAL, TOLERANCE);
+        buckets.tryAcquire(0, now, INTERVAL, TOLERANCE);
+        assertFalse(buckets.isFull(now + INTERVAL));
+        assertTrue(buckets.isFull(now + 2 * INTERVAL));
+    }
+
+    @Test
+    void concurrentAcquiresNeverExceedTheBurst() throws Exception {
+        long now = 0;
+        RateLimitChannelInterceptor.Buckets buckets = new RateLimitChannelInterceptor.Buckets(now);
+        long burst = 1000;
+        AtomicInteger accepted = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int t = 0; t < 8; t++) {
+                pool.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 500; i++) {
+                        if (buckets.tryAcquire(0, now, INTERVAL, INTERVAL * burst)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            start.countDown();
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        assertEquals(burst, accepted.get());
+    }
+}
@@ -0,0 +1,134 @@
+package com.chatapp.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReplicaRoutingDataSourceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private HikariDataSource primaryPool;
+    private ReplicaRoutingDataSource routing;
+    private ReadYourWritesTracker readYourWritesTracker;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate writes;
+    private TransactionTemplate reads;
+
+    @BeforeEach
+    void setUp() {
+        primaryPool = pool("primary", "jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1");
+        HikariDataSource replicaPool = pool("replica-1", "jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1");
+        label(primaryPool, "primary");
+        label(replicaPool, "replica");
+
+        readYourWritesTracker = new ReadYourWritesTracker();
+        ReflectionTestUtils.setField(readYourWritesTracker, "windowMillis", 2000L);
+        routing = new ReplicaRoutingDataSource(primaryPool, List.of(replicaPool), readYourWritesTracker, 60000);
+        routing.bindTo(meterRegistry);
+
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routing);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        writes = new TransactionTemplate(transactionManager);
+        reads = new TransactionTemplate(transactionManager);
+        reads.setReadOnly(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+        routing.close();
+        primaryPool.close();
+    }
+
+    @Test
+    void readOnlyTransactionsGoToTheReplica() {
+        assertEquals("replica", reads.execute(status -> whoAmI()));
+        assertEquals(1.0, routed("replica", "read"));
+    }
+
+    @Test
+    void writesGoToThePrimary() {
+        assertEquals("primary", writes.execute(status -> {
+            jdbcTemplate.update("UPDATE who_am_i SET name = name");
+            return whoAmI();
+        }));
+    }
+
+    @Test
+    void readsAfterTheUsersOwnWriteGoToThePrimary() {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken("alice", null, Collections.emptyList()));
+        readYourWritesTracker.recordWrite("alice");
+
+        assertEquals("primary", reads.execute(status -> whoAmI()));
+        assertEquals(1.0, routed("primary", "read-your-writes"));
+    }
+
+    @Test
+    void connectionsWithCredentialsComeFromThePrimary() throws Exception {
+        // Hikari itself refuses per-call credentials, so the primary here is unpooled
+        JdbcDataSource unpooled = h2("jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1");
+        HikariDataSource replicaPool = pool("replica-2", "jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1");
+        ReplicaRoutingDataSource credentialRouting = new ReplicaRoutingDataSource(unpooled, List.of(replicaPool),
+                readYourWritesTracker, 60000);
+        try (Connection connection = credentialRouting.getConnection("sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT name FROM who_am_i")) {
+            resultSet.next();
+            assertEquals("primary", resultSet.getString(1));
+        } finally {
+            credentialRouting.close();
+        }
+    }
+
+    private String whoAmI() {
+        return jdbcTemplate.queryForObject("SELECT name FROM who_am_i", String.class);
+    }
+
+    private double routed(String target, String reason) {
+        return meterRegistry.counter("chat.datasource.routed", "target", target, "reason", reason).count();
+    }
+
+    private static HikariDataSource pool(String name, String url) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName(name);
+        pool.setDataSource(h2(url));
+        pool.setMaximumPoolSize(2);
+        return pool;
+    }
+
+    private static JdbcDataSource h2(String url) {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL(url);
+        h2.setUser("sa");
+        return h2;
+    }
+
+    private static void label(DataSource dataSource, String name) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS who_am_i (name VARCHAR(20))");
+        jdbcTemplate.update("DELETE FROM who_am_i");
+        jdbcTemplate.update("INSERT INTO who_am_i (name) VALUES (?)", name);
+    }
+}
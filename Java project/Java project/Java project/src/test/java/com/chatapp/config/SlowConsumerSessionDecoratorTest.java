@@ -0,0 +1,205 @@
+package com.chatapp.config;
+
+import com.chatapp.config.SlowConsumerSessionDecorator.SlowConsumerPolicy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SlowConsumerSessionDecoratorTest {
+
+    private static final String ROOM = "/topic/room/1";
+    private static final String PRESENCE = "/topic/presence";
+    // Long enough that only the buffer-size limit is ever hit
+    private static final int SEND_TIME_LIMIT = 60_000;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<String> delivered = new CopyOnWriteArrayList<>();
+    private final CountDownLatch sending = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicBoolean blocked = new AtomicBoolean();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private WebSocketSession delegate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        delegate = mock(WebSocketSession.class);
+        when(delegate.getId()).thenReturn("s1");
+        when(delegate.isOpen()).thenReturn(true);
+        // The first frame blocks inside the socket write, as it would for a client that stopped reading
+        doAnswer(invocation -> {
+            TextMessage message = invocation.getArgument(0);
+            if (blocked.compareAndSet(false, true)) {
+                sending.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+            delivered.add(bodyOf(message));
+            return null;
+        }).when(delegate).sendMessage(any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        writer.shutdownNow();
+    }
+
+    @Test
+    void dropOldestDiscardsTheOldestBufferedFrames() throws Exception {
+        SlowConsumerSessionDecorator session = decorator(SlowConsumerPolicy.DROP_OLDEST, 3 * frameSize(ROOM, "m1"));
+        Future<?> inFlight = sendBlocked(session, frame(ROOM, "m1"));
+
+        for (int i = 2; i <= 6; i++) {
+            session.sendMessage(frame(ROOM, "m" + i));
+        }
+        assertEquals(3 * frameSize(ROOM, "m1"), session.getBufferSize());
+
+        release.countDown();
+        inFlight.get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("m1", "m4", "m5", "m6"), delivered);
+        assertEquals(0, session.getBufferSize());
+        assertEquals(2.0, shed("dropped"));
+    }
+
+    @Test
+    void coalesceKeepsTheNewestPresenceFrameAndEveryChatMessage() throws Exception {
+        SlowConsumerSessionDecorator session = decorator(SlowConsumerPolicy.COALESCE, 3 * frameSize(PRESENCE, "p1"));
+        Future<?> inFlight = sendBlocked(session, frame(ROOM, "m1"));
+
+        session.sendMessage(frame(PRESENCE, "p1"));
+        session.sendMessage(frame(PRESENCE, "p2"));
+        session.sendMessage(frame(PRESENCE, "p3"));
+        session.sendMessage(frame(ROOM, "m2"));
+
+        release.countDown();
+        inFlight.get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("m1", "p3", "m2"), delivered);
+        assertEquals(2.0, shed("coalesced"));
+    }
+
+    @Test
+    void coalesceDisconnectsWhenOnlyChatMessagesAreBuffered() throws Exception {
+        SlowConsumerSessionDecorator session = decorator(SlowConsumerPolicy.COALESCE, 3 * frameSize(ROOM, "m1"));
+        Future<?> inFlight = sendBlocked(session, frame(ROOM, "m1"));
+
+        session.sendMessage(frame(ROOM, "m2"));
+        session.sendMessage(frame(ROOM, "m3"));
+        session.sendMessage(frame(ROOM, "m4"));
+        SessionLimitExceededException e = assertThrows(SessionLimitExceededException.class,
+                () -> session.sendMessage(frame(ROOM, "m5")));
+        assertEquals(SlowConsumerSessionDecorator.SLOW_CONSUMER, e.getStatus());
+
+        release.countDown();
+        inFlight.get(10, TimeUnit.SECONDS);
+        // Chat messages are never coalesced away: nothing after the in-flight frame is sent
+        assertEquals(List.of("m1"), delivered);
+        assertEquals(0.0, shed("coalesced"));
+        assertEquals(1.0, meterRegistry.counter("chat.outbound.shed",
+                "action", "disconnected", "reason", "buffer-size").count());
+    }
+
+    @Test
+    void disconnectClosesWithTheSlowConsumerReasonAndIgnoresLaterFrames() throws Exception {
+        SlowConsumerSessionDecorator session = decorator(SlowConsumerPolicy.DISCONNECT, 2 * frameSize(ROOM, "m1"));
+        Future<?> inFlight = sendBlocked(session, frame(ROOM, "m1"));
+
+        session.sendMessage(frame(ROOM, "m2"));
+        session.sendMessage(frame(ROOM, "m3"));
+        SessionLimitExceededException e = assertThrows(SessionLimitExceededException.class,
+                () -> session.sendMessage(frame(ROOM, "m4")));
+        session.sendMessage(frame(ROOM, "m5"));
+        assertEquals(0, session.getBufferSize());
+
+        release.countDown();
+        inFlight.get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("m1"), delivered);
+        assertEquals(SlowConsumerSessionDecorator.SLOW_CONSUMER, e.getStatus());
+        String reason = e.getStatus().getReason();
+        assertTrue(reason.getBytes(StandardCharsets.UTF_8).length <= 123, "close reason must fit a close frame");
+        assertTrue(reason.contains("last-seq"), reason);
+    }
+
+    @Test
+    void framesUnderTheLimitAreDeliveredInOrder() throws Exception {
+        SlowConsumerSessionDecorator session = decorator(SlowConsumerPolicy.DISCONNECT, 10 * frameSize(ROOM, "m1"));
+        Future<?> inFlight = sendBlocked(session, frame(ROOM, "m1"));
+
+        session.sendMessage(frame(ROOM, "m2"));
+        session.sendMessage(frame(ROOM, "m3"));
+
+        release.countDown();
+        inFlight.get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("m1", "m2", "m3"), delivered);
+        assertEquals(0.0, shed("dropped"));
+    }
+
+    @Test
+    void destinationIsReadFromTextAndBinaryFrames() {
+        assertEquals(ROOM, SlowConsumerSessionDecorator.destinationOf(frame(ROOM, "m1")));
+        assertEquals(PRESENCE, SlowConsumerSessionDecorator.destinationOf(
+                new BinaryMessage(stomp(PRESENCE, "p1").getBytes(StandardCharsets.UTF_8))));
+        // A "destination:" line in the body is not a header
+        assertNull(SlowConsumerSessionDecorator.destinationOf(
+                new TextMessage("MESSAGE\nsubscription:sub-0\n\n\ndestination:/topic/x\n\u0000")));
+    }
+
+    private SlowConsumerSessionDecorator decorator(SlowConsumerPolicy policy, int bufferSizeLimit) {
+        return new SlowConsumerSessionDecorator(delegate, SEND_TIME_LIMIT, bufferSizeLimit, policy,
+                destination -> destination.startsWith(PRESENCE), meterRegistry);
+    }
+
+    private Future<?> sendBlocked(SlowConsumerSessionDecorator session, TextMessage message) throws Exception {
+        Future<?> future = writer.submit(() -> {
+            session.sendMessage(message);
+            return null;
+        });
+        assertTrue(sending.await(10, TimeUnit.SECONDS), "first frame never reached the socket");
+        return future;
+    }
+
+    private double shed(String action) {
+        return meterRegistry.counter("chat.outbound.shed", "action", action, "reason", "buffer-size").count();
+    }
+
+    private static TextMessage frame(String destination, String body) {
+        return new TextMessage(stomp(destination, body));
+    }
+
+    private static int frameSize(String destination, String body) {
+        return frame(destination, body).getPayloadLength();
+    }
+
+    private static String stomp(String destination, String body) {
+        return "MESSAGE\ndestination:" + destination + "\nsubscription:sub-0\n\n" + body + "\u0000";
+    }
+
+    private static String bodyOf(WebSocketMessage<?> message) {
+        String frame = (String) message.getPayload();
+        return frame.substring(frame.indexOf("\n\n") + 2, frame.length() - 1);
+    }
+}
@@ -0,0 +1,139 @@
+package com.chatapp.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.StompSubProtocolErrorHandler;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StripedInboundExecutorTest {
+
+    // Four slots with a headroom of two: a blocked lane admits three more SENDs
+    private static final int LANE_CAPACITY = 4;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicBoolean blocked = new AtomicBoolean();
+    private final List<String> handled = new CopyOnWriteArrayList<>();
+    private final List<Message<?>> dropped = new CopyOnWriteArrayList<>();
+
+    private StripedInboundExecutor executor;
+    private ExecutorSubscribableChannel channel;
+    private StompSubProtocolHandler stompHandler;
+    private WebSocketSession session;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        executor = new StripedInboundExecutor(1, LANE_CAPACITY, dropped::add, meterRegistry);
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.initialize();
+        channel = new ExecutorSubscribableChannel(executor);
+        channel.addInterceptor(executor.admission());
+        channel.subscribe(message -> {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+            handled.add(accessor.getMessageType() + " " + accessor.getDestination());
+            // Only the first frame holds the lane
+            if (blocked.compareAndSet(false, true)) {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        stompHandler = new StompSubProtocolHandler();
+        stompHandler.setErrorHandler(new StompSubProtocolErrorHandler());
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("s1");
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+        when(session.isOpen()).thenReturn(true);
+        stompHandler.afterSessionStarted(session, channel);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    void sendForAFullLaneIsDroppedWithoutClosingTheSession() throws Exception {
+        send("first");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        send("second");
+        send("third");
+        send("fourth");
+
+        assertTimeoutPreemptively(Duration.ofMillis(200), () -> send("fifth"));
+
+        assertEquals(1, dropped.size());
+        assertEquals("fifth", new String((byte[]) dropped.get(0).getPayload()));
+        assertEquals(1.0, meterRegistry.counter("chat.inbound.rejected").count());
+        verify(session, never()).sendMessage(any(WebSocketMessage.class));
+        verify(session, never()).close(any(CloseStatus.class));
+
+        release.countDown();
+        waitForHandled(4);
+        assertEquals(4, handled.size());
+    }
+
+    @Test
+    void subscriptionsAreNeverDropped() throws Exception {
+        send("first");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < LANE_CAPACITY + 2; i++) {
+            subscribe("/topic/room." + i);
+        }
+
+        release.countDown();
+        waitForHandled(LANE_CAPACITY + 3);
+        assertTrue(dropped.isEmpty());
+        assertEquals(2.0, meterRegistry.counter("chat.inbound.overflowed").count());
+    }
+
+    private void waitForHandled(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, handled.size());
+    }
+
+    private void send(String body) {
+        stompHandler.handleMessageFromClient(session, new TextMessage(
+                "SEND\ndestination:/app/chat.room.1\ncontent-length:" + body.length() + "\n\n" + body + "\0"), channel);
+    }
+
+    private void subscribe(String destination) {
+        stompHandler.handleMessageFromClient(session, new TextMessage(
+                "SUBSCRIBE\nid:" + destination + "\ndestination:" + destination + "\n\n\0"), channel);
+    }
+}
@@ -0,0 +1,128 @@
+package com.chatapp.controller;
+
+import com.chatapp.config.ReadYourWritesTracker;
+import com.chatapp.model.Message;
+import com.chatapp.payload.request.ChatMessage;
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.AttachmentService;
+import com.chatapp.service.ChatLookupCache;
+import com.chatapp.service.MessagePersistenceService;
+import com.chatapp.service.MessageReplayLog;
+import com.chatapp.service.MessageSearchIndex;
+import com.chatapp.service.RecentMessageCache;
+import com.chatapp.service.RoomBroadcastBatcher;
+import com.chatapp.service.TypingIndicatorService;
+import com.chatapp.service.UnreadCounterService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ChatControllerTest {
+
+    private static final long ALICE_ID = 1;
+    private static final long MALLORY_ID = 2;
+    private static final long ROOM_ID = 10;
+    private static final long ALICES_ATTACHMENT = 100;
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+    @Mock
+    private ChatLookupCache chatLookupCache;
+    @Mock
+    private MessagePersistenceService messagePersistenceService;
+    @Mock
+    private RecentMessageCache recentMessageCache;
+    @Mock
+    private UnreadCounterService unreadCounterService;
+    @Mock
+    private TypingIndicatorService typingIndicatorService;
+    @Mock
+    private RoomBroadcastBatcher roomBroadcastBatcher;
+    @Mock
+    private MessageReplayLog messageReplayLog;
+    @Mock
+    private MessageSearchIndex messageSearchIndex;
+    @Mock
+    private ReadYourWritesTracker readYourWritesTracker;
+    @Mock
+    private AttachmentService attachmentService;
+
+    @InjectMocks
+    private ChatController chatController;
+
+    @Test
+    void fakedSenderCannotShareSomeoneElsesAttachmentWithARoom() {
+        lenient().when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(true);
+        lenient().when(chatLookupCache.findUserId("alice")).thenReturn(Optional.of(ALICE_ID));
+
+        chatController.sendRoomMessage(ROOM_ID, message("alice", ALICES_ATTACHMENT), session(MALLORY_ID, "mallory"));
+
+        verify(attachmentService, never()).share(anyLong(), any(), any(), any());
+        verify(messagePersistenceService, never()).persist(any(Message.class));
+    }
+
+    @Test
+    void fakedSenderCannotShareSomeoneElsesAttachmentInPrivate() {
+        lenient().when(chatLookupCache.findUserId("alice")).thenReturn(Optional.of(ALICE_ID));
+        lenient().when(chatLookupCache.findUserId("mallory")).thenReturn(Optional.of(MALLORY_ID));
+
+        chatController.sendPrivateMessage("mallory", message("alice", ALICES_ATTACHMENT), session(MALLORY_ID, "mallory"));
+
+        verify(attachmentService, never()).share(anyLong(), any(), any(), any());
+        verify(messagePersistenceService, never()).persist(any(Message.class));
+    }
+
+    @Test
+    void unauthenticatedSessionCannotSend() {
+        lenient().when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(true);
+        lenient().when(chatLookupCache.findUserId("alice")).thenReturn(Optional.of(ALICE_ID));
+
+        chatController.sendRoomMessage(ROOM_ID, message("alice", null), null);
+
+        verify(messagePersistenceService, never()).persist(any(Message.class));
+    }
+
+    @Test
+    void attachmentIsSharedAsTheSessionUser() {
+        when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(true);
+        when(attachmentService.share(ALICES_ATTACHMENT, ALICE_ID, ROOM_ID, null)).thenReturn(false);
+
+        chatController.sendRoomMessage(ROOM_ID, message("alice", ALICES_ATTACHMENT), session(ALICE_ID, "alice"));
+
+        verify(attachmentService).share(eq(ALICES_ATTACHMENT), eq(ALICE_ID), eq(ROOM_ID), isNull());
+        // The service refused, so nothing is posted
+        verify(messagePersistenceService, never()).persist(any(Message.class));
+    }
+
+    private static ChatMessage message(String sender, Long attachmentId) {
+        ChatMessage message = new ChatMessage();
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setSender(sender);
+        message.setContent("hello");
+        message.setAttachmentId(attachmentId);
+        return message;
+    }
+
+    private static Principal session(long userId, String username) {
+        UserDetailsImpl user = new UserDetailsImpl(userId, username, username + "@example.com", null, Collections.emptyList());
+        return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+    }
+}
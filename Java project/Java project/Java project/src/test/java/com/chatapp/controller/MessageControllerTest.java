@@ -0,0 +1,244 @@
+package com.chatapp.controller;
+
+import com.chatapp.payload.response.MessagePage;
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.ChatLookupCache;
+import com.chatapp.service.MessageExportService;
+import com.chatapp.service.MessageHistoryService;
+import com.chatapp.service.RoomMembershipIndex;
+import com.chatapp.service.UnreadCounterService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MessageControllerTest {
+
+    private static final long USER_ID = 10;
+    private static final long ROOM_ID = 1;
+
+    @Mock
+    private MessageHistoryService messageHistoryService;
+    @Mock
+    private ChatLookupCache chatLookupCache;
+    @Mock
+    private RoomMembershipIndex roomMembershipIndex;
+    @Mock
+    private UnreadCounterService unreadCounterService;
+    @Mock
+    private MessageExportService messageExportService;
+
+    @InjectMocks
+    private MessageController messageController;
+
+    @BeforeEach
+    void setUp() {
+        UserDetailsImpl user = new UserDetailsImpl(USER_ID, "alice", "alice@example.com", null, Collections.emptyList());
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void roomHistoryOfAPrivateRoomIsForbiddenToNonMembers() {
+        when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(true);
+        when(roomMembershipIndex.canAccess(ROOM_ID, USER_ID)).thenReturn(false);
+
+        ResponseEntity<?> response = messageController.getRoomMessages(ROOM_ID, null, null, 50);
+
+        assertEquals(HttpStatus.FORBIDDEN, response.getStatusCode());
+        verifyNoInteractions(messageHistoryService);
+    }
+
+    @Test
+    void roomHistoryOfAnUnknownRoomIsNotFound() {
+        when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(false);
+
+        ResponseEntity<?> response = messageController.getRoomMessages(ROOM_ID, null, null, 50);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        verifyNoInteractions(messageHistoryService);
+    }
+
+    @Test
+    void roomHistoryIsServedToMembers() {
+        MessagePage page = new MessagePage(new ArrayList<>(), null, false);
+        when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(true);
+        when(roomMembershipIndex.canAccess(ROOM_ID, USER_ID)).thenReturn(true);
+        when(messageHistoryService.getRoomHistory(any(), any(), any(), anyInt())).thenReturn(page);
+
+        ResponseEntity<?> response = messageController.getRoomMessages(ROOM_ID, null, null, 50);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(page, response.getBody());
+    }
+
+    @Test
+    void markingAnUnknownRoomReadIsNotFound() {
+        when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(false);
+
+        ResponseEntity<?> response = messageController.markRoomRead(ROOM_ID, 100L);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        verifyNoInteractions(unreadCounterService);
+    }
+
+    @Test
+    void markingAPrivateRoomReadIsForbiddenToNonMembers() {
+        when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(true);
+        when(roomMembershipIndex.canAccess(ROOM_ID, USER_ID)).thenReturn(false);
+
+        ResponseEntity<?> response = messageController.markRoomRead(ROOM_ID, 100L);
+
+        assertEquals(HttpStatus.FORBIDDEN, response.getStatusCode());
+        verifyNoInteractions(unreadCounterService);
+    }
+
+    @Test
+    void membersCanMarkARoomRead() {
+        when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(true);
+        when(roomMembershipIndex.canAccess(ROOM_ID, USER_ID)).thenReturn(true);
+
+        ResponseEntity<?> response = messageController.markRoomRead(ROOM_ID, 100L);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        verify(unreadCounterService).markRoomRead(USER_ID, ROOM_ID, 100L);
+    }
+
+    @Test
+    void exportSlotIsReleasedOnceWhenTheBodyRuns() throws Exception {
+        MockHttpServletRequest request = asyncRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        StreamingResponseBody body = startRoomExport(request, response);
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+        asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+        asyncManager.setTaskExecutor(new SimpleAsyncTaskExecutor() {
+            @Override
+            public <T> Future<T> submit(Callable<T> task) {
+                FutureTask<T> future = new FutureTask<>(task);
+                future.run();
+                return future;
+            }
+        });
+
+        asyncManager.startCallableProcessing(() -> {
+            body.writeTo(response.getOutputStream());
+            return null;
+        });
+        request.getAsyncContext().complete();
+
+        verify(messageExportService, times(1)).release();
+    }
+
+    @Test
+    void exportSlotIsReleasedWhenTheBodyNeverRuns() throws Exception {
+        MockHttpServletRequest request = asyncRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        startRoomExport(request, response);
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+        asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+        asyncManager.setTaskExecutor(new SimpleAsyncTaskExecutor() {
+            @Override
+            public <T> Future<T> submit(Callable<T> task) {
+                throw new TaskRejectedException("Export executor is full");
+            }
+        });
+
+        asyncManager.startCallableProcessing(() -> null);
+        request.getAsyncContext().complete();
+
+        verify(messageExportService).release();
+    }
+
+    @Test
+    void exportSlotIsReleasedOnceWhenTheRequestTimesOutBeforeTheBodyRuns() throws Exception {
+        MockHttpServletRequest request = asyncRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        StreamingResponseBody body = startRoomExport(request, response);
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+        asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+        // Queued behind other work, so the body has not started when the request times out
+        asyncManager.setTaskExecutor(new SimpleAsyncTaskExecutor() {
+            @Override
+            public <T> Future<T> submit(Callable<T> task) {
+                return new FutureTask<>(task);
+            }
+        });
+
+        asyncManager.startCallableProcessing(() -> null);
+        MockAsyncContext asyncContext = (MockAsyncContext) request.getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+        asyncContext.complete();
+        verify(messageExportService).release();
+
+        // A body that still starts late does not give the slot back a second time
+        body.writeTo(new ByteArrayOutputStream());
+        verify(messageExportService, times(1)).release();
+    }
+
+    private StreamingResponseBody startRoomExport(MockHttpServletRequest request, MockHttpServletResponse response)
+            throws IOException {
+        when(chatLookupCache.roomExists(ROOM_ID)).thenReturn(true);
+        when(roomMembershipIndex.canAccess(ROOM_ID, USER_ID)).thenReturn(true);
+        when(messageExportService.tryAcquire()).thenReturn(true);
+        lenient().when(messageExportService.exportRoom(eq(ROOM_ID), anyLong(), any())).thenReturn(0L);
+
+        ResponseEntity<StreamingResponseBody> export = messageController.exportRoomMessages(ROOM_ID, 0, request, response);
+
+        assertEquals(HttpStatus.OK, export.getStatusCode());
+        verify(messageExportService, never()).release();
+        return export.getBody();
+    }
+
+    private static MockHttpServletRequest asyncRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/messages/room/" + ROOM_ID + "/export");
+        request.setAsyncSupported(true);
+        return request;
+    }
+}
@@ -0,0 +1,254 @@
+package com.chatapp.controller;
+
+import com.chatapp.config.ReadYourWritesTracker;
+import com.chatapp.payload.request.ChatMessage;
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.service.AttachmentService;
+import com.chatapp.service.ChatLookupCache;
+import com.chatapp.service.MessagePersistenceService;
+import com.chatapp.service.MessageReplayLog;
+import com.chatapp.service.MessageSearchIndex;
+import com.chatapp.service.RecentMessageCache;
+import com.chatapp.service.RoomBroadcastBatcher;
+import com.chatapp.service.TypingIndicatorService;
+import com.chatapp.service.UnreadCounterService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Sends room messages through ChatController, with write-behind persistence into H2 acknowledged
+ * on commit, first alone and then while a thousand users each send a typing frame per keystroke.
+ * Typing frames never reach the persistence path and are throttled to one broadcast per window,
+ * so message throughput and latency should barely move.
+ *
+ * Run with {@code mvn test -Pbenchmark -Dtest=TypingIndicatorLoadTest}; -Dbenchmark.seconds=...
+ * sets the length of each phase.
+ */
+@Tag("benchmark")
+class TypingIndicatorLoadTest {
+
+    private static final long PHASE_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("benchmark.seconds", 5));
+    private static final int ROOMS = 10;
+    private static final int SENDER_THREADS = 4;
+    private static final int TYPIST_THREADS = 8;
+    private static final int TYPISTS = 1_000;
+    // A fast typist; every keystroke sends a typing frame
+    private static final int KEYSTROKES_PER_SECOND = 10;
+    private static final long TYPING_WINDOW_MILLIS = 2_000;
+
+    private final AtomicLong typingBroadcasts = new AtomicLong();
+
+    private JdbcTemplate jdbcTemplate;
+    private MessagePersistenceService persistenceService;
+    private TypingIndicatorService typingIndicatorService;
+    private ChatController chatController;
+
+    @BeforeEach
+    void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:typing_load;DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("DROP TABLE IF EXISTS messages");
+        jdbcTemplate.execute("CREATE TABLE messages (id BIGINT PRIMARY KEY, sender_id BIGINT NOT NULL, " +
+                "receiver_id BIGINT, chat_room_id BIGINT, conversation_key VARCHAR(41), content VARCHAR(1000) NOT NULL, " +
+                "sent_at TIMESTAMP, is_read BOOLEAN, attachment_id BIGINT)");
+
+        persistenceService = new MessagePersistenceService();
+        ReflectionTestUtils.setField(persistenceService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(persistenceService, "transactionManager", new DataSourceTransactionManager(dataSource));
+        ReflectionTestUtils.setField(persistenceService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(persistenceService, "nodeId", 1L);
+        ReflectionTestUtils.setField(persistenceService, "mode", MessagePersistenceService.Mode.WRITE_BEHIND);
+        ReflectionTestUtils.setField(persistenceService, "ackPolicy", MessagePersistenceService.AckPolicy.ON_FLUSH);
+        ReflectionTestUtils.setField(persistenceService, "queueCapacity", 10_000);
+        ReflectionTestUtils.setField(persistenceService, "batchSize", 500);
+        ReflectionTestUtils.setField(persistenceService, "pollIntervalMs", 50L);
+        ReflectionTestUtils.setField(persistenceService, "offerTimeoutMs", 100L);
+        ReflectionTestUtils.setField(persistenceService, "ackTimeoutMs", 5000L);
+        persistenceService.init();
+
+        // Typing frames are converted to JSON like on the real broker channel, then discarded
+        SimpMessagingTemplate typingTemplate = new SimpMessagingTemplate((message, timeout) -> {
+            typingBroadcasts.incrementAndGet();
+            return true;
+        });
+        typingTemplate.setMessageConverter(new MappingJackson2MessageConverter());
+        typingIndicatorService = new TypingIndicatorService();
+        ReflectionTestUtils.setField(typingIndicatorService, "messagingTemplate", typingTemplate);
+        ReflectionTestUtils.setField(typingIndicatorService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(typingIndicatorService, "windowMillis", TYPING_WINDOW_MILLIS);
+        ReflectionTestUtils.setField(typingIndicatorService, "ttlMillis", 5_000L);
+        ReflectionTestUtils.setField(typingIndicatorService, "maxEntries", 100_000);
+        typingIndicatorService.init();
+
+        ChatLookupCache chatLookupCache = stub(ChatLookupCache.class);
+        when(chatLookupCache.roomExists(anyLong())).thenReturn(true);
+        chatController = new ChatController();
+        ReflectionTestUtils.setField(chatController, "messagingTemplate", stub(SimpMessagingTemplate.class));
+        ReflectionTestUtils.setField(chatController, "chatLookupCache", chatLookupCache);
+        ReflectionTestUtils.setField(chatController, "messagePersistenceService", persistenceService);
+        ReflectionTestUtils.setField(chatController, "recentMessageCache", stub(RecentMessageCache.class));
+        ReflectionTestUtils.setField(chatController, "unreadCounterService", stub(UnreadCounterService.class));
+        ReflectionTestUtils.setField(chatController, "typingIndicatorService", typingIndicatorService);
+        ReflectionTestUtils.setField(chatController, "roomBroadcastBatcher", stub(RoomBroadcastBatcher.class));
+        ReflectionTestUtils.setField(chatController, "messageReplayLog", stub(MessageReplayLog.class));
+        ReflectionTestUtils.setField(chatController, "messageSearchIndex", stub(MessageSearchIndex.class));
+        ReflectionTestUtils.setField(chatController, "readYourWritesTracker", stub(ReadYourWritesTracker.class));
+        ReflectionTestUtils.setField(chatController, "attachmentService", stub(AttachmentService.class));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        typingIndicatorService.shutdown();
+        persistenceService.shutdown();
+    }
+
+    @Test
+    void typingStormLeavesMessagePersistenceAlone() throws Exception {
+        // Warms up the JIT and the H2 table, so the first measured phase is not the slower one
+        Phase warmup = run(false);
+        Phase quiet = run(false);
+        Phase storm = run(true);
+
+        System.out.printf("Without typing: %s%n", quiet);
+        System.out.printf("With typing   : %s, %,d typing frames in, %,d broadcast%n",
+                storm, storm.typingFrames, typingBroadcasts.get());
+
+        assertEquals(warmup.messages + quiet.messages + storm.messages,
+                jdbcTemplate.queryForObject("SELECT COUNT(*) FROM messages", Long.class));
+        // One broadcast per typist and window at most, however many frames arrive
+        long windows = PHASE_MILLIS / TYPING_WINDOW_MILLIS + 1;
+        assertTrue(typingBroadcasts.get() <= TYPISTS * windows, "typing broadcasts were not throttled");
+        assertTrue(storm.typingFrames > typingBroadcasts.get());
+        assertTrue(storm.messagesPerSecond() >= quiet.messagesPerSecond() / 2,
+                "typing load halved message throughput");
+    }
+
+    private Phase run(boolean typing) throws Exception {
+        int threads = SENDER_THREADS + (typing ? TYPIST_THREADS : 0);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong typingFrames = new AtomicLong();
+        try {
+            List<Future<List<Long>>> senders = new ArrayList<>();
+            for (int t = 0; t < SENDER_THREADS; t++) {
+                int thread = t;
+                senders.add(pool.submit(() -> {
+                    Principal principal = session(thread + 1, "sender" + thread);
+                    List<Long> latencies = new ArrayList<>();
+                    start.await();
+                    long end = System.currentTimeMillis() + PHASE_MILLIS;
+                    while (System.currentTimeMillis() < end) {
+                        ChatMessage message = new ChatMessage();
+                        message.setType(ChatMessage.MessageType.CHAT);
+                        message.setSender("sender" + thread);
+                        message.setContent("message " + latencies.size());
+                        long sent = System.nanoTime();
+                        chatController.sendRoomMessage((long) (latencies.size() % ROOMS), message, principal);
+                        latencies.add(System.nanoTime() - sent);
+                    }
+                    return latencies;
+                }));
+            }
+            List<Future<?>> typists = new ArrayList<>();
+            for (int t = 0; typing && t < TYPIST_THREADS; t++) {
+                int thread = t;
+                typists.add(pool.submit(() -> {
+                    // Each thread plays its share of the typists, one keystroke each per round
+                    List<Principal> users = new ArrayList<>();
+                    for (int u = thread; u < TYPISTS; u += TYPIST_THREADS) {
+                        users.add(session(10_000 + u, "typist" + u));
+                    }
+                    long roundMillis = 1000 / KEYSTROKES_PER_SECOND;
+                    start.await();
+                    long end = System.currentTimeMillis() + PHASE_MILLIS;
+                    long frames = 0;
+                    for (long round = System.currentTimeMillis(); round < end; round += roundMillis) {
+                        for (int u = 0; u < users.size(); u++) {
+                            chatController.typing((long) (u % ROOMS), users.get(u));
+                        }
+                        frames += users.size();
+                        Thread.sleep(Math.max(0, round + roundMillis - System.currentTimeMillis()));
+                    }
+                    typingFrames.addAndGet(frames);
+                    return null;
+                }));
+            }
+            start.countDown();
+
+            List<Long> latencies = new ArrayList<>();
+            for (Future<List<Long>> sender : senders) {
+                latencies.addAll(sender.get(PHASE_MILLIS + 30_000, TimeUnit.MILLISECONDS));
+            }
+            for (Future<?> typist : typists) {
+                typist.get(PHASE_MILLIS + 30_000, TimeUnit.MILLISECONDS);
+            }
+            return new Phase(latencies, typingFrames.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> T stub(Class<T> type) {
+        // Stub-only mocks keep no invocation history, which would grow with every message
+        return mock(type, withSettings().stubOnly());
+    }
+
+    private static Principal session(long userId, String username) {
+        UserDetailsImpl user = new UserDetailsImpl(userId, username, username + "@example.com", null, Collections.emptyList());
+        return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+    }
+
+    private static final class Phase {
+        private final long messages;
+        private final long typingFrames;
+        private final long p50Micros;
+        private final long p99Micros;
+
+        private Phase(List<Long> latencies, long typingFrames) {
+            Collections.sort(latencies);
+            this.messages = latencies.size();
+            this.typingFrames = typingFrames;
+            this.p50Micros = latencies.isEmpty() ? 0 : latencies.get(latencies.size() / 2) / 1000;
+            this.p99Micros = latencies.isEmpty() ? 0 : latencies.get((int) (latencies.size() * 0.99)) / 1000;
+        }
+
+        private double messagesPerSecond() {
+            return messages * 1000.0 / PHASE_MILLIS;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d messages (%,.0f/s), persist p50 %,d us, p99 %,d us",
+                    messages, messagesPerSecond(), p50Micros, p99Micros);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.chatapp.model.id;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Insert throughput of IDENTITY keys against Snowflake ids, issuing the same JDBC calls Hibernate does:
+ * with IDENTITY every persist is its own INSERT followed by getGeneratedKeys, so hibernate.jdbc.batch_size
+ * is ignored; with an assigned Snowflake id the inserts are sent in batches of that size.
+ *
+ * Run with {@code mvn test -Pbenchmark -Dtest=MessageInsertBenchmark}. Defaults to in-memory H2, where
+ * there is no network round trip; pass -Dbenchmark.jdbc.url=... (plus .user/.password) to measure a real
+ * database, and -Dbenchmark.rows=... to change the row count.
+ */
+@Tag("benchmark")
+class MessageInsertBenchmark {
+
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 50_000);
+    private static final int BATCH_SIZE = 50; // spring.jpa.properties.hibernate.jdbc.batch_size
+    private static final int WARMUP_ROWS = 5_000;
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(System.getProperty("benchmark.jdbc.url", "jdbc:h2:mem:insert_benchmark;DB_CLOSE_DELAY=-1"));
+        dataSource.setUser(System.getProperty("benchmark.jdbc.user", "sa"));
+        dataSource.setPassword(System.getProperty("benchmark.jdbc.password", ""));
+        connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS bench_identity_messages");
+            statement.execute("DROP TABLE IF EXISTS bench_snowflake_messages");
+            statement.execute("CREATE TABLE bench_identity_messages (id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                    + "sender_id BIGINT NOT NULL, chat_room_id BIGINT, content VARCHAR(255) NOT NULL, sent_at TIMESTAMP)");
+            statement.execute("CREATE TABLE bench_snowflake_messages (id BIGINT PRIMARY KEY, "
+                    + "sender_id BIGINT NOT NULL, chat_room_id BIGINT, content VARCHAR(255) NOT NULL, sent_at TIMESTAMP)");
+        }
+        connection.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE bench_identity_messages");
+            statement.execute("DROP TABLE bench_snowflake_messages");
+        }
+        connection.commit();
+        connection.close();
+    }
+
+    @Test
+    void identityVersusSnowflakeInserts() throws SQLException {
+        insertWithIdentity(WARMUP_ROWS);
+        insertWithSnowflake(SnowflakeIdGenerator.forNode(1), WARMUP_ROWS);
+
+        long identityNanos = insertWithIdentity(ROWS);
+        long snowflakeNanos = insertWithSnowflake(SnowflakeIdGenerator.forNode(1), ROWS);
+
+        System.out.printf("IDENTITY : %,d rows in %,d ms (%,.0f rows/s)%n",
+                ROWS, identityNanos / 1_000_000, rowsPerSecond(identityNanos));
+        System.out.printf("Snowflake: %,d rows in %,d ms (%,.0f rows/s, batch size %d)%n",
+                ROWS, snowflakeNanos / 1_000_000, rowsPerSecond(snowflakeNanos), BATCH_SIZE);
+
+        assertEquals(WARMUP_ROWS + ROWS, count("bench_identity_messages"));
+        assertEquals(WARMUP_ROWS + ROWS, count("bench_snowflake_messages"));
+    }
+
+    private long insertWithIdentity(int rows) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO bench_identity_messages (sender_id, chat_room_id, content, sent_at) VALUES (?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < rows; i++) {
+                bind(insert, 1, i);
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                    keys.getLong(1);
+                }
+            }
+        }
+        connection.commit();
+        return System.nanoTime() - start;
+    }
+
+    private long insertWithSnowflake(SnowflakeIdGenerator generator, int rows) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO bench_snowflake_messages (id, sender_id, chat_room_id, content, sent_at) VALUES (?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+                insert.setLong(1, generator.nextId());
+                bind(insert, 2, i);
+                insert.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        return System.nanoTime() - start;
+    }
+
+    private static void bind(PreparedStatement insert, int firstIndex, int i) throws SQLException {
+        insert.setLong(firstIndex, 1 + i % 100);
+        insert.setLong(firstIndex + 1, 1 + i % 10);
+        insert.setString(firstIndex + 2, "benchmark message " + i);
+        insert.setTimestamp(firstIndex + 3, new Timestamp(System.currentTimeMillis()));
+    }
+
+    private long count(String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            result.next();
+            return result.getLong(1);
+        }
+    }
+
+    private static double rowsPerSecond(long nanos) {
+        return ROWS * 1_000_000_000.0 / nanos;
+    }
+}
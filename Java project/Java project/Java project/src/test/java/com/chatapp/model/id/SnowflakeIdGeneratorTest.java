@@ -0,0 +1,89 @@
+package com.chatapp.model.id;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final int THREADS = 16;
+    private static final int IDS_PER_THREAD = 50_000;
+
+    @Test
+    void concurrentIdsAreUniqueAndIncreasingPerThread() throws Exception {
+        SnowflakeIdGenerator generator = SnowflakeIdGenerator.forNode(17);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                Callable<long[]> task = () -> {
+                    start.await();
+                    long[] ids = new long[IDS_PER_THREAD];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = generator.nextId();
+                    }
+                    return ids;
+                };
+                results.add(pool.submit(task));
+            }
+            start.countDown();
+
+            Set<Long> all = new HashSet<>(THREADS * IDS_PER_THREAD * 2);
+            for (Future<long[]> result : results) {
+                long[] ids = result.get();
+                for (int i = 0; i < ids.length; i++) {
+                    if (i > 0) {
+                        assertTrue(ids[i] > ids[i - 1], "ids of one thread must increase");
+                    }
+                    assertTrue(all.add(ids[i]), "duplicate id " + ids[i]);
+                }
+            }
+            assertEquals(THREADS * IDS_PER_THREAD, all.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void idsCarryNodeAndTimestamp() {
+        long before = System.currentTimeMillis();
+        long id = SnowflakeIdGenerator.forNode(5).nextId();
+        long after = System.currentTimeMillis();
+
+        assertEquals(5, (id >>> 12) & SnowflakeIdGenerator.MAX_NODE_ID);
+        // The sequence may borrow a millisecond ahead under load
+        long timestamp = SnowflakeIdGenerator.timestampMillis(id);
+        assertTrue(timestamp >= before && timestamp <= after + 1);
+        assertTrue(SnowflakeIdGenerator.minIdAt(timestamp) <= id);
+        assertTrue(SnowflakeIdGenerator.minIdAt(timestamp + 1) > id);
+    }
+
+    @Test
+    void nodesShareNoIds() {
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(ids.add(SnowflakeIdGenerator.forNode(1).nextId()));
+            assertTrue(ids.add(SnowflakeIdGenerator.forNode(2).nextId()));
+        }
+    }
+
+    @Test
+    void rejectsNodeIdsOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> SnowflakeIdGenerator.forNode(-1));
+        assertThrows(IllegalArgumentException.class,
+                () -> SnowflakeIdGenerator.forNode(SnowflakeIdGenerator.MAX_NODE_ID + 1));
+    }
+}
@@ -0,0 +1,77 @@
+package com.chatapp.security.jwt;
+
+import com.chatapp.security.services.UserDetailsImpl;
+import com.chatapp.security.services.UserDetailsServiceImpl;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class JwtPrincipalResolverTest {
+
+    @Mock
+    private UserDetailsServiceImpl userDetailsService;
+
+    @InjectMocks
+    private JwtPrincipalResolver resolver;
+
+    @Test
+    void principalIsBuiltFromClaimsWithoutALookup() {
+        ReflectionTestUtils.setField(resolver, "claimsPrincipalEnabled", true);
+        Claims claims = Jwts.claims().setSubject("alice");
+        claims.put(JwtUtils.USER_ID_CLAIM, 10);
+        claims.put(JwtUtils.EMAIL_CLAIM, "alice@example.com");
+        claims.put(JwtUtils.ROLES_CLAIM, List.of("ROLE_USER", "ROLE_ADMIN"));
+
+        UserDetailsImpl principal = (UserDetailsImpl) resolver.resolve(claims);
+
+        assertEquals(10L, principal.getId());
+        assertEquals("alice", principal.getUsername());
+        assertEquals("alice@example.com", principal.getEmail());
+        assertEquals(List.of("ROLE_USER", "ROLE_ADMIN"), principal.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority).collect(Collectors.toList()));
+        verifyNoInteractions(userDetailsService);
+    }
+
+    @Test
+    void tokenWithoutClaimsIsLoadedFromTheDatabase() {
+        ReflectionTestUtils.setField(resolver, "claimsPrincipalEnabled", true);
+        UserDetails loaded = user();
+        when(userDetailsService.loadUserByUsername("alice")).thenReturn(loaded);
+
+        assertSame(loaded, resolver.resolve(Jwts.claims().setSubject("alice")));
+    }
+
+    @Test
+    void claimsAreIgnoredWhenDisabled() {
+        ReflectionTestUtils.setField(resolver, "claimsPrincipalEnabled", false);
+        UserDetails loaded = user();
+        when(userDetailsService.loadUserByUsername("alice")).thenReturn(loaded);
+        Claims claims = Jwts.claims().setSubject("alice");
+        claims.put(JwtUtils.USER_ID_CLAIM, 10);
+        claims.put(JwtUtils.ROLES_CLAIM, List.of("ROLE_ADMIN"));
+
+        assertSame(loaded, resolver.resolve(claims));
+    }
+
+    private static UserDetails user() {
+        return new UserDetailsImpl(10L, "alice", "alice@example.com", "hash",
+                List.of(new SimpleGrantedAuthority("ROLE_USER")));
+    }
+}
@@ -0,0 +1,152 @@
+package com.chatapp.service;
+
+import com.chatapp.attachment.AttachmentStore;
+import com.chatapp.model.Attachment;
+import com.chatapp.repository.AttachmentRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AttachmentServiceTest {
+
+    private static final Long ALICE = 1L;
+
+    @TempDir
+    Path directory;
+
+    private AttachmentStore attachmentStore;
+    private AttachmentRepository attachmentRepository;
+    private AttachmentService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        attachmentStore = new AttachmentStore();
+        ReflectionTestUtils.setField(attachmentStore, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(attachmentStore, "directory", directory.toString());
+        attachmentStore.init();
+        attachmentRepository = mock(AttachmentRepository.class);
+        when(attachmentRepository.findByUploaderIdAndSha256(anyLong(), anyString())).thenReturn(Optional.empty());
+        when(attachmentRepository.save(any(Attachment.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        service = new AttachmentService();
+        ReflectionTestUtils.setField(service, "attachmentStore", attachmentStore);
+        ReflectionTestUtils.setField(service, "attachmentRepository", attachmentRepository);
+        ReflectionTestUtils.setField(service, "userQuotaBytes", 100L);
+    }
+
+    @Test
+    void uploadThatFitsIsStored() throws IOException {
+        when(attachmentRepository.sumSizeByUploaderId(ALICE)).thenReturn(60L);
+
+        Attachment attachment = service.upload(ALICE, file("notes.txt", 40));
+
+        assertEquals(40, attachment.getSize());
+        assertTrue(Files.exists(attachmentStore.path(attachment.getSha256())));
+    }
+
+    @Test
+    void oversizedUploadIsNotWritten() throws IOException {
+        when(attachmentRepository.sumSizeByUploaderId(ALICE)).thenReturn(60L);
+
+        assertThrows(AttachmentService.QuotaExceededException.class, () -> service.upload(ALICE, file("notes.txt", 41)));
+
+        assertEquals(0, blobCount());
+    }
+
+    @Test
+    void concurrentUploadsCannotTogetherExceedTheQuota() throws IOException {
+        when(attachmentRepository.sumSizeByUploaderId(ALICE)).thenReturn(40L);
+        MockMultipartFile second = file("second.txt", 35);
+        // The second upload starts while the first is being stored
+        MockMultipartFile first = new MockMultipartFile("file", "first.txt", "text/plain", content(35)) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                assertThrows(AttachmentService.QuotaExceededException.class, () -> service.upload(ALICE, second));
+                return super.getInputStream();
+            }
+        };
+
+        service.upload(ALICE, first);
+
+        assertEquals(1, blobCount());
+        // Released once the first upload is done
+        when(attachmentRepository.sumSizeByUploaderId(ALICE)).thenReturn(0L);
+        service.upload(ALICE, second);
+    }
+
+    @Test
+    void refusedUploadDeletesTheBlobItStored() throws IOException {
+        when(attachmentRepository.sumSizeByUploaderId(ALICE)).thenReturn(60L);
+
+        assertThrows(AttachmentService.QuotaExceededException.class, () -> service.upload(ALICE, understated(70)));
+
+        assertEquals(0, blobCount());
+    }
+
+    @Test
+    void refusedUploadKeepsABlobThatWasAlreadyStored() throws IOException {
+        AttachmentStore.StoredBlob existing = attachmentStore.store(new ByteArrayInputStream(content(70)));
+        when(attachmentRepository.sumSizeByUploaderId(ALICE)).thenReturn(60L);
+
+        assertThrows(AttachmentService.QuotaExceededException.class, () -> service.upload(ALICE, understated(70)));
+
+        assertTrue(Files.exists(attachmentStore.path(existing.getSha256())));
+        verify(attachmentRepository, never()).existsBySha256(anyString());
+    }
+
+    @Test
+    void refusedUploadKeepsABlobAnotherAttachmentUses() throws IOException {
+        when(attachmentRepository.sumSizeByUploaderId(ALICE)).thenReturn(60L);
+        when(attachmentRepository.existsBySha256(anyString())).thenReturn(true);
+
+        assertThrows(AttachmentService.QuotaExceededException.class, () -> service.upload(ALICE, understated(70)));
+
+        assertEquals(1, blobCount());
+    }
+
+    // A file whose content is larger than the size it declared, so only the check after storing refuses it
+    private static MockMultipartFile understated(int size) {
+        return new MockMultipartFile("file", "big.bin", "application/octet-stream", content(size)) {
+            @Override
+            public long getSize() {
+                return 10;
+            }
+        };
+    }
+
+    private static MockMultipartFile file(String name, int size) {
+        return new MockMultipartFile("file", name, "text/plain", content(size));
+    }
+
+    private static byte[] content(int size) {
+        return "x".repeat(size).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private long blobCount() throws IOException {
+        try (Stream<Path> files = Files.walk(directory.resolve("blobs"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
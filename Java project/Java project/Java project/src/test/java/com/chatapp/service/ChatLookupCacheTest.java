@@ -0,0 +1,155 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ChatLookupCacheTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private ChatRoomRepository chatRoomRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @InjectMocks
+    private ChatLookupCache cache;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+        ReflectionTestUtils.setField(cache, "maxNegativeEntries", 2);
+        ReflectionTestUtils.setField(cache, "roomTtlMillis", 60000L);
+        ReflectionTestUtils.setField(cache, "brokerMode", WebSocketConfig.BrokerMode.SIMPLE);
+        cache.init();
+    }
+
+    @Test
+    void unknownUsernamesDoNotEvictKnownOnes() {
+        when(userRepository.findIdByUsername(anyString())).thenReturn(Optional.empty());
+        when(userRepository.findIdByUsername("alice")).thenReturn(Optional.of(1L));
+        cache.findUserId("alice");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Optional.empty(), cache.findUserId("probe-" + i));
+        }
+
+        assertEquals(Optional.of(1L), cache.findUserId("alice"));
+        verify(userRepository, times(1)).findIdByUsername("alice");
+    }
+
+    @Test
+    void leastRecentlyUsedUserIsEvicted() {
+        when(userRepository.findIdByUsername("alice")).thenReturn(Optional.of(1L));
+        when(userRepository.findIdByUsername("bob")).thenReturn(Optional.of(2L));
+        when(userRepository.findIdByUsername("carol")).thenReturn(Optional.of(3L));
+        cache.findUserId("alice");
+        cache.findUserId("bob");
+        cache.findUserId("alice");
+        cache.findUserId("carol");
+
+        cache.findUserId("alice");
+        cache.findUserId("bob");
+
+        verify(userRepository, times(1)).findIdByUsername("alice");
+        verify(userRepository, times(2)).findIdByUsername("bob");
+    }
+
+    @Test
+    void signupInvalidatesAnUnknownUsername() {
+        when(userRepository.findIdByUsername("alice")).thenReturn(Optional.empty(), Optional.of(1L));
+        assertEquals(Optional.empty(), cache.findUserId("alice"));
+        assertEquals(Optional.empty(), cache.findUserId("alice"));
+
+        cache.invalidateUser("alice");
+
+        assertEquals(Optional.of(1L), cache.findUserId("alice"));
+    }
+
+    @Test
+    void deletedRoomsStayWithinTheBound() {
+        when(chatRoomRepository.existsById(anyLong())).thenReturn(false);
+        cache.roomCreated(1L);
+        for (long id = 10; id < 20; id++) {
+            cache.roomDeleted(id);
+        }
+
+        assertTrue(cache.roomExists(1L));
+        assertFalse(cache.roomExists(19L));
+        verifyNoInteractions(chatRoomRepository);
+        // Evicted from the missing rooms, so read again
+        assertFalse(cache.roomExists(10L));
+        verify(chatRoomRepository).existsById(10L);
+    }
+
+    @Test
+    void deletingARoomForgetsIt() {
+        cache.roomCreated(1L);
+        cache.roomDeleted(1L);
+
+        assertFalse(cache.roomExists(1L));
+        verifyNoInteractions(chatRoomRepository);
+    }
+
+    @Test
+    void multipleNodesDoNotCacheUnknownUsers() {
+        multiNode(60000);
+        when(userRepository.findIdByUsername("alice")).thenReturn(Optional.empty(), Optional.of(1L));
+        assertEquals(Optional.empty(), cache.findUserId("alice"));
+
+        // Signed up through another node, so nothing here invalidated the miss
+        assertEquals(Optional.of(1L), cache.findUserId("alice"));
+    }
+
+    @Test
+    void multipleNodesRecheckRoomsAfterTheTtl() {
+        multiNode(0);
+        cache.roomCreated(1L);
+        // Deleted through another node
+        when(chatRoomRepository.existsById(1L)).thenReturn(false);
+
+        assertFalse(cache.roomExists(1L));
+        assertFalse(cache.roomExists(1L));
+        verify(chatRoomRepository, times(2)).existsById(1L);
+    }
+
+    @Test
+    void multipleNodesCacheExistingRoomsWithinTheTtl() {
+        multiNode(60000);
+        when(chatRoomRepository.existsById(1L)).thenReturn(true);
+
+        assertTrue(cache.roomExists(1L));
+        assertTrue(cache.roomExists(1L));
+        verify(chatRoomRepository, times(1)).existsById(1L);
+    }
+
+    private void multiNode(long roomTtlMillis) {
+        ReflectionTestUtils.setField(cache, "roomTtlMillis", roomTtlMillis);
+        ReflectionTestUtils.setField(cache, "brokerMode", WebSocketConfig.BrokerMode.CLUSTER);
+        cache.init();
+    }
+}
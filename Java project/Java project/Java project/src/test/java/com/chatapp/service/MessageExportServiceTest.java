@@ -0,0 +1,140 @@
+package com.chatapp.service;
+
+import com.chatapp.archive.MessageArchive;
+import com.chatapp.payload.response.MessageDto;
+import com.chatapp.repository.MessageRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageExportServiceTest {
+
+    private static final Long ROOM_ID = 1L;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private MessageArchive messageArchive;
+    private MessageRepository messageRepository;
+    private MessageExportService service;
+
+    // Ids 1..3 start out archived, 4..10 in the database
+    private final AtomicLong archivedUpTo = new AtomicLong(3);
+    private final AtomicLong deletedUpTo = new AtomicLong(3);
+
+    @BeforeEach
+    void setUp() {
+        messageArchive = mock(MessageArchive.class);
+        messageRepository = mock(MessageRepository.class);
+        service = new MessageExportService();
+        ReflectionTestUtils.setField(service, "messageArchive", messageArchive);
+        ReflectionTestUtils.setField(service, "messageRepository", messageRepository);
+        ReflectionTestUtils.setField(service, "transactionManager", mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(service, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "flushEvery", 500);
+        ReflectionTestUtils.setField(service, "archiveBatchSize", 2);
+        ReflectionTestUtils.setField(service, "maxConcurrent", 2);
+        service.init();
+
+        when(messageArchive.lastArchivedId(ROOM_ID)).thenAnswer(invocation -> archivedUpTo.get());
+        when(messageArchive.after(eq(ROOM_ID), anyLong(), anyInt())).thenAnswer(invocation -> {
+            long after = invocation.getArgument(1);
+            int limit = invocation.getArgument(2);
+            return range(after + 1, archivedUpTo.get()).stream().limit(limit).collect(Collectors.toList());
+        });
+        when(messageRepository.streamRoomAfter(eq(ROOM_ID), anyLong())).thenAnswer(invocation -> {
+            long after = invocation.getArgument(1);
+            return range(Math.max(after, deletedUpTo.get()) + 1, 10).stream();
+        });
+    }
+
+    @Test
+    void exportsArchiveThenDatabase() throws IOException {
+        assertEquals(ids(1, 10), export(0));
+        assertEquals(ids(6, 10), export(5));
+    }
+
+    @Test
+    void segmentSealedAfterTheArchiveWasReadIsNotSkipped() throws IOException {
+        // The archiver seals and deletes 4..6 right after the export found no more archived rows
+        when(messageArchive.after(eq(ROOM_ID), anyLong(), anyInt())).thenAnswer(invocation -> {
+            long after = invocation.getArgument(1);
+            List<MessageDto> rows = range(after + 1, archivedUpTo.get());
+            if (rows.isEmpty() && archivedUpTo.get() == 3) {
+                archivedUpTo.set(6);
+                deletedUpTo.set(6);
+            }
+            return rows;
+        });
+        assertEquals(ids(1, 10), export(0));
+    }
+
+    @Test
+    void segmentSealedBeforeTheQueryRanIsReadFromTheArchive() throws IOException {
+        // The query runs after 4..6 were sealed and deleted, so it starts at 7
+        when(messageRepository.streamRoomAfter(eq(ROOM_ID), anyLong())).thenAnswer(invocation -> {
+            long after = invocation.getArgument(1);
+            if (archivedUpTo.get() == 3) {
+                archivedUpTo.set(6);
+                deletedUpTo.set(6);
+            }
+            return range(Math.max(after, deletedUpTo.get()) + 1, 10).stream();
+        });
+        assertEquals(ids(1, 10), export(0));
+    }
+
+    @Test
+    void slotsAreLimited() {
+        assertTrue(service.tryAcquire());
+        assertTrue(service.tryAcquire());
+        assertFalse(service.tryAcquire());
+        service.release();
+        assertTrue(service.tryAcquire());
+    }
+
+    private List<Long> export(long after) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = service.exportRoom(ROOM_ID, after, out);
+        List<Long> ids = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            ids.add(objectMapper.readTree(line).get("id").asLong());
+        }
+        assertEquals(ids.size(), written);
+        return ids;
+    }
+
+    private static List<Long> ids(long first, long last) {
+        return LongStream.rangeClosed(first, last).boxed().collect(Collectors.toList());
+    }
+
+    private static List<MessageDto> range(long first, long last) {
+        List<MessageDto> messages = new ArrayList<>();
+        for (long id = first; id <= last; id++) {
+            messages.add(new MessageDto(id, "alice", null, ROOM_ID, "message " + id,
+                    LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(id), false));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,140 @@
+package com.chatapp.service;
+
+import com.chatapp.model.Message;
+import com.chatapp.repository.MessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class MessagePersistenceServiceTest {
+
+    private final CountDownLatch writerEntered = new CountDownLatch(1);
+    private final CountDownLatch releaseWriter = new CountDownLatch(1);
+    private final MessageRepository messageRepository = mock(MessageRepository.class);
+
+    private JdbcTemplate jdbcTemplate;
+    private MessagePersistenceService service;
+
+    @BeforeEach
+    void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:persistence;DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("DROP TABLE IF EXISTS messages");
+        jdbcTemplate.execute("CREATE TABLE messages (id BIGINT PRIMARY KEY, sender_id BIGINT NOT NULL, " +
+                "receiver_id BIGINT, chat_room_id BIGINT, conversation_key VARCHAR(41), content VARCHAR(1000) NOT NULL, " +
+                "sent_at TIMESTAMP, is_read BOOLEAN, attachment_id BIGINT)");
+
+        // Holds the background writer inside its first batch until released
+        JdbcTemplate gatedJdbcTemplate = new JdbcTemplate(dataSource) {
+            @Override
+            public int[] batchUpdate(String sql, BatchPreparedStatementSetter setter) {
+                if (Thread.currentThread().getName().equals("message-writer")) {
+                    writerEntered.countDown();
+                    try {
+                        releaseWriter.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.batchUpdate(sql, setter);
+            }
+        };
+
+        service = new MessagePersistenceService();
+        ReflectionTestUtils.setField(service, "messageRepository", messageRepository);
+        ReflectionTestUtils.setField(service, "jdbcTemplate", gatedJdbcTemplate);
+        ReflectionTestUtils.setField(service, "transactionManager", new DataSourceTransactionManager(dataSource));
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "nodeId", 1L);
+        ReflectionTestUtils.setField(service, "mode", MessagePersistenceService.Mode.WRITE_BEHIND);
+        ReflectionTestUtils.setField(service, "ackPolicy", MessagePersistenceService.AckPolicy.ON_ENQUEUE);
+        ReflectionTestUtils.setField(service, "queueCapacity", 1);
+        ReflectionTestUtils.setField(service, "batchSize", 100);
+        ReflectionTestUtils.setField(service, "pollIntervalMs", 10L);
+        ReflectionTestUtils.setField(service, "offerTimeoutMs", 10L);
+        ReflectionTestUtils.setField(service, "ackTimeoutMs", 5000L);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        releaseWriter.countDown();
+        service.shutdown();
+    }
+
+    @Test
+    void overflowInsertKeepsTheAssignedId() throws InterruptedException {
+        service.init();
+        service.persist(message("taken by the writer"));
+        assertTrue(writerEntered.await(5, TimeUnit.SECONDS));
+        service.persist(message("fills the queue"));
+
+        Message overflow = message("written by the caller");
+        service.persist(overflow);
+
+        assertNotNull(overflow.getId());
+        assertEquals("written by the caller", jdbcTemplate.queryForObject(
+                "SELECT content FROM messages WHERE id = ?", String.class, overflow.getId()));
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void shutdownDrainsEveryQueuedMessage() throws InterruptedException {
+        ReflectionTestUtils.setField(service, "queueCapacity", 1000);
+        service.init();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Message message = message("message " + i);
+            service.persist(message);
+            ids.add(message.getId());
+        }
+        assertTrue(writerEntered.await(5, TimeUnit.SECONDS));
+
+        releaseWriter.countDown();
+        service.shutdown();
+
+        assertEquals(ids, jdbcTemplate.queryForList("SELECT id FROM messages ORDER BY id", Long.class));
+    }
+
+    @Test
+    void onFlushWaitsForTheCommit() {
+        ReflectionTestUtils.setField(service, "queueCapacity", 1000);
+        ReflectionTestUtils.setField(service, "ackPolicy", MessagePersistenceService.AckPolicy.ON_FLUSH);
+        releaseWriter.countDown();
+        service.init();
+
+        Message message = message("acknowledged");
+        service.persist(message);
+
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM messages WHERE id = ?", Integer.class, message.getId()));
+    }
+
+    private static Message message(String content) {
+        Message message = new Message();
+        message.setSender(ChatLookupCache.userReference(7L));
+        message.setChatRoom(ChatLookupCache.roomReference(3L));
+        message.setContent(content);
+        message.setSentAt(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+        return message;
+    }
+}
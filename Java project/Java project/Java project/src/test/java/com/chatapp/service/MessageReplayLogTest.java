@@ -0,0 +1,158 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.payload.request.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageReplayLogTest {
+
+    private static final String ROOM = MessageReplayLog.roomScope(1L);
+    private static final String OTHER_ROOM = MessageReplayLog.roomScope(2L);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private static MessageReplayLog replayLog(WebSocketConfig.BrokerMode brokerMode, int capacity, int maxScopes,
+                                              SimpleMeterRegistry meterRegistry) {
+        MessageReplayLog log = new MessageReplayLog();
+        ReflectionTestUtils.setField(log, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(log, "enabled", true);
+        ReflectionTestUtils.setField(log, "brokerMode", brokerMode);
+        ReflectionTestUtils.setField(log, "capacity", capacity);
+        ReflectionTestUtils.setField(log, "maxScopes", maxScopes);
+        log.init();
+        return log;
+    }
+
+    @Test
+    void everyScopeIsNumberedWithoutGaps() {
+        MessageReplayLog log = replayLog(WebSocketConfig.BrokerMode.SIMPLE, 10, 10, meterRegistry);
+        List<ChatMessage> room = appendAll(log, ROOM, 3);
+        List<ChatMessage> other = appendAll(log, OTHER_ROOM, 2);
+
+        assertEquals(room.get(0).getSeq() + 1, room.get(1).getSeq());
+        assertEquals(room.get(1).getSeq() + 1, room.get(2).getSeq());
+        assertEquals(other.get(0).getSeq() + 1, other.get(1).getSeq());
+        // Numbers start from the clock, beyond anything handed out before a restart
+        assertTrue(room.get(0).getSeq() >= (System.currentTimeMillis() - 60_000) * 1000);
+    }
+
+    @Test
+    void sinceReturnsExactlyTheMissedMessages() {
+        MessageReplayLog log = replayLog(WebSocketConfig.BrokerMode.SIMPLE, 10, 10, meterRegistry);
+        List<ChatMessage> sent = appendAll(log, ROOM, 4);
+
+        assertEquals(contents(sent.subList(2, 4)), contents(log.since(ROOM, sent.get(1).getSeq())));
+        assertTrue(log.since(ROOM, sent.get(3).getSeq()).isEmpty());
+        assertEquals(2.0, meterRegistry.counter("chat.replay.messages").count());
+    }
+
+    @Test
+    void gapOlderThanTheLogAsksForResync() {
+        MessageReplayLog log = replayLog(WebSocketConfig.BrokerMode.SIMPLE, 3, 10, meterRegistry);
+        List<ChatMessage> sent = appendAll(log, ROOM, 5);
+
+        // The three newest are held, so a client that saw the second message misses nothing
+        assertEquals(contents(sent.subList(2, 5)), contents(log.since(ROOM, sent.get(1).getSeq())));
+        assertNull(log.since(ROOM, sent.get(0).getSeq()));
+        assertEquals(1.0, meterRegistry.counter("chat.replay.resyncs").count());
+    }
+
+    @Test
+    void sequenceAheadOfTheLogOrUnknownScopeAsksForResync() {
+        MessageReplayLog log = replayLog(WebSocketConfig.BrokerMode.SIMPLE, 10, 10, meterRegistry);
+        List<ChatMessage> sent = appendAll(log, ROOM, 2);
+
+        // Seen before a restart, or from a room whose log was evicted
+        assertNull(log.since(ROOM, sent.get(1).getSeq() + 1));
+        assertNull(log.since(OTHER_ROOM, 1));
+        assertEquals(2.0, meterRegistry.counter("chat.replay.resyncs").count());
+    }
+
+    @Test
+    void leastRecentlyUsedScopeIsEvicted() {
+        MessageReplayLog log = replayLog(WebSocketConfig.BrokerMode.SIMPLE, 10, 2, meterRegistry);
+        ChatMessage first = appendAll(log, ROOM, 1).get(0);
+        appendAll(log, OTHER_ROOM, 1);
+        log.since(ROOM, first.getSeq());
+        appendAll(log, MessageReplayLog.roomScope(3L), 1);
+
+        assertEquals(2, log.size());
+        assertTrue(log.since(ROOM, first.getSeq()).isEmpty());
+        assertNull(log.since(OTHER_ROOM, 0));
+    }
+
+    @Test
+    void messagesAreSentInSequenceOrderAcrossThreads() throws Exception {
+        MessageReplayLog log = replayLog(WebSocketConfig.BrokerMode.SIMPLE, 10, 10, meterRegistry);
+        List<Long> sentSeqs = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> senders = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                senders.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 500; i++) {
+                        ChatMessage message = new ChatMessage();
+                        // Only one thread at a time sends for a scope, so the plain list is safe
+                        log.append(ROOM, message, () -> sentSeqs.add(message.getSeq()));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> sender : senders) {
+                sender.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(4000, sentSeqs.size());
+        for (int i = 1; i < sentSeqs.size(); i++) {
+            assertEquals(sentSeqs.get(i - 1) + 1, sentSeqs.get(i));
+        }
+    }
+
+    @Test
+    void multipleNodesSendWithoutNumbering() {
+        MessageReplayLog log = replayLog(WebSocketConfig.BrokerMode.CLUSTER, 10, 10, meterRegistry);
+        ChatMessage message = new ChatMessage();
+        boolean[] sent = {false};
+        log.append(ROOM, message, () -> sent[0] = true);
+
+        assertFalse(log.isEnabled());
+        assertTrue(sent[0]);
+        assertNull(message.getSeq());
+        assertEquals(0, log.size());
+    }
+
+    private static List<ChatMessage> appendAll(MessageReplayLog log, String scope, int count) {
+        List<ChatMessage> sent = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setContent(scope + " #" + i);
+            log.append(scope, message, () -> sent.add(message));
+        }
+        return sent;
+    }
+
+    private static List<String> contents(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::getContent).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,47 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.model.Message;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageSearchIndexTest {
+
+    @Test
+    void enabledOnASingleNode() {
+        assertTrue(index(WebSocketConfig.BrokerMode.SIMPLE).isEnabled());
+    }
+
+    @Test
+    void disabledWhenMessagesCanArriveThroughOtherNodes() {
+        for (WebSocketConfig.BrokerMode mode : new WebSocketConfig.BrokerMode[] {
+                WebSocketConfig.BrokerMode.RELAY, WebSocketConfig.BrokerMode.CLUSTER}) {
+            MessageSearchIndex index = index(mode);
+            assertFalse(index.isEnabled(), mode.name());
+
+            Message message = new Message();
+            message.setId(1L);
+            message.setChatRoom(ChatLookupCache.roomReference(3L));
+            message.setContent("hello");
+            // Nothing to queue into
+            index.index(message);
+            assertTrue(index.search(MessageSearchIndex.roomScope(3L), "hello", 10).isEmpty());
+        }
+    }
+
+    private static MessageSearchIndex index(WebSocketConfig.BrokerMode mode) {
+        MessageSearchIndex index = new MessageSearchIndex();
+        ReflectionTestUtils.setField(index, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "brokerMode", mode);
+        ReflectionTestUtils.setField(index, "queueCapacity", 16);
+        ReflectionTestUtils.setField(index, "maxResults", 100);
+        ReflectionTestUtils.setField(index, "maxQueryTerms", 8);
+        index.init();
+        return index;
+    }
+}
@@ -0,0 +1,105 @@
+package com.chatapp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PostingListTest {
+
+    @Test
+    void cursorWalksSealedBlocksAndTailNewestFirst() {
+        // Crosses several 128-document blocks with gaps that need multi-byte varints
+        TreeSet<Integer> docs = new TreeSet<>();
+        for (int doc = 0; docs.size() < 1000; doc += 1 + (docs.size() % 7 == 0 ? 300 : 3)) {
+            docs.add(doc);
+        }
+        MessageSearchIndex.PostingList list = postingList(docs);
+        MessageSearchIndex.Cursor cursor = new MessageSearchIndex.Cursor(list);
+        for (int target = docs.last() + 5; target >= -1; target -= 2) {
+            Integer floor = docs.floor(target);
+            assertEquals(floor == null ? -1 : floor, cursor.floor(target), "floor of " + target);
+        }
+    }
+
+    @Test
+    void cursorSkipsToFarTargets() {
+        TreeSet<Integer> docs = new TreeSet<>();
+        for (int doc = 0; doc < 100_000; doc += 3) {
+            docs.add(doc);
+        }
+        MessageSearchIndex.Cursor cursor = new MessageSearchIndex.Cursor(postingList(docs));
+        assertEquals(99_999, cursor.floor(Integer.MAX_VALUE));
+        assertEquals(50_001, cursor.floor(50_002));
+        assertEquals(129, cursor.floor(130));
+        assertEquals(0, cursor.floor(2));
+        assertEquals(-1, cursor.floor(-1));
+    }
+
+    @Test
+    void repeatedDocumentIsPostedOnce() {
+        MessageSearchIndex.PostingList list = new MessageSearchIndex.PostingList();
+        list.add(4);
+        list.add(4);
+        list.add(9);
+        assertEquals(Arrays.asList(9, 4),
+                MessageSearchIndex.intersectNewestFirst(Collections.singletonList(list), 10));
+    }
+
+    @Test
+    void intersectionMatchesSetIntersection() {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            List<TreeSet<Integer>> sets = new ArrayList<>();
+            List<MessageSearchIndex.PostingList> lists = new ArrayList<>();
+            int terms = 2 + random.nextInt(3);
+            for (int t = 0; t < terms; t++) {
+                // Terms of very different frequency, as with a rare word and a busy room
+                int every = 1 + random.nextInt(t == 0 ? 3 : 40);
+                TreeSet<Integer> docs = new TreeSet<>();
+                for (int doc = 0; doc < 20_000; doc++) {
+                    if (random.nextInt(every) == 0) {
+                        docs.add(doc);
+                    }
+                }
+                sets.add(docs);
+                lists.add(postingList(docs));
+            }
+            TreeSet<Integer> expected = new TreeSet<>(sets.get(0));
+            for (TreeSet<Integer> docs : sets) {
+                expected.retainAll(docs);
+            }
+            List<Integer> newestFirst = new ArrayList<>(expected.descendingSet());
+
+            assertEquals(newestFirst, MessageSearchIndex.intersectNewestFirst(lists, 20_000));
+            int limit = 1 + random.nextInt(50);
+            assertEquals(newestFirst.subList(0, Math.min(limit, newestFirst.size())),
+                    MessageSearchIndex.intersectNewestFirst(lists, limit));
+        }
+    }
+
+    @Test
+    void disjointListsHaveNoHits() {
+        TreeSet<Integer> even = new TreeSet<>();
+        TreeSet<Integer> odd = new TreeSet<>();
+        for (int doc = 0; doc < 1000; doc++) {
+            (doc % 2 == 0 ? even : odd).add(doc);
+        }
+        assertEquals(Collections.emptyList(),
+                MessageSearchIndex.intersectNewestFirst(Arrays.asList(postingList(even), postingList(odd)), 10));
+    }
+
+    private static MessageSearchIndex.PostingList postingList(TreeSet<Integer> docs) {
+        MessageSearchIndex.PostingList list = new MessageSearchIndex.PostingList();
+        for (int doc : docs) {
+            list.add(doc);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,227 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.payload.response.PresenceUpdate;
+import com.chatapp.security.services.UserDetailsImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.security.Principal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class PresenceServiceTest {
+
+    private static final String UPDATE_SQL =
+            "UPDATE users SET is_online = ?, last_login = COALESCE(?, last_login) WHERE id = ?";
+    // The timers never fire during a test; rounds are run by hand
+    private static final long NEVER = 3_600_000;
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @InjectMocks
+    private PresenceService service;
+
+    private void start(WebSocketConfig.BrokerMode brokerMode) {
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "brokerMode", brokerMode);
+        ReflectionTestUtils.setField(service, "broadcastIntervalMillis", NEVER);
+        ReflectionTestUtils.setField(service, "flushIntervalMillis", NEVER);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void changesWithinOneIntervalArePublishedAsOneFrame() {
+        start(WebSocketConfig.BrokerMode.SIMPLE);
+        service.onConnected(connected("s1", 1L, "alice"));
+        service.onConnected(connected("s2", 2L, "bob"));
+        service.onConnected(connected("s3", 3L, "carol"));
+        service.onDisconnect(disconnect("s3"));
+        // Back within the same interval: carol's latest state is online
+        service.onConnected(connected("s4", 3L, "carol"));
+
+        broadcast();
+
+        ArgumentCaptor<PresenceUpdate> update = ArgumentCaptor.forClass(PresenceUpdate.class);
+        verify(messagingTemplate, times(1)).convertAndSend(eq("/topic/presence"), update.capture());
+        assertEquals(Set.of("alice", "bob", "carol"), Set.copyOf(update.getValue().getOnline()));
+        assertTrue(update.getValue().getOffline().isEmpty());
+
+        // Nothing changed since, so the next round sends nothing
+        broadcast();
+        verify(messagingTemplate, times(1)).convertAndSend(anyString(), (Object) any());
+    }
+
+    @Test
+    void userStaysOnlineUntilTheLastSessionCloses() {
+        start(WebSocketConfig.BrokerMode.SIMPLE);
+        service.onConnected(connected("s1", 1L, "alice"));
+        service.onConnected(connected("s2", 1L, "alice"));
+        broadcast();
+
+        service.onDisconnect(disconnect("s1"));
+        assertTrue(service.isOnline("alice"));
+        broadcast();
+        verify(messagingTemplate, times(1)).convertAndSend(eq("/topic/presence"), (Object) any());
+
+        service.onDisconnect(disconnect("s2"));
+        // Spring can publish a second disconnect event for the same session
+        service.onDisconnect(disconnect("s2"));
+        assertFalse(service.isOnline("alice"));
+        broadcast();
+
+        ArgumentCaptor<PresenceUpdate> update = ArgumentCaptor.forClass(PresenceUpdate.class);
+        verify(messagingTemplate, times(2)).convertAndSend(eq("/topic/presence"), update.capture());
+        assertEquals(List.of("alice"), update.getValue().getOffline());
+    }
+
+    @Test
+    void flagsAreWrittenInOneBatchWithTheLatestStatePerUser() {
+        start(WebSocketConfig.BrokerMode.SIMPLE);
+        service.onConnected(connected("s1", 1L, "alice"));
+        service.onConnected(connected("s2", 2L, "bob"));
+        service.onDisconnect(disconnect("s2"));
+
+        flush();
+
+        List<Object[]> batch = capturedBatch(1);
+        assertEquals(2, batch.size());
+        batch.sort(Comparator.comparing(row -> (Long) row[2]));
+        assertEquals(true, batch.get(0)[0]);
+        assertNotNull(batch.get(0)[1]);
+        assertEquals(1L, batch.get(0)[2]);
+        // bob went offline again, but the login time of his connect is still written
+        assertEquals(false, batch.get(1)[0]);
+        assertTrue(batch.get(1)[1] instanceof Timestamp);
+        assertEquals(2L, batch.get(1)[2]);
+
+        // Written rows are not sent again
+        flush();
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(UPDATE_SQL), ArgumentMatchers.<List<Object[]>>any());
+    }
+
+    @Test
+    void shutdownMarksConnectedUsersOffline() {
+        start(WebSocketConfig.BrokerMode.SIMPLE);
+        service.onConnected(connected("s1", 1L, "alice"));
+        flush();
+
+        service.shutdown();
+
+        List<Object[]> batch = capturedBatch(2);
+        assertEquals(1, batch.size());
+        assertEquals(false, batch.get(0)[0]);
+        assertNull(batch.get(0)[1]);
+        assertEquals(1L, batch.get(0)[2]);
+    }
+
+    @Test
+    void roomPresenceFollowsSubscriptions() {
+        start(WebSocketConfig.BrokerMode.SIMPLE);
+        service.onConnected(connected("s1", 1L, "alice"));
+        service.onSubscribe(subscribe("s1", "sub-0", "/topic/room.7"));
+        service.onSubscribe(subscribe("s1", "sub-1", "/topic/room.7.typing"));
+        assertEquals(Set.of("alice"), service.getOnlineInRoom(7L));
+
+        service.onDisconnect(disconnect("s1"));
+        assertTrue(service.getOnlineInRoom(7L).isEmpty());
+    }
+
+    @Test
+    void multipleNodesDisablePresence() {
+        start(WebSocketConfig.BrokerMode.CLUSTER);
+        assertFalse(service.isEnabled());
+
+        service.onConnected(connected("s1", 1L, "alice"));
+        service.resetStaleFlags();
+        service.shutdown();
+
+        assertFalse(service.isOnline("alice"));
+        verifyNoInteractions(jdbcTemplate);
+        verify(messagingTemplate, never()).convertAndSend(anyString(), (Object) any());
+    }
+
+    private void broadcast() {
+        ReflectionTestUtils.invokeMethod(service, "broadcastChanges");
+    }
+
+    private void flush() {
+        ReflectionTestUtils.invokeMethod(service, "flushWrites");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object[]> capturedBatch(int calls) {
+        ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(calls)).batchUpdate(eq(UPDATE_SQL), batch.capture());
+        return new ArrayList<>(batch.getValue());
+    }
+
+    private static SessionConnectedEvent connected(String sessionId, Long userId, String username) {
+        UserDetailsImpl user = new UserDetailsImpl(userId, username, username + "@example.com", "", List.of());
+        Principal principal = new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+        return new SessionConnectedEvent(new Object(), frame(StompCommand.CONNECTED, sessionId, null, null), principal);
+    }
+
+    private static SessionDisconnectEvent disconnect(String sessionId) {
+        return new SessionDisconnectEvent(new Object(), frame(StompCommand.DISCONNECT, sessionId, null, null),
+                sessionId, CloseStatus.NORMAL);
+    }
+
+    private static SessionSubscribeEvent subscribe(String sessionId, String subscriptionId, String destination) {
+        return new SessionSubscribeEvent(new Object(), frame(StompCommand.SUBSCRIBE, sessionId, subscriptionId, destination));
+    }
+
+    private static Message<byte[]> frame(StompCommand command, String sessionId, String subscriptionId, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId(sessionId);
+        if (subscriptionId != null) {
+            accessor.setSubscriptionId(subscriptionId);
+            accessor.setDestination(destination);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
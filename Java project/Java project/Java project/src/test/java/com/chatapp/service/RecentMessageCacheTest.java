@@ -0,0 +1,149 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.payload.response.MessageDto;
+import com.chatapp.payload.response.MessagePage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecentMessageCacheTest {
+
+    private static final int CAPACITY = 50;
+    private static final long MAX_BYTES = 100 * RecentMessageCache.overheadBytes(CAPACITY);
+
+    private RecentMessageCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new RecentMessageCache();
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "brokerMode", WebSocketConfig.BrokerMode.SIMPLE);
+        ReflectionTestUtils.setField(cache, "roomCapacity", CAPACITY);
+        ReflectionTestUtils.setField(cache, "maxBytes", MAX_BYTES);
+        cache.init();
+    }
+
+    @Test
+    void emptyRoomsCountTowardsTheCap() {
+        for (long roomId = 1; roomId <= 10_000; roomId++) {
+            cache.warm(roomId, Collections.emptyList(), false, 20);
+        }
+        assertTrue(cache.bytes() <= MAX_BYTES);
+        assertEquals(100, cache.size());
+        // The most recently used rooms are the ones kept
+        assertNotNull(cache.getLatest(10_000L, 20));
+        assertNull(cache.getLatest(1L, 20));
+    }
+
+    @Test
+    void bytesReturnToZeroOnceEverythingIsEvicted() {
+        cache.warm(1L, messages(1L, 80), true, 20);
+        cache.append(2L, messages(2L, 1).get(0));
+        assertTrue(cache.bytes() > 2 * RecentMessageCache.overheadBytes(CAPACITY));
+        cache.evict(1L);
+        cache.evict(2L);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    void warmKeepsTheNewestMessagesOldestFirst() {
+        List<MessageDto> newestFirst = messages(1L, 80);
+        MessagePage page = cache.warm(1L, newestFirst.subList(0, CAPACITY), true, 20);
+        assertEquals(20, page.getMessages().size());
+        assertEquals(80L, page.getMessages().get(19).getId());
+        assertEquals(61L, page.getMessages().get(0).getId());
+        assertTrue(page.isHasMore());
+
+        cache.append(1L, new MessageDto(81L, "alice", null, 1L, "new", LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(81), false));
+        MessagePage latest = cache.getLatest(1L, 20);
+        assertEquals(81L, latest.getMessages().get(19).getId());
+    }
+
+    @Test
+    void coldRoomIsNotServed() {
+        cache.append(1L, messages(1L, 1).get(0));
+        assertNull(cache.getLatest(1L, 20));
+        MessagePage page = cache.warm(1L, Collections.emptyList(), false, 20);
+        assertEquals(1, page.getMessages().size());
+        assertFalse(page.isHasMore());
+    }
+
+    @Test
+    void appendIgnoresMessagesAlreadyBuffered() {
+        cache.warm(1L, messages(1L, 10), false, 20);
+        long bytes = cache.bytes();
+
+        // The newest row was loaded by the warm-up and is appended again by its sender
+        cache.append(1L, message(1L, 10));
+        cache.append(1L, message(1L, 9));
+
+        MessagePage page = cache.getLatest(1L, 20);
+        assertEquals(10, page.getMessages().size());
+        assertEquals(bytes, cache.bytes());
+    }
+
+    @Test
+    void lateAppendIsInsertedInHistoryOrder() {
+        cache.warm(1L, messages(1L, 3), false, 20);
+        cache.append(1L, message(1L, 5));
+        cache.append(1L, message(1L, 4));
+        cache.append(1L, message(1L, 6));
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), ids(cache.getLatest(1L, 20)));
+    }
+
+    @Test
+    void appendOlderThanAFullBufferIsDropped() {
+        List<MessageDto> newestFirst = messages(1L, CAPACITY + 10);
+        cache.warm(1L, newestFirst.subList(0, CAPACITY), true, CAPACITY);
+        long bytes = cache.bytes();
+
+        // Message 5 is older than the 50 held (11..60); message 30 falls inside and is a duplicate
+        cache.append(1L, message(1L, 5));
+        cache.append(1L, message(1L, 30));
+
+        MessagePage page = cache.getLatest(1L, CAPACITY);
+        assertEquals(11L, page.getMessages().get(0).getId());
+        assertEquals(60L, page.getMessages().get(CAPACITY - 1).getId());
+        assertEquals(bytes, cache.bytes());
+        assertTrue(page.isHasMore());
+    }
+
+    private static MessageDto message(Long roomId, long id) {
+        return new MessageDto(id, "alice", null, roomId, "message " + id,
+                LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(id), false);
+    }
+
+    private static List<Long> ids(MessagePage page) {
+        List<Long> ids = new ArrayList<>();
+        for (MessageDto message : page.getMessages()) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+
+    // Ids 1..count of the room, newest first as the history query returns them
+    private static List<MessageDto> messages(Long roomId, int count) {
+        List<MessageDto> messages = new ArrayList<>(count);
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (long id = count; id >= 1; id--) {
+            messages.add(new MessageDto(id, "alice", null, roomId, "message " + id, base.plusSeconds(id), false));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,150 @@
+package com.chatapp.service;
+
+import com.chatapp.payload.request.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class RoomBroadcastBatcherTest {
+
+    private static final Long ROOM_ID = 1L;
+
+    private final AtomicInteger sent = new AtomicInteger();
+    private SimpMessagingTemplate messagingTemplate;
+    private RoomBroadcastBatcher batcher;
+
+    @BeforeEach
+    void setUp() {
+        messagingTemplate = mock(SimpMessagingTemplate.class);
+        doAnswer(invocation -> sent.addAndGet(((List<?>) invocation.getArgument(1)).size()))
+                .when(messagingTemplate).convertAndSend(anyString(), any(Object.class));
+        batcher = new RoomBroadcastBatcher();
+        ReflectionTestUtils.setField(batcher, "messagingTemplate", messagingTemplate);
+        ReflectionTestUtils.setField(batcher, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(batcher, "batchedRooms", List.of("*"));
+        ReflectionTestUtils.setField(batcher, "windowMillis", 5L);
+        ReflectionTestUtils.setField(batcher, "maxLatencyMillis", 20L);
+        ReflectionTestUtils.setField(batcher, "maxSize", 10);
+        batcher.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    @Test
+    void batchIsDroppedOnceItHasBeenSent() throws InterruptedException {
+        batcher.broadcast(ROOM_ID, message("hello"));
+        batcher.broadcast(ROOM_ID, message("there"));
+
+        verify(messagingTemplate, timeout(1000)).convertAndSend(eq("/topic/room.1"), any(Object.class));
+        awaitNoBatches();
+        assertEquals(2, sent.get());
+
+        // The room gets a new batch with its next message
+        batcher.broadcast(ROOM_ID, message("again"));
+        awaitNoBatches();
+        assertEquals(3, sent.get());
+    }
+
+    @Test
+    void batchFlushedAtMaxSizeIsAlsoDropped() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            batcher.broadcast(ROOM_ID, message("message " + i));
+        }
+        assertEquals(10, sent.get());
+
+        awaitNoBatches();
+    }
+
+    @Test
+    void roomDeletedDropsTheBatchButSendsWhatItHolds() throws InterruptedException {
+        batcher.broadcast(ROOM_ID, message("last words"));
+
+        batcher.roomDeleted(ROOM_ID);
+
+        assertTrue(batches().isEmpty());
+        awaitSent(1);
+    }
+
+    @Test
+    void noMessageIsLostWhileBatchesAreDropped() throws InterruptedException {
+        int threads = 4;
+        int perThread = 2_000;
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread sender = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    batcher.broadcast(ROOM_ID + i % 3, message("message " + i));
+                    if (i % 100 == 0) {
+                        sleep(6);
+                    }
+                }
+            });
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        awaitSent(threads * perThread);
+        awaitNoBatches();
+    }
+
+    private void awaitSent(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (sent.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, sent.get());
+    }
+
+    private void awaitNoBatches() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!batches().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(batches().isEmpty());
+    }
+
+    private Map<?, ?> batches() {
+        return (Map<?, ?>) ReflectionTestUtils.getField(batcher, "batches");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ChatMessage message(String content) {
+        ChatMessage message = new ChatMessage();
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setSender("alice");
+        message.setContent(content);
+        message.setChatRoomId(ROOM_ID);
+        return message;
+    }
+}
@@ -0,0 +1,57 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.payload.response.RoomSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RoomDirectoryServiceTest {
+
+    private RoomDirectoryService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new RoomDirectoryService();
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(service, "brokerMode", WebSocketConfig.BrokerMode.SIMPLE);
+    }
+
+    @Test
+    void versionEtagChangesWithTheDirectory() {
+        String before = service.versionEtag("all");
+        assertEquals(before, service.versionEtag("all"));
+        assertNotEquals(before, service.versionEtag("directory:false:null:0:20"));
+
+        service.changed();
+
+        assertNotEquals(before, service.versionEtag("all"));
+    }
+
+    @Test
+    void noVersionEtagWithMoreThanOneNode() {
+        ReflectionTestUtils.setField(service, "brokerMode", WebSocketConfig.BrokerMode.CLUSTER);
+        assertNull(service.versionEtag("all"));
+        ReflectionTestUtils.setField(service, "brokerMode", WebSocketConfig.BrokerMode.RELAY);
+        assertNull(service.versionEtag("all"));
+    }
+
+    @Test
+    void contentEtagFollowsTheListing() {
+        List<RoomSummary> listing = List.of(new RoomSummary(1L, "general", null, false, "alice", 3));
+        String etag = service.contentEtag(listing);
+
+        assertNotNull(etag);
+        // Another node building the same listing hands out the same tag
+        assertEquals(etag, service.contentEtag(List.of(new RoomSummary(1L, "general", null, false, "alice", 3))));
+        assertNotEquals(etag, service.contentEtag(List.of(new RoomSummary(1L, "general", null, false, "alice", 4))));
+    }
+}
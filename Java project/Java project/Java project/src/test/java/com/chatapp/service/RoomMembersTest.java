@@ -0,0 +1,87 @@
+package com.chatapp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoomMembersTest {
+
+    @Test
+    void addsAndRemovesMembers() {
+        RoomMembershipIndex.RoomMembers members = new RoomMembershipIndex.RoomMembers(true);
+        members.add(1);
+        members.add(2);
+        members.add(2);
+        assertEquals(2, members.size());
+        assertTrue(members.contains(1));
+        assertTrue(members.contains(2));
+        assertFalse(members.contains(3));
+        members.remove(1);
+        members.remove(3);
+        assertEquals(1, members.size());
+        assertFalse(members.contains(1));
+        assertTrue(members.contains(2));
+    }
+
+    @Test
+    void deletionKeepsLaterEntriesOfTheProbeRunReachable() {
+        RoomMembershipIndex.RoomMembers members = new RoomMembershipIndex.RoomMembers(false);
+        // Enough ids to force collisions and several resizes
+        for (long id = 1; id <= 1000; id++) {
+            members.add(id);
+        }
+        for (long id = 1; id <= 1000; id += 2) {
+            members.remove(id);
+        }
+        for (long id = 1; id <= 1000; id++) {
+            assertEquals(id % 2 == 0, members.contains(id), "member " + id);
+        }
+        assertEquals(500, members.size());
+    }
+
+    @Test
+    void matchesAHashSetUnderRandomChurn() {
+        RoomMembershipIndex.RoomMembers members = new RoomMembershipIndex.RoomMembers(true);
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int step = 0; step < 200_000; step++) {
+            // A small id space keeps the table dense with collisions and shrinks it now and then
+            long id = 1 + random.nextInt(step % 50_000 < 25_000 ? 2_000 : 64);
+            if (random.nextBoolean()) {
+                members.add(id);
+                expected.add(id);
+            } else {
+                members.remove(id);
+                expected.remove(id);
+            }
+            if (step % 997 == 0) {
+                for (long probe = 1; probe <= 2_000; probe++) {
+                    assertEquals(expected.contains(probe), members.contains(probe), "member " + probe + " at step " + step);
+                }
+            }
+        }
+        assertEquals(expected.size(), members.size());
+    }
+
+    @Test
+    void shrinksOnceMostlyEmpty() {
+        RoomMembershipIndex.RoomMembers members = new RoomMembershipIndex.RoomMembers(false);
+        long empty = members.footprintBytes();
+        for (long id = 1; id <= 10_000; id++) {
+            members.add(id);
+        }
+        long full = members.footprintBytes();
+        for (long id = 1; id <= 10_000; id++) {
+            members.remove(id);
+        }
+        assertEquals(0, members.size());
+        assertTrue(full > empty);
+        assertEquals(empty, members.footprintBytes());
+    }
+}
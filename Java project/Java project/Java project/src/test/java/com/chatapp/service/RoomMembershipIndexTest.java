@@ -0,0 +1,154 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RoomMembershipIndexTest {
+
+    private static final long PUBLIC_ROOM = 1;
+    private static final long PRIVATE_ROOM = 2;
+    private static final long ALICE = 10;
+    private static final long BOB = 11;
+
+    private JdbcTemplate jdbcTemplate;
+    private ChatLookupCache chatLookupCache;
+
+    @BeforeEach
+    void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:membership;DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE chat_rooms (id BIGINT PRIMARY KEY, is_private BOOLEAN NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE chat_room_participants (chat_room_id BIGINT, user_id BIGINT)");
+        jdbcTemplate.update("INSERT INTO chat_rooms VALUES (?, FALSE), (?, TRUE)", PUBLIC_ROOM, PRIVATE_ROOM);
+        jdbcTemplate.update("INSERT INTO chat_room_participants VALUES (?, ?), (?, ?)",
+                PUBLIC_ROOM, ALICE, PRIVATE_ROOM, ALICE);
+        chatLookupCache = mock(ChatLookupCache.class);
+        when(chatLookupCache.roomExists(PUBLIC_ROOM)).thenReturn(true);
+        when(chatLookupCache.roomExists(PRIVATE_ROOM)).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void answersFromTheIndex() {
+        RoomMembershipIndex index = index(WebSocketConfig.BrokerMode.SIMPLE, 5000);
+        assertTrue(index.canAccess(PUBLIC_ROOM, BOB));
+        assertTrue(index.canAccess(PRIVATE_ROOM, ALICE));
+        assertFalse(index.canAccess(PRIVATE_ROOM, BOB));
+        assertFalse(index.canAccess(99L, ALICE));
+
+        index.memberAdded(PRIVATE_ROOM, BOB);
+        assertTrue(index.canAccess(PRIVATE_ROOM, BOB));
+        index.memberRemoved(PRIVATE_ROOM, BOB);
+        assertFalse(index.canAccess(PRIVATE_ROOM, BOB));
+        index.roomUpdated(PUBLIC_ROOM, true);
+        assertFalse(index.canAccess(PUBLIC_ROOM, BOB));
+    }
+
+    @Test
+    void removalOnAnotherNodeAppliesAfterTheRefreshInterval() throws InterruptedException {
+        RoomMembershipIndex index = index(WebSocketConfig.BrokerMode.CLUSTER, 50);
+        assertTrue(index.canAccess(PRIVATE_ROOM, ALICE));
+
+        jdbcTemplate.update("DELETE FROM chat_room_participants WHERE chat_room_id = ? AND user_id = ?", PRIVATE_ROOM, ALICE);
+        Thread.sleep(100);
+
+        assertFalse(index.canAccess(PRIVATE_ROOM, ALICE));
+    }
+
+    @Test
+    void roomMadePrivateOnAnotherNodeAppliesAfterTheRefreshInterval() throws InterruptedException {
+        RoomMembershipIndex index = index(WebSocketConfig.BrokerMode.RELAY, 50);
+        assertTrue(index.canAccess(PUBLIC_ROOM, BOB));
+
+        jdbcTemplate.update("UPDATE chat_rooms SET is_private = TRUE WHERE id = ?", PUBLIC_ROOM);
+        Thread.sleep(100);
+
+        assertFalse(index.canAccess(PUBLIC_ROOM, BOB));
+        assertTrue(index.canAccess(PUBLIC_ROOM, ALICE));
+    }
+
+    @Test
+    void joinOnAnotherNodeAppliesAtOnce() {
+        RoomMembershipIndex index = index(WebSocketConfig.BrokerMode.CLUSTER, 60_000);
+        assertTrue(index.canAccess(PRIVATE_ROOM, ALICE));
+
+        jdbcTemplate.update("INSERT INTO chat_room_participants VALUES (?, ?)", PRIVATE_ROOM, BOB);
+
+        assertTrue(index.canAccess(PRIVATE_ROOM, BOB));
+    }
+
+    @Test
+    void deniedAccessIsCheckedAgainstTheDatabaseOncePerRefreshInterval() throws InterruptedException {
+        AtomicInteger queries = new AtomicInteger();
+        JdbcTemplate counting = new JdbcTemplate(jdbcTemplate.getDataSource()) {
+            @Override
+            public void query(String sql, RowCallbackHandler handler, Object... args) {
+                queries.incrementAndGet();
+                super.query(sql, handler, args);
+            }
+        };
+        RoomMembershipIndex index = index(WebSocketConfig.BrokerMode.CLUSTER, 200);
+        ReflectionTestUtils.setField(index, "jdbcTemplate", counting);
+
+        for (int i = 0; i < 100; i++) {
+            assertFalse(index.canAccess(PRIVATE_ROOM, BOB));
+        }
+        assertEquals(1, queries.get());
+
+        // A join on another node after the denial applies with the next reload
+        jdbcTemplate.update("INSERT INTO chat_room_participants VALUES (?, ?)", PRIVATE_ROOM, BOB);
+        assertFalse(index.canAccess(PRIVATE_ROOM, BOB));
+        Thread.sleep(300);
+        assertTrue(index.canAccess(PRIVATE_ROOM, BOB));
+    }
+
+    @Test
+    void localJoinClearsADeniedAccess() {
+        RoomMembershipIndex index = index(WebSocketConfig.BrokerMode.CLUSTER, 60_000);
+        assertFalse(index.canAccess(PRIVATE_ROOM, BOB));
+
+        index.memberAdded(PRIVATE_ROOM, BOB);
+
+        assertTrue(index.canAccess(PRIVATE_ROOM, BOB));
+    }
+
+    @Test
+    void singleNodeDoesNotReload() throws InterruptedException {
+        RoomMembershipIndex index = index(WebSocketConfig.BrokerMode.SIMPLE, 1);
+        jdbcTemplate.update("DELETE FROM chat_room_participants");
+        Thread.sleep(10);
+        // Every change goes through this node, so the index is authoritative
+        assertTrue(index.canAccess(PRIVATE_ROOM, ALICE));
+    }
+
+    private RoomMembershipIndex index(WebSocketConfig.BrokerMode brokerMode, long refreshMillis) {
+        RoomMembershipIndex index = new RoomMembershipIndex();
+        ReflectionTestUtils.setField(index, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(index, "chatLookupCache", chatLookupCache);
+        ReflectionTestUtils.setField(index, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(index, "brokerMode", brokerMode);
+        ReflectionTestUtils.setField(index, "refreshMillis", refreshMillis);
+        index.init();
+        return index;
+    }
+}
@@ -0,0 +1,78 @@
+package com.chatapp.service;
+
+import com.chatapp.config.WebSocketConfig;
+import com.chatapp.payload.response.UnreadSummary;
+import com.chatapp.repository.ChatRoomRepository;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.ReadWatermarkRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UnreadCounterServiceTest {
+
+    private static final long USER_ID = 10;
+    private static final long ROOM_ID = 1;
+
+    @Mock
+    private MessageRepository messageRepository;
+    @Mock
+    private ChatRoomRepository chatRoomRepository;
+    @Mock
+    private ReadWatermarkRepository readWatermarkRepository;
+
+    @InjectMocks
+    private UnreadCounterService service;
+
+    @Test
+    void singleNodeCountsSendsInMemory() {
+        ReflectionTestUtils.setField(service, "brokerMode", WebSocketConfig.BrokerMode.SIMPLE);
+        ReflectionTestUtils.setField(service, "maxUsers", 100);
+        when(chatRoomRepository.findRoomIdsByParticipantId(USER_ID)).thenReturn(List.of(ROOM_ID));
+        when(messageRepository.countUnreadByRoom(USER_ID)).thenReturn(rows(new Object[] {ROOM_ID, 2L, 500L}));
+        when(messageRepository.countUnreadByConversation(USER_ID)).thenReturn(new ArrayList<>());
+        assertEquals(2, service.getSummary(USER_ID).getTotal());
+
+        service.roomMessageSent(ROOM_ID, 20L, 600L);
+        service.privateMessageSent(USER_ID, 20L, "bob", 601L);
+
+        UnreadSummary summary = service.getSummary(USER_ID);
+        assertEquals(Map.of(ROOM_ID, 3L), summary.getRooms());
+        assertEquals(Map.of("bob", 1L), summary.getConversations());
+        verify(messageRepository, times(1)).countUnreadByRoom(USER_ID);
+    }
+
+    @Test
+    void multipleNodesCountEverySummaryFromTheDatabase() {
+        ReflectionTestUtils.setField(service, "brokerMode", WebSocketConfig.BrokerMode.CLUSTER);
+        when(messageRepository.countUnreadByRoom(USER_ID)).thenReturn(
+                rows(new Object[] {ROOM_ID, 2L, 500L}),
+                // A message sent through another node
+                rows(new Object[] {ROOM_ID, 3L, 600L}));
+        when(messageRepository.countUnreadByConversation(USER_ID)).thenReturn(new ArrayList<>());
+        assertEquals(2, service.getSummary(USER_ID).getTotal());
+
+        // Sends through this node are not counted on top of the database
+        service.roomMessageSent(ROOM_ID, 20L, 600L);
+
+        assertEquals(Map.of(ROOM_ID, 3L), service.getSummary(USER_ID).getRooms());
+        verify(messageRepository, times(2)).countUnreadByRoom(USER_ID);
+    }
+
+    private static List<Object[]> rows(Object[]... rows) {
+        return new ArrayList<>(List.of(rows));
+    }
+}